@@ -0,0 +1,52 @@
+package com.ericelsken.android.web;
+
+import java.io.IOException;
+
+/**
+ * Sees each buffer of a Request or Response body as it is streamed, so that
+ * digests, MACs, and signatures are computed in the same pass that sends or
+ * reads the body, without a copy of it. A new BodyObserver is created for
+ * every execution by the Factory given to
+ * Request.Builder.setRequestBodyObserver() or setResponseBodyObserver().
+ * Only the bodies of 2xx responses are observed, so that an observer cannot
+ * replace the HttpException of a failed Request.
+ * 
+ * Callbacks are received on the thread executing the Request, or for a
+ * Response from Call.executeStreaming(), the thread reading its body stream.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface BodyObserver {
+	
+	/**
+	 * Called with each buffer of the body as it is written or read. buffer
+	 * MUST NOT be modified or kept.
+	 * @param buffer the buffer holding the bytes.
+	 * @param offset the offset of the bytes in buffer.
+	 * @param count the number of bytes.
+	 */
+	public void update(byte[] buffer, int offset, int count);
+	
+	/**
+	 * Called once the whole body has been written or read. Throwing fails the
+	 * Request with the IOException, such as when a digest does not match.
+	 * @throws IOException if the body is rejected.
+	 */
+	public void end() throws IOException;
+	
+	/**
+	 * Creates the BodyObserver of each execution of a Request.
+	 */
+	public interface Factory {
+		
+		/**
+		 * Returns a new BodyObserver for a body of req.
+		 * @param req the Request as it is sent to the Transport.
+		 * @param headers the headers describing the body: those of req for a
+		 * Request body, those of the response for a Response body.
+		 * @return the new BodyObserver, or null to not observe the body.
+		 */
+		public BodyObserver newObserver(Request req, Headers headers);
+	}
+}
@@ -0,0 +1,577 @@
+package com.ericelsken.android.web;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ericelsken.android.web.metrics.MetricsRegistry;
+import com.ericelsken.android.web.metrics.RequestLog;
+
+/**
+ * A single execution of a Request. Requests are immutable and may be executed
+ * any number of times; each execution is represented by a new Call obtained
+ * from Request.newCall(). Request.execute() is shorthand for
+ * newCall().execute().
+ * 
+ * Multiple, successive calls to execute() or executeStreaming() on the same
+ * Call will return the Response from the first call. Before the Request
+ * reaches the Transport, it passes through the chain of Interceptors
+ * registered with RequestManager and the Request itself.
+ * 
+ * cancel() may be called from any thread to abort a Call that is executing, or
+ * to prevent a Call that has not yet executed from making any network calls.
+ * Cancelling a Call while its Request body is being written stops the upload
+ * at the next buffer.
+ * 
+ * A Call records the System.nanoTime() at which it was created, started
+ * executing, reached the Transport, received the response headers, and
+ * finished receiving the body, for tracers and other timing Interceptors.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class Call {
+	
+	private static final byte[] EMPTY_BODY = new byte[0];
+	
+	private final Request request;
+	private final ReentrantLock lock;
+	private volatile Exchange exchange;
+	private volatile boolean canceled;
+	private volatile Response response;
+	private boolean streaming;
+	private Request networkRequest;
+	private boolean streamOpen;
+	private final long createdNanos;
+	private volatile long startNanos;
+	private volatile long networkNanos;
+	private volatile long headersNanos;
+	private volatile long bodyNanos;
+	private long bytesOut;
+	private long bytesIn;
+	
+	Call(Request request) {
+		this.request = request;
+		this.lock = new ReentrantLock();
+		this.exchange = null;
+		this.canceled = false;
+		this.response = null;
+		this.createdNanos = System.nanoTime();
+	}
+	
+	/**
+	 * Returns the Request executed by this Call.
+	 * @return the Request executed by this Call.
+	 */
+	public Request getRequest() {
+		return request;
+	}
+	
+	/**
+	 * Executes the Request and returns the Response object obtained from it.
+	 * This method makes networking calls and thus CANNOT be called on the
+	 * main-UI thread. Multiple, successive calls to this method on the same
+	 * instance will return the Response from the first call.
+	 * If this Call is cancelled, Response.isCancelled() will return true and
+	 * the Response will hold an InterruptedIOException.
+	 * @return the Response object obtained from executing the Request.
+	 */
+	public Response execute() {
+		return run(false);
+	}
+	
+	/**
+	 * Executes the Request like execute(), except that the body of a 2xx
+	 * response is not read. Instead it is left open and available from
+	 * Response.getBodyStream(), and the caller MUST call Response.close() once
+	 * done reading it. The body of a non 2xx response is read as usual.
+	 * Cancelling this Call while the body is being read aborts the read.
+	 * This method makes networking calls and thus CANNOT be called on the
+	 * main-UI thread.
+	 * @return the Response object obtained from executing the Request.
+	 */
+	public Response executeStreaming() {
+		return run(true);
+	}
+	
+	/**
+	 * Executes the Request once, holding a ReentrantLock rather than this
+	 * Call's monitor so that a virtual thread blocked on the network does not
+	 * pin its carrier thread.
+	 */
+	private Response run(boolean streaming) {
+		lock.lock();
+		try {
+			if(response == null) {
+				response = runChain(streaming);
+			}
+			return response;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private Response runChain(boolean streaming) {
+		this.streaming = streaming;
+		startNanos = System.nanoTime();
+		Interceptor[] global = RequestManager.getInstance().getInterceptors();
+		Interceptor[] local = request.getInterceptors();
+		Response res;
+		if(global.length == 0 && local.length == 0) {
+			res = network(request);
+		} else {
+			res = new RealChain(global, local, 0, request).proceed(request);
+		}
+		if(!streamOpen) {
+			recordMetrics(res);
+		}
+		return res;
+	}
+	
+	/**
+	 * Executes req with the Transport. This is the end of the Interceptor
+	 * chain.
+	 */
+	private Response network(Request req) {
+		networkRequest = req;
+		networkNanos = System.nanoTime();
+		final URI uri = req.getUri();
+		Exchange ex = null;
+		int status = -1;
+		String message = null;
+		Headers fields = Headers.EMPTY;
+		byte[] body = EMPTY_BODY;
+		InputStream bodyStream = null;
+		Exception caught = null;
+		int failure = Response.FAILURE_NONE;
+		if(canceled) {
+			streamOpen = false;
+			return Response.cancelled();
+		}
+		try {
+			if(uri.getScheme() == null || uri.getScheme().indexOf("http") != 0) {
+				throw new SchemeException(uri.getScheme());
+			}
+			ex = req.getTransport().newExchange(req);
+			exchange = ex;
+			//cancel() may have missed the Exchange if it was called just now.
+			checkCanceled();
+			if(req.getBody() != null) {
+				writeBody(ex);
+			}
+			status = ex.getStatusCode();
+			headersNanos = System.nanoTime();
+			message = ex.getStatusMessage();
+			fields = Headers.of(ex.getHeaderFields());
+			InputStream in = ex.getResponseBody();
+			if(streaming && status / 100 == 2 && in != null) {
+				body = null;
+				bodyStream = new ExchangeInputStream(in, ex, newObserver(req.getResponseBodyObserver(), fields));
+			} else if(in != null) {
+				//Only 2xx bodies are observed, so that a BodyObserver cannot replace an HTTP failure.
+				body = readBody(in, status / 100 == 2 ? newObserver(req.getResponseBodyObserver(), fields) : null);
+			}
+			if(bodyStream == null) {
+				bodyNanos = System.nanoTime();
+			}
+			if(status / 100 != 2) {
+				failure = Response.FAILURE_HTTP;
+			}
+		} catch (Exception e) {
+			if(canceled) {
+				//Report the cancellation rather than how the Transport was aborted.
+				failure = Response.FAILURE_INTERRUPTED;
+			} else {
+				caught = e;
+			}
+		} finally {
+			if(bodyStream == null) {
+				if(ex != null) {
+					ex.close();
+				}
+				exchange = null;
+			}
+		}
+		streamOpen = bodyStream != null;
+		return new Response(status, message, fields, body, bodyStream, caught, failure);
+	}
+	
+	/**
+	 * Cancels this Call. If the Call is executing, its Exchange is aborted.
+	 * If it has not started executing, then it will not make any network
+	 * calls when it does. This may be called from any thread.
+	 */
+	public void cancel() {
+		canceled = true;
+		Exchange ex = exchange;
+		if(ex != null) {
+			ex.cancel();
+		}
+	}
+	
+	/**
+	 * Returns whether or not cancel() has been called on this Call.
+	 * @return true if this Call has been cancelled, false otherwise.
+	 */
+	public boolean isCanceled() {
+		return canceled;
+	}
+	
+	/**
+	 * Returns the System.nanoTime() at which this Call was created, which is
+	 * when its Request was queued for RequestHandlers and RequestFutures.
+	 * @return the time this Call was created.
+	 */
+	public long getCreatedNanos() {
+		return createdNanos;
+	}
+	
+	/**
+	 * Returns the System.nanoTime() at which this Call started executing.
+	 * @return the start time, or 0 if this Call has not started.
+	 */
+	public long getStartedNanos() {
+		return startNanos;
+	}
+	
+	/**
+	 * Returns the System.nanoTime() at which this Call passed its Request to
+	 * the Transport, after all Interceptors.
+	 * @return the time the Request reached the Transport, or 0 if it has not.
+	 */
+	public long getNetworkNanos() {
+		return networkNanos;
+	}
+	
+	/**
+	 * Returns the System.nanoTime() at which the status and headers of the
+	 * response were received.
+	 * @return the time the headers were received, or 0 if they were not.
+	 */
+	public long getHeadersNanos() {
+		return headersNanos;
+	}
+	
+	/**
+	 * Returns the System.nanoTime() at which the body of the response was
+	 * read, or for a streaming Response, its body stream was closed.
+	 * @return the time the body was received, or 0 if it was not.
+	 */
+	public long getBodyNanos() {
+		return bodyNanos;
+	}
+	
+	/**
+	 * Returns the time this Call waited between being created and starting to
+	 * execute, i.e. queued behind other Requests.
+	 * @return the queueing time in nanoseconds, or -1 if this Call has not
+	 * started.
+	 */
+	public long getQueueNanos() {
+		long started = startNanos;
+		return started != 0 ? started - createdNanos : -1;
+	}
+	
+	/**
+	 * Returns the time to first byte: from the Request reaching the Transport
+	 * until the response headers were received. This covers resolving,
+	 * connecting, sending the Request body, and the server processing it.
+	 * @return the time to first byte in nanoseconds, or -1 if the headers
+	 * were not received.
+	 */
+	public long getWaitNanos() {
+		long network = networkNanos;
+		long headers = headersNanos;
+		return network != 0 && headers != 0 ? headers - network : -1;
+	}
+	
+	/**
+	 * Returns the time taken to receive the response body once the headers
+	 * were received.
+	 * @return the transfer time in nanoseconds, or -1 if the body was not
+	 * received or is still being streamed.
+	 */
+	public long getTransferNanos() {
+		long headers = headersNanos;
+		long body = bodyNanos;
+		return headers != 0 && body != 0 ? body - headers : -1;
+	}
+	
+	/**
+	 * Returns whether or not this Call has finished executing.
+	 * @return true if execute() has returned, false otherwise.
+	 */
+	public boolean isExecuted() {
+		return response != null;
+	}
+	
+	/**
+	 * Records this Call with the MetricsRegistry and RequestLog, if there are
+	 * any, once the Response body has been fully read.
+	 */
+	private void recordMetrics(Response res) {
+		RequestManager manager = RequestManager.getInstance();
+		MetricsRegistry metrics = manager.getMetricsRegistry();
+		RequestLog log = manager.getRequestLog();
+		if(metrics == null && log == null) {
+			return;
+		}
+		boolean cacheHit = res.isFromCache();
+		Request req = networkRequest == null ? request : networkRequest;
+		long nanos = System.nanoTime() - startNanos;
+		if(metrics != null) {
+			metrics.record(req, res, nanos, bytesIn, bytesOut, cacheHit);
+		}
+		if(log != null) {
+			log.record(this, req, res, nanos, bytesIn, bytesOut, cacheHit);
+		}
+	}
+	
+	private void checkCanceled() throws InterruptedIOException {
+		if(canceled) {
+			throw new InterruptedIOException("Call was cancelled.");
+		}
+	}
+	
+	private BodyObserver newObserver(BodyObserver.Factory factory, Headers headers) {
+		return factory == null ? null : factory.newObserver(networkRequest, headers);
+	}
+	
+	private byte[] readBody(InputStream in, BodyObserver observer) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(networkRequest.getBufferSize());
+		copyStreams(in, out, observer);
+		bytesIn = out.size();
+		if(observer != null) {
+			observer.end();
+		}
+		return out.toByteArray();
+	}
+
+	private void writeBody(Exchange ex) throws IOException {
+		final RequestBody body = networkRequest.getBody();
+		final long length = body.getContentLength();
+		BodyObserver observer = newObserver(networkRequest.getRequestBodyObserver(), networkRequest.getHeaders());
+		OutputStream out = new BufferedOutputStream(
+				new BodyOutputStream(ex.getRequestBody(length), length, observer), networkRequest.getBufferSize());
+		try {
+			body.writeTo(out);
+			if(observer != null) {
+				//Pass the last buffer through the BodyObserver before ending it.
+				out.flush();
+				observer.end();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void copyStreams(InputStream in, OutputStream out, BodyObserver observer) throws IOException {
+		int tempRead = 0;
+		byte[] buffer = new byte[networkRequest.getBufferSize()];
+		while(tempRead != -1) {
+			tempRead = in.read(buffer, 0, buffer.length);
+			if(tempRead != -1) {
+				out.write(buffer, 0, tempRead);
+				if(observer != null) {
+					observer.update(buffer, 0, tempRead);
+				}
+			}
+		}
+		in.close();
+		out.close();
+	}
+	
+	/**
+	 * The body stream of a streaming Response, which closes the Exchange it
+	 * was read from when closed.
+	 */
+	private class ExchangeInputStream extends FilterInputStream {
+		
+		private final Exchange ex;
+		private final BodyObserver observer;
+		private final byte[] single;
+		private byte[] skipBuffer;
+		private boolean closed;
+		private boolean ended;
+		
+		private ExchangeInputStream(InputStream in, Exchange ex, BodyObserver observer) {
+			super(in);
+			this.ex = ex;
+			this.observer = observer;
+			this.single = observer == null ? null : new byte[1];
+			this.skipBuffer = null;
+			this.closed = false;
+			this.ended = false;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if(observer != null) {
+				return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+			}
+			int b = super.read();
+			if(b != -1) {
+				bytesIn++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int off, int len) throws IOException {
+			int read = super.read(buffer, off, len);
+			if(read > 0) {
+				bytesIn += read;
+				if(observer != null) {
+					observer.update(buffer, off, read);
+				}
+			} else if(read == -1 && observer != null && !ended) {
+				ended = true;
+				observer.end();
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			if(n <= 0) {
+				return 0;
+			}
+			if(observer != null) {
+				//Skipped bytes must still pass through the BodyObserver.
+				if(skipBuffer == null) {
+					skipBuffer = new byte[networkRequest.getBufferSize()];
+				}
+				int read = read(skipBuffer, 0, (int) Math.min(n, skipBuffer.length));
+				return read == -1 ? 0 : read;
+			}
+			long skipped = super.skip(n);
+			bytesIn += skipped;
+			return skipped;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				ex.close();
+				exchange = null;
+				streamOpen = false;
+				bodyNanos = System.nanoTime();
+				//If closed by an Interceptor, runChain() records the Call instead.
+				if(response != null) {
+					recordMetrics(response);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Wraps the Request body stream of an Exchange to stop writing once this
+	 * Call is cancelled and to report progress to the upload listener and
+	 * BodyObserver.
+	 */
+	private class BodyOutputStream extends FilterOutputStream {
+		
+		private final long length;
+		private final ProgressListener listener;
+		private final BodyObserver observer;
+		private final byte[] single;
+		private long written;
+		
+		private BodyOutputStream(OutputStream out, long length, BodyObserver observer) {
+			super(out);
+			this.length = length;
+			this.listener = networkRequest.getUploadListener();
+			this.observer = observer;
+			this.single = observer == null ? null : new byte[1];
+			this.written = 0;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			checkCanceled();
+			out.write(b);
+			if(observer != null) {
+				single[0] = (byte) b;
+				observer.update(single, 0, 1);
+			}
+			progress(1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			checkCanceled();
+			out.write(b, off, len);
+			if(observer != null) {
+				observer.update(b, off, len);
+			}
+			progress(len);
+		}
+		
+		private void progress(int len) {
+			written += len;
+			bytesOut = written;
+			if(listener != null) {
+				listener.onProgress(written, length);
+			}
+		}
+	}
+	
+	/**
+	 * The Interceptor.Chain that runs the RequestManager interceptors, then
+	 * the Request's own, then the Transport.
+	 */
+	private class RealChain implements Interceptor.Chain {
+		
+		private final Interceptor[] global;
+		private final Interceptor[] local;
+		private final int index;
+		private final Request req;
+		
+		private RealChain(Interceptor[] global, Interceptor[] local, int index, Request req) {
+			this.global = global;
+			this.local = local;
+			this.index = index;
+			this.req = req;
+		}
+
+		@Override
+		public Request request() {
+			return req;
+		}
+
+		@Override
+		public Call call() {
+			return Call.this;
+		}
+
+		@Override
+		public Response proceed(Request next) {
+			if(next == null) {
+				throw new NullPointerException("Request cannot be null.");
+			}
+			if(index == global.length + local.length) {
+				return network(next);
+			}
+			Interceptor interceptor = index < global.length
+					? global[index] : local[index - global.length];
+			Response res = interceptor.intercept(new RealChain(global, local, index + 1, next));
+			if(res == null) {
+				throw new NullPointerException(interceptor + " returned a null Response.");
+			}
+			return res;
+		}
+	}
+}
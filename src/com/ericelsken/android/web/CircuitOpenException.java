@@ -0,0 +1,48 @@
+package com.ericelsken.android.web;
+
+/**
+ * Instances of this class indicate that a Request was not executed because
+ * the circuit breaker for its host is open, meaning too many recent Requests
+ * to the host failed or were too slow.
+ * Instances of this class will be sent to RequestCallback.onRequestException()
+ * without any network call being made.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class CircuitOpenException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final String mHost;
+	private final long mRetryAfter;
+	
+	/**
+	 * Create a new instance for the given host.
+	 * @param host the host whose circuit is open.
+	 * @param retryAfter the number of milliseconds until the circuit will let
+	 * a trial Request through.
+	 */
+	public CircuitOpenException(String host, long retryAfter) {
+		super("Circuit open for host " + host + ", retry after " + retryAfter + "ms");
+		mHost = host;
+		mRetryAfter = retryAfter;
+	}
+	
+	/**
+	 * Returns the host whose circuit is open.
+	 * @return the host whose circuit is open.
+	 */
+	public String getHost() {
+		return mHost;
+	}
+	
+	/**
+	 * Returns the number of milliseconds, at the time of the Request, until the
+	 * circuit would let a trial Request through.
+	 * @return the number of milliseconds until a retry may succeed.
+	 */
+	public long getRetryAfter() {
+		return mRetryAfter;
+	}
+}
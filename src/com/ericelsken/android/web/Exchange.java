@@ -0,0 +1,76 @@
+package com.ericelsken.android.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single request/response exchange created by a Transport. Request.execute()
+ * drives an Exchange in the following order:
+ * 1. getRequestBody() is called at most once if the Request has a body, and
+ * 	the returned stream is written to and closed.
+ * 2. getStatusCode() is called, which blocks until the response headers are
+ * 	available.
+ * 3. getStatusMessage(), getHeaderFields(), and getResponseBody() are called to
+ * 	read the rest of the response.
+ * 4. close() is called in all cases, even if any of the above threw.
+ * 
+ * cancel() may be called at any time from any thread to abort the exchange.
+ * Every other method is only called from the thread executing the Request.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public abstract class Exchange {
+	
+	/**
+	 * Returns the stream to which the Request body is written.
+	 * @param contentLength the number of bytes that will be written, or -1 if
+	 * it is not known ahead of time.
+	 * @return the stream to write the Request body to.
+	 * @throws IOException if the stream could not be opened.
+	 */
+	public abstract OutputStream getRequestBody(long contentLength) throws IOException;
+	
+	/**
+	 * Returns the status code of the response, blocking until it is available.
+	 * @return the status code of the response.
+	 * @throws IOException if the response could not be read.
+	 */
+	public abstract int getStatusCode() throws IOException;
+	
+	/**
+	 * Returns the status message of the response, i.e. OK or Not Found.
+	 * @return the status message of the response, or null if there is none.
+	 * @throws IOException if the response could not be read.
+	 */
+	public abstract String getStatusMessage() throws IOException;
+	
+	/**
+	 * Returns the headers of the response.
+	 * @return the headers of the response, or null if they are not available.
+	 */
+	public abstract Map<String, List<String>> getHeaderFields();
+	
+	/**
+	 * Returns the stream from which the response body is read, regardless of
+	 * the status code of the response.
+	 * @return the response body stream, or null if the response has no body.
+	 * @throws IOException if the stream could not be opened.
+	 */
+	public abstract InputStream getResponseBody() throws IOException;
+	
+	/**
+	 * Aborts this exchange. Any thread blocked reading or writing on behalf of
+	 * this exchange should fail with an IOException. This may be called from
+	 * any thread and more than once.
+	 */
+	public abstract void cancel();
+	
+	/**
+	 * Releases all resources held by this exchange.
+	 */
+	public abstract void close();
+}
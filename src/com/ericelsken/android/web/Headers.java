@@ -0,0 +1,396 @@
+package com.ericelsken.android.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compact, ordered collection of HTTP header fields used by both Request
+ * and Response. Field names and values are held in two parallel arrays and
+ * looked up by a linear, case-insensitive scan, which for the handful of
+ * headers found on a typical Request or Response is both smaller and faster
+ * than a map. Commonly used field names are replaced by a single shared
+ * instance with their canonical capitalization, so thousands of Requests
+ * carrying the same headers do not each retain their own copy of the names.
+ *
+ * Instances of this class are read-only once created. A Request and the
+ * Request.Builder that created it share the same instance until the Builder
+ * is modified again, at which point the Builder makes its own copy. Transports
+ * and Interceptors that create their own Responses build instances with
+ * Headers.Builder or of().
+ *
+ * @author Eric Elsken
+ *
+ */
+public final class Headers {
+
+	/**
+	 * An empty instance with no header fields.
+	 */
+	public static final Headers EMPTY = new Headers(0);
+
+	/**
+	 * Field names that are shared across all instances of this class.
+	 */
+	private static final String[] COMMON_NAMES = {
+		"Accept",
+		"Accept-Encoding",
+		"Accept-Language",
+		"Authorization",
+		"Cache-Control",
+		"Connection",
+		"Content-Encoding",
+		"Content-Length",
+		"Content-Range",
+		"Content-Type",
+		"Cookie",
+		"Date",
+		"ETag",
+		"Expires",
+		"Host",
+		"If-Modified-Since",
+		"If-None-Match",
+		"If-Range",
+		"Keep-Alive",
+		"Last-Event-ID",
+		"Last-Modified",
+		"Location",
+		"Pragma",
+		"Range",
+		"Retry-After",
+		"Server",
+		"Set-Cookie",
+		"Transfer-Encoding",
+		"User-Agent",
+		"Vary",
+		"X-Request-Id",
+	};
+
+	private String[] names;
+	private String[] values;
+	private int size;
+
+	Headers(int capacity) {
+		names = new String[capacity];
+		values = new String[capacity];
+		size = 0;
+	}
+
+	/**
+	 * Creates a new instance from a map of field names to values, such as one
+	 * returned by Exchange.getHeaderFields(). Entries with a null field name,
+	 * like the status line reported by HttpURLConnection, are skipped.
+	 * @param fields the map of header fields.
+	 * @return a new instance holding all of the fields in the map, or EMPTY if
+	 * fields is null or empty.
+	 */
+	public static Headers of(Map<String, List<String>> fields) {
+		if(fields == null || fields.isEmpty()) {
+			return EMPTY;
+		}
+		Headers headers = new Headers(fields.size());
+		for(Map.Entry<String, List<String>> entry : fields.entrySet()) {
+			if(entry.getKey() == null || entry.getValue() == null) {
+				continue;
+			}
+			for(String value : entry.getValue()) {
+				if(value != null) {
+					headers.add(entry.getKey(), value);
+				}
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * Returns the number of header fields held by this instance. Note that a
+	 * field name with multiple values is counted once per value.
+	 * @return the number of header fields.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the field name at index.
+	 * @param index the index of the field, from 0 to size() - 1.
+	 * @return the field name at index.
+	 * @throws IndexOutOfBoundsException if index is out of range.
+	 */
+	public String name(int index) {
+		checkIndex(index);
+		return names[index];
+	}
+
+	/**
+	 * Returns the value at index.
+	 * @param index the index of the field, from 0 to size() - 1.
+	 * @return the value at index.
+	 * @throws IndexOutOfBoundsException if index is out of range.
+	 */
+	public String value(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	/**
+	 * Returns the last value of the field with the given name, ignoring case.
+	 * @param name the field name to look up.
+	 * @return the last value of the field, or null if there is no such field.
+	 */
+	public String get(String name) {
+		for(int i = size - 1; i >= 0; i--) {
+			if(names[i].equalsIgnoreCase(name)) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns all values of the field with the given name, ignoring case, in
+	 * the order they were added.
+	 * @param name the field name to look up.
+	 * @return an immutable list of the values of the field, which is empty if
+	 * there is no such field.
+	 */
+	public List<String> values(String name) {
+		List<String> result = null;
+		for(int i = 0; i < size; i++) {
+			if(names[i].equalsIgnoreCase(name)) {
+				if(result == null) {
+					result = new ArrayList<String>(2);
+				}
+				result.add(values[i]);
+			}
+		}
+		if(result == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Returns a new map of field names to their values. The map ignores case
+	 * when looking up field names.
+	 * @return a new, immutable map of the header fields.
+	 */
+	public Map<String, List<String>> toMultimap() {
+		Map<String, List<String>> map = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+		for(int i = 0; i < size; i++) {
+			List<String> list = map.get(names[i]);
+			if(list == null) {
+				list = new ArrayList<String>(1);
+				map.put(names[i], list);
+			}
+			list.add(values[i]);
+		}
+		for(Map.Entry<String, List<String>> entry : map.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Returns a new Builder initialized with the fields of this instance.
+	 * @return a new Builder holding a copy of the fields of this instance.
+	 */
+	public Builder newBuilder() {
+		return new Builder(copy());
+	}
+
+	/**
+	 * Returns a new instance holding the same fields as this one.
+	 * @return a copy of this instance.
+	 */
+	Headers copy() {
+		Headers copy = new Headers(size + 2);
+		System.arraycopy(names, 0, copy.names, 0, size);
+		System.arraycopy(values, 0, copy.values, 0, size);
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Sets the value of the field with the given name, replacing all values
+	 * the field previously had.
+	 * @param name the field name.
+	 * @param value the new value.
+	 */
+	void set(String name, String value) {
+		int index = -1;
+		int j = 0;
+		for(int i = 0; i < size; i++) {
+			if(names[i].equalsIgnoreCase(name)) {
+				if(index == -1) {
+					//Replace the first occurrence in place to preserve order.
+					index = j;
+					names[j] = names[i];
+					values[j] = value;
+					j++;
+				}
+				continue;
+			}
+			names[j] = names[i];
+			values[j] = values[i];
+			j++;
+		}
+		for(int i = j; i < size; i++) {
+			names[i] = null;
+			values[i] = null;
+		}
+		size = j;
+		if(index == -1) {
+			add(name, value);
+		}
+	}
+
+	/**
+	 * Adds a value for the field with the given name, keeping any values the
+	 * field already has.
+	 * @param name the field name.
+	 * @param value the value to add.
+	 */
+	void add(String name, String value) {
+		if(size == names.length) {
+			int capacity = Math.max(4, size * 2);
+			String[] newNames = new String[capacity];
+			String[] newValues = new String[capacity];
+			System.arraycopy(names, 0, newNames, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			names = newNames;
+			values = newValues;
+		}
+		names[size] = intern(name);
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Removes all values of the field with the given name.
+	 * @param name the field name.
+	 */
+	void remove(String name) {
+		int j = 0;
+		for(int i = 0; i < size; i++) {
+			if(!names[i].equalsIgnoreCase(name)) {
+				names[j] = names[i];
+				values[j] = values[i];
+				j++;
+			}
+		}
+		for(int i = j; i < size; i++) {
+			names[i] = null;
+			values[i] = null;
+		}
+		size = j;
+	}
+
+	/**
+	 * Returns the shared instance of name if it is a common field name, or
+	 * name itself otherwise.
+	 */
+	private static String intern(String name) {
+		final int length = name.length();
+		for(String common : COMMON_NAMES) {
+			if(common.length() == length && common.equalsIgnoreCase(name)) {
+				return common;
+			}
+		}
+		return name;
+	}
+
+	private void checkIndex(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < size; i++) {
+			sb.append(names[i]).append(": ").append(values[i]).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Builder of Headers for code outside of this package, such as a Transport
+	 * or a caching Interceptor creating its own Response.
+	 */
+	public static final class Builder {
+
+		private final Headers headers;
+
+		/**
+		 * Creates a new Builder with no fields.
+		 */
+		public Builder() {
+			this(new Headers(4));
+		}
+
+		private Builder(Headers headers) {
+			this.headers = headers;
+		}
+
+		/**
+		 * Adds a value for the field with the given name, keeping any values the
+		 * field already has.
+		 * @param name the field name.
+		 * @param value the value to add.
+		 * @return this Builder.
+		 */
+		public Builder add(String name, String value) {
+			checkField(name, value);
+			headers.add(name, value);
+			return this;
+		}
+
+		/**
+		 * Sets the value of the field with the given name, replacing all values
+		 * the field previously had.
+		 * @param name the field name.
+		 * @param value the new value.
+		 * @return this Builder.
+		 */
+		public Builder set(String name, String value) {
+			checkField(name, value);
+			headers.set(name, value);
+			return this;
+		}
+
+		/**
+		 * Removes all values of the field with the given name.
+		 * @param name the field name.
+		 * @return this Builder.
+		 */
+		public Builder remove(String name) {
+			if(name == null) {
+				throw new NullPointerException("Name cannot be null.");
+			}
+			headers.remove(name);
+			return this;
+		}
+
+		/**
+		 * Creates the Headers of this Builder. The Builder may be modified
+		 * further without affecting the returned instance.
+		 * @return a new instance holding the fields of this Builder.
+		 */
+		public Headers create() {
+			return headers.size == 0 ? EMPTY : headers.copy();
+		}
+
+		private static void checkField(String name, String value) {
+			if(name == null) {
+				throw new NullPointerException("Name cannot be null.");
+			}
+			if(value == null) {
+				throw new NullPointerException("Value cannot be null.");
+			}
+		}
+	}
+}
@@ -51,4 +51,15 @@ public class HttpException extends Exception {
 	public String getBody() {
 		return mBody;
 	}
+	
+	/**
+	 * Does not record a stack trace. This Exception represents a routine
+	 * outcome rather than a programming error, and is typically created long
+	 * after and far away from where it occurred, by Response.getException().
+	 * @return this Exception.
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
 }
@@ -0,0 +1,111 @@
+package com.ericelsken.android.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+import android.os.Build;
+
+/**
+ * The default Transport that executes Requests using
+ * java.net.HttpURLConnection. Connection reuse (keep-alive) and cookie
+ * management are left to the platform implementation of HttpURLConnection.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class HttpURLConnectionTransport implements Transport {
+	
+	static {
+		//Work around pre-Froyo bugs in HTTP connection reuse. Build is only
+		//touched on Android so this class also works on a plain JVM.
+		if("Dalvik".equals(System.getProperty("java.vm.name"))
+				&& Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
+			System.setProperty("http.keepAlive", "false");
+		}
+	}
+	
+	/**
+	 * Opens an HttpURLConnection to the URI of req and applies the method,
+	 * timeouts, and headers of req to it.
+	 */
+	@Override
+	public Exchange newExchange(Request req) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) req.getUri().toURL().openConnection();
+		conn.setRequestMethod(req.getMethod());
+		if(req.getConnectTimeout() > 0) {
+			conn.setConnectTimeout(req.getConnectTimeout());
+		}
+		if(req.getReadTimeout() > 0) {
+			conn.setReadTimeout(req.getReadTimeout());
+		}
+		Headers headers = req.getHeaders();
+		for(int i = 0; i < headers.size(); i++) {
+			conn.addRequestProperty(headers.name(i), headers.value(i));
+		}
+		return new ConnectionExchange(conn);
+	}
+	
+	/**
+	 * An Exchange backed by a single HttpURLConnection.
+	 */
+	private static class ConnectionExchange extends Exchange {
+		
+		private final HttpURLConnection mConn;
+		
+		private ConnectionExchange(HttpURLConnection conn) {
+			mConn = conn;
+		}
+
+		@Override
+		public OutputStream getRequestBody(long contentLength) throws IOException {
+			mConn.setDoOutput(true);
+			if(contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+				mConn.setFixedLengthStreamingMode((int) contentLength);
+			} else {
+				mConn.setChunkedStreamingMode(0);
+			}
+			return mConn.getOutputStream();
+		}
+
+		@Override
+		public int getStatusCode() throws IOException {
+			return mConn.getResponseCode();
+		}
+
+		@Override
+		public String getStatusMessage() throws IOException {
+			return mConn.getResponseMessage();
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaderFields() {
+			return mConn.getHeaderFields();
+		}
+
+		/**
+		 * Returns the error stream for 4xx and 5xx responses and the input
+		 * stream otherwise.
+		 */
+		@Override
+		public InputStream getResponseBody() throws IOException {
+			if(mConn.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+				return mConn.getErrorStream();
+			}
+			return mConn.getInputStream();
+		}
+
+		@Override
+		public void cancel() {
+			mConn.disconnect();
+		}
+
+		@Override
+		public void close() {
+			mConn.disconnect();
+		}
+	}
+}
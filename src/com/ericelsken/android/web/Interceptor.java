@@ -0,0 +1,62 @@
+package com.ericelsken.android.web;
+
+/**
+ * Observes, rewrites, or short-circuits the execution of Requests.
+ * Interceptors registered with RequestManager.addInterceptor() apply to every
+ * Request, and those given to Request.Builder.addInterceptor() apply to a
+ * single Request. When a Call executes, the RequestManager interceptors run
+ * first, in the order they were added, followed by the Request's own, and
+ * finally the Transport performs the exchange.
+ * 
+ * Each interceptor receives a Chain and normally returns
+ * chain.proceed(chain.request()), possibly with a rewritten Request, or
+ * timing or otherwise observing the call. It may instead return a Response
+ * without calling proceed(), for example one held in a cache, in which case no
+ * network call is made; a cached Response should be marked with
+ * Response.setFromCache() to be counted as a cache hit. Failures are
+ * reported the same way Call does, as an Exception held by the returned
+ * Response, rather than thrown.
+ * 
+ * Interceptors are called on the thread executing the Request, possibly from
+ * many threads at once, and MUST be thread-safe. When no interceptors are
+ * registered, executing a Request does not allocate anything on their behalf.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface Interceptor {
+	
+	/**
+	 * Intercepts the execution of chain.request().
+	 * @param chain the rest of the chain of interceptors.
+	 * @return the Response to the Request, which must not be null.
+	 */
+	public Response intercept(Chain chain);
+	
+	/**
+	 * The position of an interceptor within the chain executing a Call.
+	 */
+	public interface Chain {
+		
+		/**
+		 * Returns the Request as given to this interceptor.
+		 * @return the Request being executed.
+		 */
+		public Request request();
+		
+		/**
+		 * Returns the Call being executed, i.e. to check for cancellation.
+		 * @return the Call being executed.
+		 */
+		public Call call();
+		
+		/**
+		 * Passes req on to the next interceptor, or to the Transport if this
+		 * is the last interceptor, and returns its Response. This may be
+		 * called more than once, i.e. to retry a failed Request.
+		 * @param req the Request to execute.
+		 * @return the Response to req.
+		 */
+		public Response proceed(Request req);
+	}
+}
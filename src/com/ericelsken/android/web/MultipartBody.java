@@ -0,0 +1,221 @@
+package com.ericelsken.android.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A multipart/form-data RequestBody. Each part is written to the Request in
+ * turn, straight from its source, so files and streams are never held in
+ * memory. If the length of every part is known, the body is sent with a
+ * Content-Length header; otherwise it is sent with chunked transfer encoding.
+ * 
+ * Instances are created with MultipartBody.Builder.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class MultipartBody extends RequestBody {
+	
+	private static final byte[] CRLF = {'\r', '\n'};
+	private static final byte[] DASHES = {'-', '-'};
+	
+	private final byte[] boundary;
+	private final String contentType;
+	private final List<byte[]> partHeaders;
+	private final List<RequestBody> partBodies;
+	private final long contentLength;
+	private final boolean oneShot;
+	
+	private MultipartBody(String boundary, List<byte[]> partHeaders, List<RequestBody> partBodies) {
+		this.boundary = boundary.getBytes(UTF_8);
+		this.contentType = "multipart/form-data; boundary=" + boundary;
+		this.partHeaders = partHeaders;
+		this.partBodies = partBodies;
+		long length = 0;
+		for(int i = 0; i < partBodies.size(); i++) {
+			long partLength = partBodies.get(i).getContentLength();
+			if(partLength == -1) {
+				length = -1;
+				break;
+			}
+			length += DASHES.length + this.boundary.length + CRLF.length
+					+ partHeaders.get(i).length + CRLF.length + partLength + CRLF.length;
+		}
+		if(length != -1) {
+			length += DASHES.length + this.boundary.length + DASHES.length + CRLF.length;
+		}
+		this.contentLength = length;
+		boolean oneShot = false;
+		for(RequestBody part : partBodies) {
+			oneShot |= part.isOneShot();
+		}
+		this.oneShot = oneShot;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Returns true if any part may only be written once.
+	 */
+	@Override
+	public boolean isOneShot() {
+		return oneShot;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		for(int i = 0; i < partBodies.size(); i++) {
+			out.write(DASHES);
+			out.write(boundary);
+			out.write(CRLF);
+			out.write(partHeaders.get(i));
+			out.write(CRLF);
+			partBodies.get(i).writeTo(out);
+			out.write(CRLF);
+		}
+		out.write(DASHES);
+		out.write(boundary);
+		out.write(DASHES);
+		out.write(CRLF);
+	}
+	
+	/**
+	 * Utility class for building MultipartBody objects.
+	 * All methods of this class return a reference to this so that method call
+	 * chaining is easy.
+	 * 
+	 * @author Eric Elsken
+	 *
+	 */
+	public static class Builder {
+		
+		private final List<byte[]> partHeaders;
+		private final List<RequestBody> partBodies;
+		private String boundary;
+		
+		/**
+		 * Creates a new Builder with no parts and a random boundary.
+		 */
+		public Builder() {
+			partHeaders = new ArrayList<byte[]>();
+			partBodies = new ArrayList<RequestBody>();
+			boundary = "----" + Long.toHexString(new Random().nextLong())
+					+ Long.toHexString(System.nanoTime());
+		}
+		
+		/**
+		 * Sets the boundary that separates the parts.
+		 * @param boundary the new boundary, which must not appear in any part.
+		 * @return this
+		 */
+		public Builder setBoundary(String boundary) {
+			if(boundary == null || boundary.length() == 0) {
+				throw new IllegalArgumentException("boundary cannot be empty.");
+			}
+			this.boundary = boundary;
+			return this;
+		}
+		
+		/**
+		 * Adds a form field part.
+		 * @param name the name of the field.
+		 * @param value the value of the field.
+		 * @return this
+		 */
+		public Builder addField(String name, String value) {
+			return addPart(name, null, RequestBody.create(null, value));
+		}
+		
+		/**
+		 * Adds a file part that is streamed from disk.
+		 * @param name the name of the field.
+		 * @param filename the file name sent to the server, or null to use the
+		 * name of file.
+		 * @param contentType the content type of the file, or null.
+		 * @param file the file to send.
+		 * @return this
+		 */
+		public Builder addFile(String name, String filename, String contentType, File file) {
+			return addPart(name, filename == null ? file.getName() : filename,
+					RequestBody.create(contentType, file));
+		}
+		
+		/**
+		 * Adds a part that is streamed from in. The resulting body may only be
+		 * written once.
+		 * @param name the name of the field.
+		 * @param filename the file name sent to the server, or null.
+		 * @param contentType the content type of the stream, or null.
+		 * @param in the stream to send.
+		 * @param contentLength the number of bytes in the stream, or -1 if it
+		 * is not known.
+		 * @return this
+		 */
+		public Builder addStream(String name, String filename, String contentType, InputStream in, long contentLength) {
+			return addPart(name, filename, RequestBody.create(contentType, in, contentLength));
+		}
+		
+		/**
+		 * Adds a part with the given body.
+		 * @param name the name of the field.
+		 * @param filename the file name sent to the server, or null.
+		 * @param body the body of the part.
+		 * @return this
+		 */
+		public Builder addPart(String name, String filename, RequestBody body) {
+			if(name == null || body == null) {
+				throw new NullPointerException("name and body cannot be null.");
+			}
+			StringBuilder sb = new StringBuilder("Content-Disposition: form-data; name=\"");
+			appendQuoted(sb, name);
+			sb.append('"');
+			if(filename != null) {
+				sb.append("; filename=\"");
+				appendQuoted(sb, filename);
+				sb.append('"');
+			}
+			sb.append("\r\n");
+			if(body.getContentType() != null) {
+				sb.append("Content-Type: ").append(body.getContentType()).append("\r\n");
+			}
+			partHeaders.add(sb.toString().getBytes(UTF_8));
+			partBodies.add(body);
+			return this;
+		}
+		
+		private static void appendQuoted(StringBuilder sb, String value) {
+			for(int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch(c) {
+				case '"': sb.append("%22"); break;
+				case '\r': sb.append("%0D"); break;
+				case '\n': sb.append("%0A"); break;
+				default: sb.append(c); break;
+				}
+			}
+		}
+		
+		/**
+		 * Creates and returns a new MultipartBody with the parts added to this
+		 * Builder.
+		 * @return the newly created MultipartBody.
+		 */
+		public MultipartBody create() {
+			return new MultipartBody(boundary, new ArrayList<byte[]>(partHeaders),
+					new ArrayList<RequestBody>(partBodies));
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.ericelsken.android.web;
+
+/**
+ * Defines a callback contract used by PollingRequestHandlers to signal the
+ * caller when a poll of a Request produces new content or fails. All
+ * callbacks are received on the main-UI thread. Polls that find the content
+ * unchanged, either because the server responded 304 Not Modified or because
+ * the ETag of the Response did not change, do not result in any callback.
+ * 
+ * Note that all callbacks receive the id given to the PollingRequestHandler.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface PollingCallbacks {
+	
+	/**
+	 * Called when a poll finishes with a 2xx status code and content that has
+	 * changed since the last poll.
+	 * @param id the id given to the PollingRequestHandler.
+	 * @param res the Response of the poll.
+	 * @throws Exception an Exception that will be sent to onPollException().
+	 */
+	public void onPollResponse(int id, Response res) throws Exception;
+	
+	/**
+	 * Called when a poll finishes with a non 2xx status code other than 304,
+	 * when another Exception was caught while executing the poll, or when an
+	 * Exception is thrown from onPollResponse().
+	 * Response.hasException() is guaranteed to return true.
+	 * Polling continues after this callback returns, backing off as it would
+	 * for an unchanged Response.
+	 * @param id the id given to the PollingRequestHandler.
+	 * @param res the Response holding the Exception.
+	 * @return true to indicate the Exception requires further processing by
+	 * the ExceptionHandler of the PollingRequestHandler, false if not.
+	 */
+	public boolean onPollException(int id, Response res);
+}
@@ -0,0 +1,510 @@
+package com.ericelsken.android.web;
+
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * This class repeatedly executes a single Request, delivering changed
+ * Responses to a PollingCallbacks instance. Because Requests may be executed
+ * any number of times, the same Request (and handler) is used for every poll.
+ * 
+ * After a poll, the next one is scheduled getInterval() milliseconds later.
+ * When the server reports the content as unchanged, the delay is multiplied by
+ * the backoff multiplier, raised by at least MIN_BACKOFF_STEP, up to
+ * getMaxInterval(), and reset to getInterval() as soon as the content changes
+ * again. Content is considered unchanged when the server responds 304 Not
+ * Modified to the If-None-Match header this class sends once an ETag has been
+ * seen, or when the ETag of a 2xx Response matches the previous one. Failed
+ * polls back off in the same way.
+ * 
+ * In long-poll mode, the next poll is started as soon as the previous one
+ * completes, and the server is expected to hold each Request open until it has
+ * new content. Give the Request a read timeout with
+ * Request.Builder.setReadTimeout() that is longer than the server's hold time;
+ * a read timeout is treated as unchanged content rather than an error.
+ * 
+ * Polling is suspended while the handler is paused. If the Context given to
+ * the constructor is an Activity and the device runs API 14 or above, the
+ * handler pauses and resumes itself with the Activity. Otherwise, pause() and
+ * resume() should be called from the owner's onPause() and onResume().
+ * stop() MUST be called once polling is no longer needed.
+ * 
+ * All methods of this class MUST be called on the main-UI thread.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class PollingRequestHandler {
+	
+	/**
+	 * The default delay between polls in milliseconds.
+	 */
+	public static final long DEFAULT_INTERVAL = 30 * 1000;
+	
+	/**
+	 * The default multiplier applied to the delay between polls when content
+	 * is unchanged.
+	 */
+	public static final float DEFAULT_BACKOFF_MULTIPLIER = 1.5f;
+	
+	/**
+	 * The smallest amount by which backoff raises the delay between polls in
+	 * milliseconds, so that an interval of 0 still backs off.
+	 */
+	public static final long MIN_BACKOFF_STEP = 1000;
+	
+	private final Context mContext;
+	private final int mId;
+	private final Request mReq;
+	private final Handler mHandler;
+	private final Runnable mPollRunnable;
+	private PollingCallbacks mCallback;
+	private ExceptionHandler mExceptionHandler;
+	
+	private long mInterval;
+	private long mMaxInterval;
+	private float mBackoffMultiplier;
+	private boolean mLongPoll;
+	
+	private long mCurrentInterval;
+	private String mETag;
+	private Request mConditionalReq;
+	private PollTask mTask;
+	private boolean mStarted;
+	private boolean mPaused;
+	private Object mLifecycleCallbacks;
+	
+	/**
+	 * Create a new PollingRequestHandler that polls the given Request in the
+	 * specified Context with the given id and PollingCallbacks. Polling does
+	 * not begin until start() is called.
+	 * @param context the Context being used to poll. Will usually be an
+	 * Activity.
+	 * @param id the id of this handler, which is sent to all callbacks.
+	 * @param req the Request to poll.
+	 * @param callback the PollingCallbacks implementation to call.
+	 * @throws NullPointerException if any of context, req, or callback is
+	 * null.
+	 */
+	public PollingRequestHandler(Context context, int id, Request req, PollingCallbacks callback) {
+		if(context == null) {
+			throw new NullPointerException("Context cannot be null.");
+		}
+		if(callback == null) {
+			throw new NullPointerException("PollingCallbacks cannot be null.");
+		}
+		if(req == null) {
+			throw new NullPointerException("Request cannot be null.");
+		}
+		mContext = context;
+		mId = id;
+		mReq = req;
+		mHandler = new Handler(Looper.getMainLooper());
+		mPollRunnable = new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		};
+		mCallback = callback;
+		mExceptionHandler = RequestManager.getInstance().getExceptionHandler();
+		mInterval = DEFAULT_INTERVAL;
+		mMaxInterval = DEFAULT_INTERVAL * 10;
+		mBackoffMultiplier = DEFAULT_BACKOFF_MULTIPLIER;
+		mLongPoll = false;
+		mCurrentInterval = mInterval;
+		mETag = null;
+		mConditionalReq = null;
+		mTask = null;
+		mStarted = false;
+		mPaused = false;
+		mLifecycleCallbacks = null;
+	}
+	
+	/**
+	 * Starts polling immediately if this handler is not already started.
+	 */
+	public void start() {
+		if(mStarted) {
+			return;
+		}
+		mStarted = true;
+		mCurrentInterval = mInterval;
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+				&& mContext instanceof Activity) {
+			mLifecycleCallbacks = LifecycleCallbacks.register((Activity) mContext, this);
+		}
+		if(!mPaused) {
+			mHandler.post(mPollRunnable);
+		}
+	}
+	
+	/**
+	 * Stops polling, cancelling any poll in progress. start() may be called
+	 * again to restart polling.
+	 */
+	public void stop() {
+		if(!mStarted) {
+			return;
+		}
+		mStarted = false;
+		if(mLifecycleCallbacks != null) {
+			LifecycleCallbacks.unregister((Activity) mContext, mLifecycleCallbacks);
+			mLifecycleCallbacks = null;
+		}
+		cancelPoll();
+	}
+	
+	/**
+	 * Suspends polling, cancelling any poll in progress, until resume() is
+	 * called.
+	 */
+	public void pause() {
+		if(mPaused) {
+			return;
+		}
+		mPaused = true;
+		cancelPoll();
+	}
+	
+	/**
+	 * Resumes polling after a call to pause(). A poll is made immediately if
+	 * this handler is started.
+	 */
+	public void resume() {
+		if(!mPaused) {
+			return;
+		}
+		mPaused = false;
+		if(mStarted) {
+			mCurrentInterval = mInterval;
+			mHandler.post(mPollRunnable);
+		}
+	}
+	
+	/**
+	 * Returns whether or not this handler is started and not paused.
+	 * @return true if this handler is polling, false otherwise.
+	 */
+	public boolean isPolling() {
+		return mStarted && !mPaused;
+	}
+	
+	private void cancelPoll() {
+		mHandler.removeCallbacks(mPollRunnable);
+		if(mTask != null) {
+			mTask.cancelPoll();
+			mTask = null;
+		}
+	}
+	
+	private void poll() {
+		if(!isPolling() || mTask != null) {
+			return;
+		}
+		mTask = new PollTask(mETag == null ? mReq : conditionalRequest());
+		mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+	}
+	
+	/**
+	 * Returns mReq with an If-None-Match header for the current ETag. The
+	 * Request is only rebuilt when the ETag changes.
+	 */
+	private Request conditionalRequest() {
+		if(mConditionalReq == null) {
+			mConditionalReq = mReq.newBuilder(mReq.getUri()).setHeader("If-None-Match", mETag).create();
+		}
+		return mConditionalReq;
+	}
+	
+	private void onPollDone(Response res) {
+		mTask = null;
+		if(!isPolling()) {
+			return;
+		}
+		boolean changed = false;
+		boolean failed = false;
+		if(res.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED
+				|| (mLongPoll && res.getException() instanceof SocketTimeoutException)) {
+			//Unchanged content.
+		} else if(res.hasException()) {
+			failed = true;
+			handleException(res);
+		} else {
+			String etag = res.getHeaderField("ETag");
+			changed = etag == null || !etag.equals(mETag);
+			if(etag != null && !etag.equals(mETag)) {
+				mETag = etag;
+				mConditionalReq = null;
+			}
+			if(changed) {
+				try {
+					mCallback.onPollResponse(mId, res);
+				} catch (Exception ex) {
+					failed = true;
+					res.setException(ex);
+					handleException(res);
+				}
+			}
+		}
+		scheduleNext(changed, failed);
+	}
+	
+	private long nextBackoff(long interval) {
+		if(mBackoffMultiplier <= 1) {
+			return interval;
+		}
+		return Math.max(interval + MIN_BACKOFF_STEP, (long) (interval * mBackoffMultiplier));
+	}
+	
+	private void scheduleNext(boolean changed, boolean failed) {
+		if(!isPolling()) {
+			//A callback may have stopped or paused this handler.
+			return;
+		}
+		if(changed) {
+			mCurrentInterval = mInterval;
+		} else {
+			mCurrentInterval = Math.min(mMaxInterval, nextBackoff(mCurrentInterval));
+		}
+		if(mLongPoll && !failed) {
+			mHandler.post(mPollRunnable);
+		} else {
+			mHandler.postDelayed(mPollRunnable, mCurrentInterval);
+		}
+	}
+	
+	/**
+	 * Attempt to handle an Exception caught while polling.
+	 */
+	private void handleException(Response res) {
+		boolean handled = mCallback.onPollException(mId, res);
+		if(!handled && mExceptionHandler != null) {
+			mExceptionHandler.handleException(mContext, mId, res.getException());
+		}
+	}
+	
+	/**
+	 * Executes one poll on a background thread.
+	 */
+	private class PollTask extends AsyncTask<Void, Void, Response> {
+		
+		private final Call mCall;
+		
+		private PollTask(Request req) {
+			mCall = req.newCall();
+		}
+		
+		private void cancelPoll() {
+			cancel(false);
+			mCall.cancel();
+		}
+
+		@Override
+		protected Response doInBackground(Void... params) {
+			return mCall.execute();
+		}
+		
+		@Override
+		protected void onPostExecute(Response result) {
+			super.onPostExecute(result);
+			if(mTask == this) {
+				onPollDone(result);
+			}
+		}
+	}
+	
+	/**
+	 * Pauses and resumes a PollingRequestHandler with its Activity. This class
+	 * is only loaded on API 14 and above.
+	 */
+	private static class LifecycleCallbacks implements Application.ActivityLifecycleCallbacks {
+		
+		private final Activity mActivity;
+		private final PollingRequestHandler mHandler;
+		
+		private LifecycleCallbacks(Activity activity, PollingRequestHandler handler) {
+			mActivity = activity;
+			mHandler = handler;
+		}
+		
+		private static Object register(Activity activity, PollingRequestHandler handler) {
+			LifecycleCallbacks callbacks = new LifecycleCallbacks(activity, handler);
+			activity.getApplication().registerActivityLifecycleCallbacks(callbacks);
+			return callbacks;
+		}
+		
+		private static void unregister(Activity activity, Object callbacks) {
+			activity.getApplication().unregisterActivityLifecycleCallbacks(
+					(LifecycleCallbacks) callbacks);
+		}
+
+		@Override
+		public void onActivityResumed(Activity activity) {
+			if(activity == mActivity) {
+				mHandler.resume();
+			}
+		}
+
+		@Override
+		public void onActivityPaused(Activity activity) {
+			if(activity == mActivity) {
+				mHandler.pause();
+			}
+		}
+
+		@Override
+		public void onActivityDestroyed(Activity activity) {
+			if(activity == mActivity) {
+				mHandler.stop();
+			}
+		}
+
+		@Override
+		public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+		@Override
+		public void onActivityStarted(Activity activity) {}
+
+		@Override
+		public void onActivityStopped(Activity activity) {}
+
+		@Override
+		public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+	}
+	
+	/**
+	 * Returns the id of this handler.
+	 * @return the id of this handler.
+	 */
+	public int getId() {
+		return mId;
+	}
+	
+	/**
+	 * Returns the Request polled by this handler.
+	 * @return the Request polled by this handler.
+	 */
+	public Request getRequest() {
+		return mReq;
+	}
+	
+	/**
+	 * Returns the PollingCallbacks currently being used by this handler.
+	 * @return the PollingCallbacks currently being used by this handler.
+	 */
+	public PollingCallbacks getCallback() {
+		return mCallback;
+	}
+	
+	/**
+	 * Sets the PollingCallbacks that will be called on future polls.
+	 * @param callback the new PollingCallbacks instance.
+	 * @throws NullPointerException if callback is null.
+	 */
+	public void setCallback(PollingCallbacks callback) {
+		if(callback == null) {
+			throw new NullPointerException("PollingCallbacks cannot be null.");
+		}
+		mCallback = callback;
+	}
+	
+	/**
+	 * Returns the ExceptionHandler currently being used by this handler.
+	 * @return the ExceptionHandler currently being used by this handler.
+	 */
+	public ExceptionHandler getExceptionHandler() {
+		return mExceptionHandler;
+	}
+	
+	/**
+	 * Sets the ExceptionHandler that will be called on future polls.
+	 * @param handler the new ExceptionHandler.
+	 */
+	public void setExceptionHandler(ExceptionHandler handler) {
+		mExceptionHandler = handler;
+	}
+	
+	/**
+	 * Returns the delay between polls when content is changing.
+	 * @return the delay between polls in milliseconds.
+	 */
+	public long getInterval() {
+		return mInterval;
+	}
+	
+	/**
+	 * Sets the delay between polls when content is changing. The maximum
+	 * interval is raised to interval if it is smaller.
+	 * @param interval the delay between polls in milliseconds.
+	 * @throws IllegalArgumentException if interval is negative.
+	 */
+	public void setInterval(long interval) {
+		if(interval < 0) {
+			throw new IllegalArgumentException("interval cannot be negative.");
+		}
+		mInterval = interval;
+		mMaxInterval = Math.max(mMaxInterval, interval);
+		mCurrentInterval = interval;
+	}
+	
+	/**
+	 * Returns the largest delay between polls that backoff will reach.
+	 * @return the maximum delay between polls in milliseconds.
+	 */
+	public long getMaxInterval() {
+		return mMaxInterval;
+	}
+	
+	/**
+	 * Sets the largest delay between polls that backoff will reach.
+	 * @param maxInterval the maximum delay between polls in milliseconds.
+	 * @throws IllegalArgumentException if maxInterval is less than
+	 * getInterval().
+	 */
+	public void setMaxInterval(long maxInterval) {
+		if(maxInterval < mInterval) {
+			throw new IllegalArgumentException("maxInterval cannot be less than the interval.");
+		}
+		mMaxInterval = maxInterval;
+	}
+	
+	/**
+	 * Sets the multiplier applied to the delay between polls each time the
+	 * content is unchanged or a poll fails. A value of 1 disables backoff.
+	 * @param multiplier the backoff multiplier.
+	 * @throws IllegalArgumentException if multiplier is less than 1.
+	 */
+	public void setBackoffMultiplier(float multiplier) {
+		if(multiplier < 1) {
+			throw new IllegalArgumentException("multiplier cannot be less than 1.");
+		}
+		mBackoffMultiplier = multiplier;
+	}
+	
+	/**
+	 * Returns whether or not this handler is in long-poll mode.
+	 * @return true if in long-poll mode, false otherwise.
+	 */
+	public boolean isLongPoll() {
+		return mLongPoll;
+	}
+	
+	/**
+	 * Sets whether or not this handler is in long-poll mode, where the next
+	 * poll is started as soon as the previous one completes.
+	 * @param longPoll true to enable long-poll mode.
+	 */
+	public void setLongPoll(boolean longPoll) {
+		mLongPoll = longPoll;
+	}
+}
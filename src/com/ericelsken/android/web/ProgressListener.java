@@ -0,0 +1,19 @@
+package com.ericelsken.android.web;
+
+/**
+ * Receives progress updates while the body of a Request is written.
+ * Callbacks are received on the thread executing the Request, which is never
+ * the main-UI thread, so implementations that update the UI must post to it.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface ProgressListener {
+	
+	/**
+	 * Called each time a buffer of the body has been written.
+	 * @param bytesWritten the number of bytes of the body written so far.
+	 * @param contentLength the length of the body, or -1 if it is not known.
+	 */
+	public void onProgress(long bytesWritten, long contentLength);
+}
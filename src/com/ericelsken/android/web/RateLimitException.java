@@ -0,0 +1,48 @@
+package com.ericelsken.android.web;
+
+/**
+ * Instances of this class indicate that a Request was not executed because
+ * it would have exceeded a rate limit for its host or path, either one
+ * configured in the app or one announced by the server.
+ * Instances of this class will be sent to RequestCallback.onRequestException()
+ * without any network call being made.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class RateLimitException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final String mHost;
+	private final long mRetryAfter;
+	
+	/**
+	 * Create a new instance for the given host.
+	 * @param host the host of the rejected Request.
+	 * @param retryAfter the number of milliseconds until a permit will be
+	 * available.
+	 */
+	public RateLimitException(String host, long retryAfter) {
+		super("Rate limit exceeded for host " + host + ", retry after " + retryAfter + "ms");
+		mHost = host;
+		mRetryAfter = retryAfter;
+	}
+	
+	/**
+	 * Returns the host of the rejected Request.
+	 * @return the host of the rejected Request.
+	 */
+	public String getHost() {
+		return mHost;
+	}
+	
+	/**
+	 * Returns the number of milliseconds, at the time of the Request, until a
+	 * permit would have been available.
+	 * @return the number of milliseconds until a retry may succeed.
+	 */
+	public long getRetryAfter() {
+		return mRetryAfter;
+	}
+}
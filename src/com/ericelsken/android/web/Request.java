@@ -1,22 +1,10 @@
 package com.ericelsken.android.web;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.ProtocolException;
 import java.net.URI;
-import java.net.URL;
-import java.util.LinkedList;
-import java.util.List;
 
 import android.content.Context;
-import android.os.Build;
 
+import com.ericelsken.android.web.async.RequestFuture;
 import com.ericelsken.android.web.content.ResponseLoader;
 
 /**
@@ -44,78 +32,145 @@ import com.ericelsken.android.web.content.ResponseLoader;
  * Note that the execute() method is where the networking occurs, and therefore CANNOT be called on
  * the main-UI thread. Both ResponseLoader and RequestHandler will manage this call for you. If you
  * wish to use this class outside of ResponseLoader or RequestHandler, then you must handle calling
- * execute() not on the main-UI thread. Multiple successive calls to execute() will return the same
- * Response object that was returned upon the first call.
- * In essence, this class is meant to be used once to obtain one Response object.
+ * execute() not on the main-UI thread.
+ * 
+ * Requests are immutable and every call to execute() performs the Request again and returns a new
+ * Response, so a single Request can be used to poll or refresh the same resource. Each execution is
+ * represented by a Call, which can be obtained from newCall() if the execution needs to be cancelled
+ * or its Response shared between threads. executeAsync() executes the Request on a background
+ * thread and returns a RequestFuture instead of blocking.
+ * 
+ * The networking itself is performed by a Transport. Unless one is given to
+ * Request.Builder.setTransport(), the Transport returned by
+ * RequestManager.getTransport() at the time of execute() is used.
  * 
  * @author Eric Elsken
  *
  */
 public class Request {
 	
-	static {
-		//Work around pre-Froyo bugs in HTTP connection reuse.
-		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
-			System.setProperty("http.keepAlive", "false");
-		}
-	}
-	
 	/**
 	 * The default buffer size to use when reading/writing requests.
 	 */
 	public static final int DEFAULT_BUFFER_SIZE = 1 << 10;
+	
+	/**
+	 * The priority of Requests that may be delayed or dropped under load,
+	 * such as prefetches and analytics.
+	 */
+	public static final int PRIORITY_LOW = -1;
+	
+	/**
+	 * The default priority of Requests.
+	 */
+	public static final int PRIORITY_NORMAL = 0;
+	
+	/**
+	 * The priority of Requests that should be executed even under load, such
+	 * as those the user is waiting on.
+	 */
+	public static final int PRIORITY_HIGH = 1;
 
 	private static final int DELETE = 0;
 	private static final int GET = 1;
 	private static final int POST = 2;
 	private static final int PUT = 3;
 	
+	private static final String[] METHODS = {"DELETE", "GET", "POST", "PUT"};
+	
+	static final Interceptor[] NO_INTERCEPTORS = new Interceptor[0];
+	
 	/**
 	 * All object fields of this class must be immutable or deep-copied into Request objects.
+	 * The headers are the one exception. They are shared with the Request
+	 * created from these Params and copied before being modified again.
 	 */
 	private static class Params {
 		private final URI uri;
 		private String data;
+		private RequestBody body;
+		private ProgressListener uploadListener;
+		private BodyObserver.Factory requestBodyObserver;
+		private BodyObserver.Factory responseBodyObserver;
 		private int method;
 		private int bufferSize;
-		private List<String[]> headers;
+		private Headers headers;
+		private boolean headersShared;
+		private Transport transport;
+		private int connectTimeout;
+		private int readTimeout;
+		private Interceptor[] interceptors;
+		private int priority;
 		
 		private Params(URI uri) {
 			this.uri = uri;
 			data = null;
+			body = null;
+			uploadListener = null;
+			requestBodyObserver = null;
+			responseBodyObserver = null;
 			method = GET;
 			bufferSize = DEFAULT_BUFFER_SIZE;
-			headers = new LinkedList<String[]>();
+			headers = Headers.EMPTY;
+			headersShared = true;
+			transport = null;
+			connectTimeout = 0;
+			readTimeout = 0;
+			interceptors = NO_INTERCEPTORS;
+			priority = PRIORITY_NORMAL;
+		}
+		
+		/**
+		 * Returns the headers, first copying them if they are shared with a
+		 * Request.
+		 */
+		private Headers mutableHeaders() {
+			if(headersShared) {
+				headers = headers.copy();
+				headersShared = false;
+			}
+			return headers;
 		}
 	}
 	
-	/**
-	 * The Response obtained from this Request in execute().
-	 */
-	private Response response;
-	
 	//The following should be an exact copy of Params fields, all final, 
 	//and all deep copied from a Params object.
 	private final URI uri;
 	private final String data;
+	private final RequestBody body;
+	private final ProgressListener uploadListener;
+	private final BodyObserver.Factory requestBodyObserver;
+	private final BodyObserver.Factory responseBodyObserver;
 	private final int method;
 	private final int bufferSize;
-	private final List<String[]> headers;
+	private final Headers headers;
+	private final Transport transport;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final Interceptor[] interceptors;
+	private final int priority;
 	
 	/**
-	 * Deep-copy all fields from p into this class' fields.
+	 * Deep-copy all fields from p into this class' fields, sharing the headers
+	 * with p until p is modified.
 	 * @param p the Params object from which to copy values into this instance.
 	 */
 	private Request(Params p) {
 		uri = p.uri;
 		data = p.data;
+		body = p.body;
+		uploadListener = p.uploadListener;
+		requestBodyObserver = p.requestBodyObserver;
+		responseBodyObserver = p.responseBodyObserver;
 		method = p.method;
 		bufferSize = p.bufferSize;
-		//deep-copy the headers.
-		headers = new LinkedList<String[]>();
-		for(String[] pair : p.headers) {
-			headers.add(new String[] {pair[0], pair[1]});
-		}
+		headers = p.headers;
+		p.headersShared = true;
+		transport = p.transport;
+		connectTimeout = p.connectTimeout;
+		readTimeout = p.readTimeout;
+		interceptors = p.interceptors;
+		priority = p.priority;
 	}
 	
 	/**
@@ -146,98 +201,165 @@ public class Request {
 	/**
 	 * Executes this Request and returns the Response object obtained from the Request.
 	 * This method makes networking calls and thus CANNOT be called on the main-UI thread.
-	 * Multiple, successive calls to this method on the same instance will return the Response from
-	 * the first call.
+	 * Every call to this method executes the Request again and returns a new Response.
+	 * This is equivalent to newCall().execute().
 	 * @return the Response object obtained from executing this Request.
 	 */
 	public Response execute() {
-		if(response != null) {
-			return response;
-		}
-		HttpURLConnection conn = null;
-		String body = "";
-		Exception caught = null;
-		try {
-			if(uri.getScheme() == null || uri.getScheme().indexOf("http") != 0) {
-				throw new SchemeException(uri.getScheme());
-			}
-			URL url = uri.toURL();
-			conn = (HttpURLConnection) url.openConnection();
-			apply(conn);
-			if(data != null) {
-				writeData(conn);
-			}
-			body = streamToString(conn.getInputStream());
-		} catch (Exception ex) {
-			caught = ex;
-			if(conn != null && conn.getErrorStream() != null) {
-				try {
-					body = streamToString(conn.getErrorStream());
-				} catch (IOException inner) {
-					caught = inner;
-				}
-			}
-		} finally {
-			try {
-				if(conn != null) {
-					int status = conn.getResponseCode();
-					String message = conn.getResponseMessage();
-					if(status / 100 != 2) {
-						caught = new HttpException(status, message, body);
-					}
-				}
-			} catch (IOException ex) {
-				caught = ex;
-			}
-			conn.disconnect();
-		}
-		response = new Response(conn, body, caught);
-		return response;
+		return newCall().execute();
 	}
 	
 	/**
-	 * Applies the settings of this request to the connection being used to make the request.
-	 * @param conn connection used in making the request.
-	 * @throws ProtocolException see ProtocolException documentation.
+	 * Executes this Request on RequestManager.getExecutor() and returns a
+	 * RequestFuture of its Response. This may be called from any thread,
+	 * including the main-UI thread, and does not require a Looper. The
+	 * returned RequestFuture can be composed with dependent Requests without
+	 * blocking; cancelling it cancels the Call executing this Request.
+	 * @return a RequestFuture of the Response.
 	 */
-	private void apply(HttpURLConnection conn) throws ProtocolException {
-		switch(method) {
-		case DELETE: conn.setRequestMethod("DELETE"); break;
-		case GET: conn.setRequestMethod("GET"); break;
-		case POST: conn.setRequestMethod("POST"); break;
-		case PUT: conn.setRequestMethod("PUT"); break;
-		}
-		for(String[] pair : headers) {
-			conn.setRequestProperty(pair[0], pair[1]);
-		}
+	public RequestFuture<Response> executeAsync() {
+		return RequestFuture.execute(newCall(), RequestManager.getInstance().getExecutor());
 	}
 	
-	private String streamToString(InputStream in) throws IOException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream(bufferSize);
-		copyStreams(in, out);
-		return out.toString();
+	/**
+	 * Creates and returns a new Call that executes this Request once.
+	 * @return the new Call.
+	 */
+	public Call newCall() {
+		return new Call(this);
 	}
-
-	private void writeData(HttpURLConnection conn) throws IOException {
-		conn.setDoOutput(true);
-		byte[] bytes = data.getBytes();
-		conn.setFixedLengthStreamingMode(bytes.length);
-		OutputStream out = new BufferedOutputStream(conn.getOutputStream(), bufferSize);
-		InputStream in = new BufferedInputStream(new ByteArrayInputStream(bytes), bufferSize);
-		copyStreams(in, out);
+	
+	/**
+	 * Returns a new Builder for a Request to uri with all other settings
+	 * copied from this Request. The headers of this Request are shared with
+	 * the Builder and only copied if the Builder modifies them, which makes
+	 * this an inexpensive way to create many Requests carrying the same
+	 * headers.
+	 * @param uri the URI of the new Request.
+	 * @return a new Builder initialized from this Request.
+	 */
+	public Builder newBuilder(URI uri) {
+		return new Builder(uri, this);
 	}
-
-	private void copyStreams(InputStream in, OutputStream out) throws IOException {
-		int tempRead = 0;
-		byte[] buffer = new byte[bufferSize];
-		while(tempRead != -1) {
-			tempRead = in.read(buffer, 0, buffer.length);
-			if(tempRead != -1) {
-				out.write(buffer, 0, tempRead);
-			}
-		}
-		in.close();
-		out.close();
+	
+	/**
+	 * Returns the URI of this Request.
+	 * @return the URI of this Request.
+	 */
+	public URI getUri() {
+		return uri;
+	}
+	
+	/**
+	 * Returns the HTTP method of this Request, i.e. GET or POST.
+	 * @return the HTTP method of this Request.
+	 */
+	public String getMethod() {
+		return METHODS[method];
+	}
+	
+	/**
+	 * Returns the data sent as the body of this Request.
+	 * @return the data given to Request.Builder.setData(), or null if the
+	 * body was not set from a String.
+	 */
+	public String getData() {
+		return data;
+	}
+	
+	/**
+	 * Returns the body of this Request.
+	 * @return the body of this Request, or null if there is none.
+	 */
+	public RequestBody getBody() {
+		return body;
+	}
+	
+	/**
+	 * Returns the ProgressListener notified as the body of this Request is
+	 * written.
+	 * @return the upload ProgressListener, or null if there is none.
+	 */
+	public ProgressListener getUploadListener() {
+		return uploadListener;
+	}
+	
+	/**
+	 * Returns the Factory of the BodyObserver that sees the body of this
+	 * Request as it is written.
+	 * @return the Factory, or null if there is none.
+	 */
+	public BodyObserver.Factory getRequestBodyObserver() {
+		return requestBodyObserver;
+	}
+	
+	/**
+	 * Returns the Factory of the BodyObserver that sees the body of the
+	 * response to this Request as it is read.
+	 * @return the Factory, or null if there is none.
+	 */
+	public BodyObserver.Factory getResponseBodyObserver() {
+		return responseBodyObserver;
+	}
+	
+	/**
+	 * Returns the size of the buffer used when writing/reading the Request/
+	 * Response.
+	 * @return the buffer size of this Request.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * Returns the timeout in milliseconds for establishing a connection.
+	 * @return the connect timeout, or 0 to use the default of the Transport.
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+	
+	/**
+	 * Returns the timeout in milliseconds for waiting on data from the
+	 * remote server once connected.
+	 * @return the read timeout, or 0 to use the default of the Transport.
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+	
+	/**
+	 * Returns the priority of this Request, used to decide which Requests to
+	 * shed under load.
+	 * @return one of PRIORITY_LOW, PRIORITY_NORMAL, or PRIORITY_HIGH.
+	 */
+	public int getPriority() {
+		return priority;
+	}
+	
+	/**
+	 * Returns the interceptors given to Request.Builder.addInterceptor(), in
+	 * the order they were added. The array MUST NOT be modified.
+	 */
+	Interceptor[] getInterceptors() {
+		return interceptors;
+	}
+	
+	/**
+	 * Returns the Transport used to execute this Request.
+	 * @return the Transport given to Request.Builder.setTransport(), or
+	 * RequestManager.getTransport() if none was given.
+	 */
+	public Transport getTransport() {
+		return transport != null ? transport : RequestManager.getInstance().getTransport();
+	}
+	
+	/**
+	 * Returns the headers of this Request in the order they were set.
+	 * @return the headers of this Request.
+	 */
+	public Headers getHeaders() {
+		return headers;
 	}
 	
 	/**
@@ -265,6 +387,23 @@ public class Request {
 			p = new Params(uri);
 		}
 		
+		private Builder(URI uri, Request template) {
+			p = new Params(uri);
+			p.data = template.data;
+			p.body = template.body;
+			p.uploadListener = template.uploadListener;
+			p.requestBodyObserver = template.requestBodyObserver;
+			p.responseBodyObserver = template.responseBodyObserver;
+			p.method = template.method;
+			p.bufferSize = template.bufferSize;
+			p.headers = template.headers;
+			p.transport = template.transport;
+			p.connectTimeout = template.connectTimeout;
+			p.readTimeout = template.readTimeout;
+			p.interceptors = template.interceptors;
+			p.priority = template.priority;
+		}
+		
 		/**
 		 * Sets the built Request to be a DELETE Request.
 		 * @return this
@@ -283,6 +422,7 @@ public class Request {
 		public Builder get() {
 			p.method = GET;
 			p.data = null;
+			p.body = null;
 			return this;
 		}
 		
@@ -312,6 +452,82 @@ public class Request {
 		 */
 		public Builder setData(String data) {
 			p.data = data;
+			p.body = data == null ? null : RequestBody.create(null, data);
+			return this;
+		}
+		
+		/**
+		 * Sets the body to be sent in the Request for DELETE, POST, and PUT
+		 * requests. The body is streamed into the Request as it is sent, so
+		 * large files and multipart forms are never held in memory. If the
+		 * body has a content type, the Content-Type header is set to it;
+		 * otherwise any Content-Type header is removed.
+		 * @param body the body to send as part of the Request.
+		 * @return this
+		 */
+		public Builder setBody(RequestBody body) {
+			p.data = null;
+			p.body = body;
+			if(body != null && body.getContentType() != null) {
+				p.mutableHeaders().set("Content-Type", body.getContentType());
+			} else if(body != null && p.headers.get("Content-Type") != null) {
+				p.mutableHeaders().remove("Content-Type");
+			}
+			return this;
+		}
+		
+		/**
+		 * Sets the body to be value encoded into contentType by the Codec
+		 * registered for it with the CodecRegistry of RequestManager. value is
+		 * encoded once, the first time the Request is sent, and MUST NOT be
+		 * modified afterwards. The Content-Type header is set to contentType.
+		 * @param contentType the content type of the body.
+		 * @param value the value to send as part of the Request.
+		 * @return this
+		 * @throws IllegalArgumentException if no Codec encodes the type of
+		 * value into contentType.
+		 */
+		public Builder setEncodedBody(String contentType, Object value) {
+			if(contentType == null) {
+				throw new NullPointerException("contentType cannot be null.");
+			}
+			return setBody(RequestManager.getInstance().getCodecRegistry().newBody(contentType, value));
+		}
+		
+		/**
+		 * Sets the ProgressListener notified as the body of the Request is
+		 * written.
+		 * @param listener the new listener, or null for none.
+		 * @return this
+		 */
+		public Builder setUploadListener(ProgressListener listener) {
+			p.uploadListener = listener;
+			return this;
+		}
+		
+		/**
+		 * Sets the Factory of the BodyObserver that sees each buffer of the
+		 * body of the Request as it is written.
+		 * @param factory the new Factory, or null for none.
+		 * @return this
+		 */
+		public Builder setRequestBodyObserver(BodyObserver.Factory factory) {
+			p.requestBodyObserver = factory;
+			return this;
+		}
+		
+		/**
+		 * Sets the Factory of the BodyObserver that sees each buffer of the
+		 * body of the response as it is read. Only the bodies of 2xx
+		 * responses are observed; other bodies are read as is. If
+		 * the BodyObserver rejects the body, the Response holds its
+		 * IOException, or for Call.executeStreaming() the body stream throws
+		 * it once the end of the body is read.
+		 * @param factory the new Factory, or null for none.
+		 * @return this
+		 */
+		public Builder setResponseBodyObserver(BodyObserver.Factory factory) {
+			p.responseBodyObserver = factory;
 			return this;
 		}
 		
@@ -328,8 +544,34 @@ public class Request {
 			return this;
 		}
 		
+		/**
+		 * Sets the timeout in milliseconds for establishing a connection.
+		 * @param connectTimeout the new connect timeout. If zero, the default
+		 * of the Transport is used. If negative, this is a no-op.
+		 * @return this
+		 */
+		public Builder setConnectTimeout(int connectTimeout) {
+			connectTimeout = connectTimeout < 0 ? p.connectTimeout : connectTimeout;
+			p.connectTimeout = connectTimeout;
+			return this;
+		}
+		
+		/**
+		 * Sets the timeout in milliseconds for waiting on data from the remote
+		 * server once connected.
+		 * @param readTimeout the new read timeout. If zero, the default of the
+		 * Transport is used. If negative, this is a no-op.
+		 * @return this
+		 */
+		public Builder setReadTimeout(int readTimeout) {
+			readTimeout = readTimeout < 0 ? p.readTimeout : readTimeout;
+			p.readTimeout = readTimeout;
+			return this;
+		}
+		
 		/**
 		 * Sets the header value to be associated with the field name.
+		 * Any value previously set for field, ignoring case, is replaced.
 		 * @param field the name of the header.
 		 * @param newValue the new value of the header to be associated with field.
 		 * @return this.
@@ -338,7 +580,80 @@ public class Request {
 			if(field == null || newValue == null) {
 				throw new NullPointerException("field and newValue cannot be null.");
 			}
-			p.headers.add(new String[] {field, newValue});
+			p.mutableHeaders().set(field, newValue);
+			return this;
+		}
+		
+		/**
+		 * Adds a header value to be associated with the field name, keeping
+		 * any values previously set for field.
+		 * @param field the name of the header.
+		 * @param value the value of the header to add.
+		 * @return this.
+		 */
+		public Builder addHeader(String field, String value) {
+			if(field == null || value == null) {
+				throw new NullPointerException("field and value cannot be null.");
+			}
+			p.mutableHeaders().add(field, value);
+			return this;
+		}
+		
+		/**
+		 * Removes all header values associated with the field name.
+		 * @param field the name of the header.
+		 * @return this.
+		 */
+		public Builder removeHeader(String field) {
+			if(field == null) {
+				throw new NullPointerException("field cannot be null.");
+			}
+			p.mutableHeaders().remove(field);
+			return this;
+		}
+		
+		/**
+		 * Sets the Transport used to execute the built Request.
+		 * @param transport the Transport to use, or null to use
+		 * RequestManager.getTransport() at the time the Request is executed.
+		 * @return this
+		 */
+		public Builder setTransport(Transport transport) {
+			p.transport = transport;
+			return this;
+		}
+		
+		/**
+		 * Sets the priority of the built Request.
+		 * @param priority one of PRIORITY_LOW, PRIORITY_NORMAL, or
+		 * PRIORITY_HIGH.
+		 * @return this
+		 * @throws IllegalArgumentException if priority is not one of the
+		 * above.
+		 */
+		public Builder setPriority(int priority) {
+			if(priority < PRIORITY_LOW || priority > PRIORITY_HIGH) {
+				throw new IllegalArgumentException("Invalid priority: " + priority);
+			}
+			p.priority = priority;
+			return this;
+		}
+		
+		/**
+		 * Adds an Interceptor that applies only to the built Request. It runs
+		 * after all interceptors registered with RequestManager.
+		 * @param interceptor the Interceptor to add.
+		 * @return this
+		 */
+		public Builder addInterceptor(Interceptor interceptor) {
+			if(interceptor == null) {
+				throw new NullPointerException("Interceptor cannot be null.");
+			}
+			//The array is shared with created Requests, so it is never modified.
+			Interceptor[] interceptors = new Interceptor[p.interceptors.length + 1];
+			System.arraycopy(p.interceptors, 0, interceptors, 0, p.interceptors.length);
+			interceptors[p.interceptors.length] = interceptor;
+			p.interceptors = interceptors;
 			return this;
 		}
 		
@@ -0,0 +1,185 @@
+package com.ericelsken.android.web;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The body of a Request, which is written directly to the stream of the
+ * Exchange executing the Request so that it never has to be held in memory
+ * as a whole. If the length of the body is known ahead of time it is sent with
+ * a Content-Length header, otherwise it is sent with chunked transfer
+ * encoding.
+ * 
+ * The factory methods of this class create bodies from Strings, byte arrays,
+ * files, and streams. Please see MultipartBody for multipart/form-data bodies.
+ * Bodies created from Strings, byte arrays, and files may be written any
+ * number of times, so their Requests may be executed any number of times.
+ * Bodies created from streams may only be written once.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public abstract class RequestBody {
+	
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	/**
+	 * The size of the buffer used to copy files and streams into the Request.
+	 */
+	static final int COPY_BUFFER_SIZE = 8 * 1024;
+	
+	/**
+	 * Returns the value of the Content-Type header for this body.
+	 * @return the content type of this body, or null if it has none.
+	 */
+	public abstract String getContentType();
+	
+	/**
+	 * Returns the number of bytes writeTo() will write.
+	 * @return the length of this body, or -1 if it is not known.
+	 */
+	public abstract long getContentLength();
+	
+	/**
+	 * Writes this body to out. out is not closed by this method.
+	 * @param out the stream to write to.
+	 * @throws IOException if writing fails.
+	 */
+	public abstract void writeTo(OutputStream out) throws IOException;
+	
+	/**
+	 * Returns whether this body may only be written once, as are bodies
+	 * created from streams. Such a body can neither be sent again nor read by
+	 * an Interceptor before it is sent.
+	 * @return true if this body may only be written once.
+	 */
+	public boolean isOneShot() {
+		return false;
+	}
+	
+	/**
+	 * Creates a body of the UTF-8 encoded bytes of data.
+	 * @param contentType the content type of the body, or null.
+	 * @param data the String to send.
+	 * @return the new body.
+	 */
+	public static RequestBody create(String contentType, String data) {
+		return create(contentType, data.getBytes(UTF_8));
+	}
+	
+	/**
+	 * Creates a body of the given bytes. The array is not copied and must not
+	 * be modified afterwards.
+	 * @param contentType the content type of the body, or null.
+	 * @param bytes the bytes to send.
+	 * @return the new body.
+	 */
+	public static RequestBody create(final String contentType, final byte[] bytes) {
+		if(bytes == null) {
+			throw new NullPointerException("bytes cannot be null.");
+		}
+		return new RequestBody() {
+			@Override
+			public String getContentType() {
+				return contentType;
+			}
+
+			@Override
+			public long getContentLength() {
+				return bytes.length;
+			}
+
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				out.write(bytes);
+			}
+		};
+	}
+	
+	/**
+	 * Creates a body that streams the contents of file from disk each time it
+	 * is written.
+	 * @param contentType the content type of the body, or null.
+	 * @param file the file to send.
+	 * @return the new body.
+	 */
+	public static RequestBody create(final String contentType, final File file) {
+		if(file == null) {
+			throw new NullPointerException("file cannot be null.");
+		}
+		return new RequestBody() {
+			@Override
+			public String getContentType() {
+				return contentType;
+			}
+
+			@Override
+			public long getContentLength() {
+				return file.length();
+			}
+
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				InputStream in = new FileInputStream(file);
+				try {
+					copy(in, out);
+				} finally {
+					in.close();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Creates a body that streams the contents of in. The stream is read and
+	 * closed the first time the body is written, so the body may only be
+	 * written once.
+	 * @param contentType the content type of the body, or null.
+	 * @param in the stream to send.
+	 * @param contentLength the number of bytes in the stream, or -1 if it is
+	 * not known.
+	 * @return the new body.
+	 */
+	public static RequestBody create(final String contentType, final InputStream in, final long contentLength) {
+		if(in == null) {
+			throw new NullPointerException("in cannot be null.");
+		}
+		return new RequestBody() {
+			@Override
+			public String getContentType() {
+				return contentType;
+			}
+
+			@Override
+			public long getContentLength() {
+				return contentLength;
+			}
+
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				try {
+					copy(in, out);
+				} finally {
+					in.close();
+				}
+			}
+			
+			@Override
+			public boolean isOneShot() {
+				return true;
+			}
+		};
+	}
+	
+	static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		int read;
+		while((read = in.read(buffer, 0, buffer.length)) != -1) {
+			out.write(buffer, 0, read);
+		}
+	}
+}
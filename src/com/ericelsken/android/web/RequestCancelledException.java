@@ -33,4 +33,15 @@ public class RequestCancelledException extends Exception {
 	public int getId() {
 		return mId;
 	}
+	
+	/**
+	 * Does not record a stack trace. This Exception represents a routine
+	 * outcome rather than a programming error, and is typically created long
+	 * after and far away from where it occurred, by Response.getException().
+	 * @return this Exception.
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
 }
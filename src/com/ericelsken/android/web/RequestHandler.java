@@ -19,13 +19,14 @@ import android.os.AsyncTask;
  * four callbacks are all received from AsyncTask.onPostExecute().
  * 
  * This class allows for a Request to be cancelled. Cancellation in this case
- * means that the AsyncTask being used is cancelled. But, because the actual
- * request being made to the remote service cannot be cancelled, this results in
- * a RequestCancelledException being sent to
- * RequestCallback.onRequestException() even though the request may have
- * completed successfully. So, if your Request has some sort of side effects
- * or state change in your service, it is recommended to check the result of the
- * Response in all cases or not cancel a Request.
+ * means that the AsyncTask being used is cancelled and the Call executing the
+ * Request is cancelled, which aborts the exchange with the remote service if
+ * it is still in progress. This results in a RequestCancelledException being
+ * sent to RequestCallback.onRequestException() even though the request may
+ * have already reached, or completed on, the remote service. So, if your
+ * Request has some sort of side effects or state change in your service, it is
+ * recommended to check the result of the Response in all cases or not cancel a
+ * Request.
  * 
  * You can get the fields supplied to this class when constructed for use in
  * callbacks if need be. Additionally, you can set the ExceptionHandler of this 
@@ -52,6 +53,7 @@ public class RequestHandler {
 	private ExceptionHandler mExceptionHandler;
 	
 	private final Request mReq;
+	private final Call mCall;
 	private Response mRes;
 	
 	/**
@@ -90,6 +92,7 @@ public class RequestHandler {
 		this.mCallback = callback;
 		this.mExceptionHandler = this.mManager.getExceptionHandler();
 		mReq = req;
+		mCall = req.newCall();
 		mRes = null;
 	}
 	
@@ -118,14 +121,18 @@ public class RequestHandler {
 	}
 	
 	/**
-	 * Attempts to cancel this Request. Note that this network call cannot
-	 * actually be cancelled, so this only signals that a cancellation has
-	 * occurred and results in a RequestCancelledException to be sent to
+	 * Attempts to cancel this Request. The Call executing the Request is
+	 * cancelled, aborting any exchange in progress, and a
+	 * RequestCancelledException is sent to
 	 * RequestCallback.onRequestExeption().
 	 * @return AsyncTask.cancel(true).
 	 */
 	public boolean cancel() {
-		return mTask.cancel(true);
+		boolean cancelled = mTask.cancel(true);
+		if(cancelled) {
+			mCall.cancel();
+		}
+		return cancelled;
 	}
 	
 	/**
@@ -156,7 +163,7 @@ public class RequestHandler {
 
 		@Override
 		protected Response doInBackground(Void... params) {
-			return mReq.execute();
+			return mCall.execute();
 		}
 		
 		@Override
@@ -182,7 +189,11 @@ public class RequestHandler {
 		protected void onCancelled() {
 			super.onCancelled();
 			mCallback.onRequestDone(mId, true);
-			mRes.setException(new RequestCancelledException(mId));
+			if(mRes == null) {
+				//onPostExecute() is never called for a cancelled task.
+				mRes = new Response(-1, null, null, null, null);
+			}
+			mRes.setCancelled(mId);
 			handleException();
 			mCallback.onRequestFinally(mId, true);
 			mManager.removeRequest(mId);
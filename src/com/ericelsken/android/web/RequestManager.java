@@ -1,7 +1,19 @@
 package com.ericelsken.android.web;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.util.SparseArray;
 
+import com.ericelsken.android.web.codec.CodecRegistry;
+import com.ericelsken.android.web.dns.Resolver;
+import com.ericelsken.android.web.metrics.MetricsRegistry;
+import com.ericelsken.android.web.metrics.RequestLog;
+
 /**
  * This class is a Singleton implementation that manages all instances of
  * RequestHanlders that are used by an application. The default ExceptionHandler
@@ -9,7 +21,29 @@ import android.util.SparseArray;
  * Unless otherwise set, an instance of DefaultExceptionHandler is created and
  * used by all RequestHanlders when this class is first created.
  * 
- * All methods in this class MUST be called in the main-UI thread.
+ * The Transport used by Requests that do not specify their own is also set
+ * through this class. It defaults to an instance of HttpURLConnectionTransport.
+ * 
+ * Interceptors that apply to every Request are registered with this class.
+ * 
+ * A MetricsRegistry may also be set to aggregate metrics about every Request
+ * executed, and a RequestLog to keep a log of the last Requests executed.
+ * There are none by default.
+ * 
+ * Requests executed asynchronously without a Looper, by
+ * Request.executeAsync() and RequestPublisher, run on the Executor of this
+ * class, which by default is a pool of getDefaultPoolSize() daemon threads
+ * created on first use.
+ * 
+ * The CodecRegistry used to encode and decode typed bodies is also held by
+ * this class, and is CodecRegistry.createDefault() unless otherwise set.
+ * 
+ * Transports that open their own sockets resolve hosts with the Resolver of
+ * this class, which is Resolver.SYSTEM unless otherwise set.
+ * 
+ * All methods in this class MUST be called in the main-UI thread, except for
+ * the getters of the Transport, MetricsRegistry, and interceptors which are
+ * called by Requests on their background thread.
  * 
  * @author Eric Elsken
  *
@@ -28,12 +62,28 @@ public class RequestManager {
 		return InstanceHolder.sInstance;
 	}
 	
-	private final SparseArray<RequestHandler> mArray;
+	private SparseArray<RequestHandler> mArray;
 	private ExceptionHandler mExceptionHandler;
+	private volatile Transport mTransport;
+	private volatile MetricsRegistry mMetricsRegistry;
+	private volatile RequestLog mRequestLog;
+	private volatile Interceptor[] mInterceptors;
+	private volatile Executor mExecutor;
+	private volatile CodecRegistry mCodecRegistry;
+	private volatile Resolver mResolver;
 	
 	private RequestManager() {
-		mArray = new SparseArray<RequestHandler>();
+		//Created on first use so Requests can be executed on a plain JVM.
+		mArray = null;
 		mExceptionHandler = new DefaultExceptionHandler();
+		mTransport = new HttpURLConnectionTransport();
+		mMetricsRegistry = null;
+		mRequestLog = null;
+		mInterceptors = Request.NO_INTERCEPTORS;
+		mExecutor = null;
+		//Created on first use since the default Codecs need org.json.
+		mCodecRegistry = null;
+		mResolver = Resolver.SYSTEM;
 	}
 	
 	/**
@@ -55,6 +105,219 @@ public class RequestManager {
 		return mExceptionHandler;
 	}
 	
+	/**
+	 * Sets the Transport used by all Requests executed after this call returns
+	 * that were not built with their own Transport.
+	 * @param transport the new default Transport.
+	 * @throws NullPointerException if transport is null.
+	 */
+	public void setTransport(Transport transport) {
+		if(transport == null) {
+			throw new NullPointerException("Transport cannot be null.");
+		}
+		mTransport = transport;
+	}
+	
+	/**
+	 * Returns the default Transport used to execute Requests. This may be
+	 * called from any thread.
+	 * @return the current default Transport.
+	 */
+	public Transport getTransport() {
+		return mTransport;
+	}
+	
+	/**
+	 * Sets the MetricsRegistry that records every Request executed after this
+	 * call returns.
+	 * @param registry the new MetricsRegistry, or null to stop recording.
+	 */
+	public void setMetricsRegistry(MetricsRegistry registry) {
+		mMetricsRegistry = registry;
+	}
+	
+	/**
+	 * Returns the MetricsRegistry recording executed Requests. This may be
+	 * called from any thread.
+	 * @return the current MetricsRegistry, or null if there is none.
+	 */
+	public MetricsRegistry getMetricsRegistry() {
+		return mMetricsRegistry;
+	}
+	
+	/**
+	 * Sets the RequestLog that logs every Request executed after this call
+	 * returns.
+	 * @param log the new RequestLog, or null to stop logging.
+	 */
+	public void setRequestLog(RequestLog log) {
+		mRequestLog = log;
+	}
+	
+	/**
+	 * Returns the RequestLog logging executed Requests. This may be called
+	 * from any thread.
+	 * @return the current RequestLog, or null if there is none.
+	 */
+	public RequestLog getRequestLog() {
+		return mRequestLog;
+	}
+	
+	/**
+	 * Sets the Executor on which Requests are executed asynchronously by
+	 * Request.executeAsync() and RequestPublisher.
+	 * @param executor the new Executor, or null to use the default pool.
+	 */
+	public void setExecutor(Executor executor) {
+		mExecutor = executor;
+	}
+	
+	/**
+	 * Returns the Executor on which Requests are executed asynchronously,
+	 * creating the default pool if none was set. This may be called from any
+	 * thread.
+	 * @return the current Executor.
+	 */
+	public Executor getExecutor() {
+		Executor executor = mExecutor;
+		if(executor == null) {
+			synchronized(this) {
+				if(mExecutor == null) {
+					mExecutor = newDefaultExecutor();
+				}
+				executor = mExecutor;
+			}
+		}
+		return executor;
+	}
+	
+	/**
+	 * Returns the number of threads of the default Executor, which scales
+	 * with the number of processors since its threads mostly wait on the
+	 * network.
+	 * @return the number of threads of the default Executor.
+	 */
+	public static int getDefaultPoolSize() {
+		return Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+	}
+	
+	private static Executor newDefaultExecutor() {
+		int size = getDefaultPoolSize();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Request-" + mCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Sets the CodecRegistry used by Request.Builder.setEncodedBody() and
+	 * DecodingResponseLoader.
+	 * @param registry the new CodecRegistry.
+	 * @throws NullPointerException if registry is null.
+	 */
+	public void setCodecRegistry(CodecRegistry registry) {
+		if(registry == null) {
+			throw new NullPointerException("CodecRegistry cannot be null.");
+		}
+		mCodecRegistry = registry;
+	}
+	
+	/**
+	 * Returns the CodecRegistry used to encode and decode typed bodies,
+	 * creating the default one if none was set. This may be called from any
+	 * thread.
+	 * @return the current CodecRegistry.
+	 */
+	public CodecRegistry getCodecRegistry() {
+		CodecRegistry registry = mCodecRegistry;
+		if(registry == null) {
+			synchronized(this) {
+				if(mCodecRegistry == null) {
+					mCodecRegistry = CodecRegistry.createDefault();
+				}
+				registry = mCodecRegistry;
+			}
+		}
+		return registry;
+	}
+	
+	/**
+	 * Sets the Resolver used by Transports that open their own sockets, such
+	 * as a CachingResolver.
+	 * @param resolver the new Resolver.
+	 * @throws NullPointerException if resolver is null.
+	 */
+	public void setResolver(Resolver resolver) {
+		if(resolver == null) {
+			throw new NullPointerException("Resolver cannot be null.");
+		}
+		mResolver = resolver;
+	}
+	
+	/**
+	 * Returns the Resolver used by Transports that open their own sockets.
+	 * This may be called from any thread.
+	 * @return the current Resolver.
+	 */
+	public Resolver getResolver() {
+		return mResolver;
+	}
+	
+	/**
+	 * Adds an Interceptor that applies to every Request executed after this
+	 * call returns. Interceptors run in the order they were added.
+	 * @param interceptor the Interceptor to add.
+	 * @throws NullPointerException if interceptor is null.
+	 */
+	public void addInterceptor(Interceptor interceptor) {
+		if(interceptor == null) {
+			throw new NullPointerException("Interceptor cannot be null.");
+		}
+		synchronized(this) {
+			Interceptor[] interceptors = new Interceptor[mInterceptors.length + 1];
+			System.arraycopy(mInterceptors, 0, interceptors, 0, mInterceptors.length);
+			interceptors[mInterceptors.length] = interceptor;
+			mInterceptors = interceptors;
+		}
+	}
+	
+	/**
+	 * Removes an Interceptor added with addInterceptor().
+	 * @param interceptor the Interceptor to remove.
+	 * @return true if the Interceptor was removed, false if it was not added.
+	 */
+	public boolean removeInterceptor(Interceptor interceptor) {
+		synchronized(this) {
+			for(int i = 0; i < mInterceptors.length; i++) {
+				if(mInterceptors[i] == interceptor) {
+					Interceptor[] interceptors = new Interceptor[mInterceptors.length - 1];
+					System.arraycopy(mInterceptors, 0, interceptors, 0, i);
+					System.arraycopy(mInterceptors, i + 1, interceptors, i, interceptors.length - i);
+					mInterceptors = interceptors;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the interceptors that apply to every Request. This may be called
+	 * from any thread. The array MUST NOT be modified.
+	 */
+	Interceptor[] getInterceptors() {
+		return mInterceptors;
+	}
+	
 	/**
 	 * Adds a RequestHandler to be managed by this object.
 	 * If a RequestHandler is already mapped by id, then this is a no-op and
@@ -67,7 +330,7 @@ public class RequestManager {
 		if(handler == null || containsRequest(id)) {
 			return false;
 		}
-		mArray.append(id, handler);
+		handlers().append(id, handler);
 		return true;
 	}
 	
@@ -79,7 +342,7 @@ public class RequestManager {
 	 * class, false otherwise.
 	 */
 	public boolean containsRequest(int id) {
-		return mArray.indexOfKey(id) >= 0;
+		return handlers().indexOfKey(id) >= 0;
 	}
 	
 	/**
@@ -88,7 +351,7 @@ public class RequestManager {
 	 * @return the RequestHandler mapped to by id if it exists, null otherwise.
 	 */
 	public RequestHandler getHandler(int id) {
-		return mArray.get(id);
+		return handlers().get(id);
 	}
 	
 	/**
@@ -100,7 +363,7 @@ public class RequestManager {
 	 * otherwise.
 	 */
 	public boolean cancelRequest(int id) {
-		RequestHandler rh = mArray.get(id);
+		RequestHandler rh = handlers().get(id);
 		if(rh != null) {
 			return rh.cancel();
 		}
@@ -112,7 +375,14 @@ public class RequestManager {
 	 * @param id the id used to identify the RequestHandler.
 	 */
 	public void removeRequest(int id) {
-		mArray.delete(id);
+		handlers().delete(id);
+	}
+	
+	private SparseArray<RequestHandler> handlers() {
+		if(mArray == null) {
+			mArray = new SparseArray<RequestHandler>();
+		}
+		return mArray;
 	}
 	
 	/**
@@ -122,7 +392,7 @@ public class RequestManager {
 	 * @param callback the new RequestCallback to set on the RequestHandler.
 	 */
 	public void setCallback(int id, RequestCallbacks callback) {
-		RequestHandler rh = mArray.get(id);
+		RequestHandler rh = handlers().get(id);
 		if(rh != null) {
 			rh.setRequestCallback(callback);
 		}
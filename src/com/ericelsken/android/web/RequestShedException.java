@@ -0,0 +1,45 @@
+package com.ericelsken.android.web;
+
+/**
+ * Instances of this class indicate that a Request was not executed because
+ * too many Requests to its host were already in flight for its priority.
+ * Instances of this class will be sent to RequestCallback.onRequestException()
+ * without any network call being made.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class RequestShedException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final String mHost;
+	private final int mPriority;
+	
+	/**
+	 * Create a new instance for the given host and priority.
+	 * @param host the host of the shed Request.
+	 * @param priority the priority of the shed Request.
+	 */
+	public RequestShedException(String host, int priority) {
+		super("Request to host " + host + " with priority " + priority + " was shed");
+		mHost = host;
+		mPriority = priority;
+	}
+	
+	/**
+	 * Returns the host of the shed Request.
+	 * @return the host of the shed Request.
+	 */
+	public String getHost() {
+		return mHost;
+	}
+	
+	/**
+	 * Returns the priority of the shed Request.
+	 * @return the priority of the shed Request.
+	 */
+	public int getPriority() {
+		return mPriority;
+	}
+}
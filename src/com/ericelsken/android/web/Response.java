@@ -1,8 +1,12 @@
 package com.ericelsken.android.web;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -11,44 +15,194 @@ import java.util.Map;
  * the status message, and the headers of the response.
  * More capability should be added in the future.
  * 
- * Aside from the body and Exception, all methods of this class are backed by
- * the HttpURLConnection given to the constructor. Please see the
- * documentation for java.net.HttpURLConnection as to how those methods
- * operate.
+ * The status code, status message, and headers are copied out of the
+ * Transport's Exchange when the Request is executed, so a Response holds no
+ * reference to the underlying connection.
+ * 
+ * Routine failures, a non 2xx status code or a cancelled Request, are
+ * recorded as a failure kind rather than an Exception. hasException(),
+ * isSuccessful() and isCancelled() answer from that kind without allocating;
+ * the HttpException, RequestCancelledException, or InterruptedIOException is
+ * only created once getException() is called. Since a lazily created
+ * HttpException reads the body of this Response, call getException() before
+ * releaseBody() if the body of the HttpException is needed.
+ * 
+ * The body of an executed Request is kept as the bytes that were read, so
+ * binary bodies are available intact from getBodyBytes(). getBody() decodes
+ * them into a String on first use, with the charset of the Content-Type
+ * header or UTF-8.
  * 
  * @author Eric Elsken
  *
  */
 public class Response {
+	
+	static final int FAILURE_NONE = 0;
+	static final int FAILURE_HTTP = 1;
+	static final int FAILURE_INTERRUPTED = 2;
+	static final int FAILURE_CANCELLED = 3;
 
-	private final HttpURLConnection conn;
+	private final int status;
+	private final String message;
+	private final Headers headers;
+	private Map<String, List<String>> headerFields;
 	private String body;
+	private byte[] bodyBytes;
+	private InputStream bodyStream;
 	private boolean isBodyReleased;
 	private Exception ex;
+	private int failure;
+	private int cancelledId;
+	private volatile Object tag;
+	private volatile boolean fromCache;
 	
 	/**
-	 * Create a Response from an HttpURLConnection that should have been used to
-	 * execute a Request, the body of the response, and a possible Exception
-	 * that occurred while executing the Request.
-	 * @param conn an HttpURLConnection that was used to make a request.
+	 * Create a Response from the status code, status message, headers, and
+	 * body read while executing a Request, and a possible Exception that
+	 * occurred while executing the Request.
+	 * @param status the status code of the response, or -1 if it is not known.
+	 * @param message the status message of the response, or null if it is not
+	 * known.
+	 * @param headers the headers of the response, or null if they are not
+	 * known.
 	 * @param body the response body.
 	 * @param ex an Exception that was possibly caught while making a request.
 	 */
-	public Response(HttpURLConnection conn, String body, Exception ex) {
-		this.conn = conn;
+	public Response(int status, String message, Headers headers, String body, Exception ex) {
+		this.status = status;
+		this.message = message;
+		this.headers = headers == null ? Headers.EMPTY : headers;
 		this.body = body;
+		this.bodyStream = null;
 		this.isBodyReleased = false;
 		this.ex = ex;
+		this.failure = FAILURE_NONE;
+	}
+	
+	/**
+	 * Create a Response whose body is either already read into bytes or
+	 * still open as a stream, as returned by Call.executeStreaming().
+	 */
+	Response(int status, String message, Headers headers, byte[] bodyBytes, InputStream bodyStream, Exception ex,
+			int failure) {
+		this(status, message, headers, (String) null, ex);
+		this.bodyBytes = bodyBytes;
+		this.bodyStream = bodyStream;
+		this.failure = ex == null ? failure : FAILURE_NONE;
+	}
+	
+	/**
+	 * Create a Response for a Call that was cancelled before it reached the
+	 * network, such as by an Interceptor that was waiting to proceed.
+	 * isCancelled() returns true for the returned Response.
+	 * @return a new Response without a status code.
+	 */
+	public static Response cancelled() {
+		return new Response(-1, null, null, (byte[]) null, null, null, FAILURE_INTERRUPTED);
+	}
+	
+	/**
+	 * Marks this Response as belonging to the cancelled RequestHandler with
+	 * the given id, replacing any Exception it held.
+	 */
+	void setCancelled(int id) {
+		ex = null;
+		failure = FAILURE_CANCELLED;
+		cancelledId = id;
 	}
 	
 	/**
-	 * Returns the response body.
+	 * Returns the response body, decoding it on the first call.
 	 * @return the response body.
 	 */
 	public String getBody() {
+		if(body == null && bodyBytes != null) {
+			body = decode(bodyBytes);
+		}
 		return body;
 	}
 	
+	/**
+	 * Returns the response body as the bytes that were read. The array MUST
+	 * NOT be modified. If this Response was created with a String body, it is
+	 * encoded with the charset of the Content-Type header or UTF-8.
+	 * @return the response body, or null if there is none or it was released.
+	 */
+	public byte[] getBodyBytes() {
+		if(bodyBytes == null && body != null) {
+			try {
+				bodyBytes = body.getBytes(charset());
+			} catch (UnsupportedEncodingException e) {
+				bodyBytes = body.getBytes(Charset.forName("UTF-8"));
+			}
+		}
+		return bodyBytes;
+	}
+	
+	private String decode(byte[] bytes) {
+		try {
+			return new String(bytes, charset());
+		} catch (UnsupportedEncodingException e) {
+			return new String(bytes, Charset.forName("UTF-8"));
+		}
+	}
+	
+	/**
+	 * Returns the charset parameter of the Content-Type header of this
+	 * Response.
+	 * @return the charset, or null if the header has none.
+	 */
+	public String getCharset() {
+		String type = headers.get("Content-Type");
+		if(type == null) {
+			return null;
+		}
+		int i = type.toLowerCase(Locale.US).indexOf("charset=");
+		if(i < 0) {
+			return null;
+		}
+		int end = type.indexOf(';', i);
+		String charset = type.substring(i + 8, end < 0 ? type.length() : end).trim();
+		if(charset.length() > 1 && charset.charAt(0) == '"') {
+			charset = charset.substring(1, charset.length() - 1);
+		}
+		return charset.length() == 0 ? null : charset;
+	}
+	
+	/**
+	 * Returns the charset parameter of the Content-Type header, or UTF-8.
+	 */
+	private String charset() {
+		String charset = getCharset();
+		return charset == null ? "UTF-8" : charset;
+	}
+	
+	/**
+	 * Returns the stream from which the body of a Response obtained from
+	 * Call.executeStreaming() is read. close() MUST be called once done with
+	 * the stream.
+	 * @return the body stream, or null if the body was read into a String or
+	 * the Response has no body.
+	 */
+	public InputStream getBodyStream() {
+		return bodyStream;
+	}
+	
+	/**
+	 * Closes the body stream of this Response, if any, releasing the
+	 * connection it is read from. This is a no-op if there is no body stream.
+	 */
+	public void close() {
+		if(bodyStream == null) {
+			return;
+		}
+		try {
+			bodyStream.close();
+		} catch (IOException ignored) {
+			//Nothing more can be done; the Exchange is closed regardless.
+		}
+	}
+	
 	/**
 	 * Releases the internal reference to the body held by this class.
 	 * Future calls to getBody() will return null.
@@ -57,6 +211,7 @@ public class Response {
 	public void releaseBody() {
 		isBodyReleased = true;
 		body = null;
+		bodyBytes = null;
 	}
 	
 	/**
@@ -73,26 +228,82 @@ public class Response {
 	 * otherwise.
 	 */
 	public boolean hasException() {
-		return ex != null;
+		return ex != null || failure != FAILURE_NONE;
+	}
+	
+	/**
+	 * Returns whether or not this Response has a 2xx status code and no
+	 * Exception associated with it.
+	 * @return true if the Request succeeded, false otherwise.
+	 */
+	public boolean isSuccessful() {
+		return status / 100 == 2 && !hasException();
+	}
+	
+	/**
+	 * Returns whether or not this Response is the result of a cancelled Call
+	 * or RequestHandler.
+	 * @return true if the Request was cancelled, false otherwise.
+	 */
+	public boolean isCancelled() {
+		return failure == FAILURE_INTERRUPTED || failure == FAILURE_CANCELLED;
 	}
 
 	/**
-	 * Returns the Exception associated with this Response.
+	 * Returns the Exception associated with this Response, creating it first
+	 * if this Response only records a routine failure.
 	 * @return the Exception associated with this Response, or null if it does
 	 * not exist.
 	 */
 	public Exception getException() {
+		if(ex == null && failure != FAILURE_NONE) {
+			switch(failure) {
+			case FAILURE_HTTP:
+				ex = new HttpException(status, message, getBody());
+				break;
+			case FAILURE_INTERRUPTED:
+				ex = new InterruptedIOException("Call was cancelled.");
+				break;
+			default:
+				ex = new RequestCancelledException(cancelledId);
+				break;
+			}
+		}
 		return ex;
 	}
 	
+	/**
+	 * Returns the type of the Exception getException() returns, without
+	 * creating it if this Response only records a routine failure. This is
+	 * public so that a RequestLog can record it at no cost.
+	 * @return the type of the Exception associated with this Response, or
+	 * null if it does not exist.
+	 */
+	public Class<? extends Exception> getExceptionType() {
+		if(ex != null) {
+			return ex.getClass();
+		}
+		switch(failure) {
+		case FAILURE_NONE:
+			return null;
+		case FAILURE_HTTP:
+			return HttpException.class;
+		case FAILURE_INTERRUPTED:
+			return InterruptedIOException.class;
+		default:
+			return RequestCancelledException.class;
+		}
+	}
+	
 	/**
 	 * Allows a caller to set an Exception on this Response.
 	 * @param ex the new Exception.
 	 * @return the previously held Exception, or null if it does not exist.
 	 */
 	public Exception setException(Exception ex) {
-		Exception old = this.ex;
+		Exception old = getException();
 		this.ex = ex;
+		this.failure = FAILURE_NONE;
 		return old;
 	}
 	
@@ -101,43 +312,88 @@ public class Response {
 	 * @return the response code, or -1 if it not possible to retrieve.
 	 */
 	public int getStatusCode() {
-		if(conn == null) {
-			return -1;
-		}
-		try {
-			return conn.getResponseCode();
-		} catch (IOException e) {
-			return -1;
-		}
+		return status;
+	}
+	
+	/**
+	 * Returns the status message of the Response, i.e. OK or Not Found.
+	 * @return the status message, or null if it is not possible to retrieve.
+	 */
+	public String getStatusMessage() {
+		return message;
 	}
 	
 	/**
-	 * Returns an immutable map of headers of this Response.
-	 * @return an immutable map of headers of this Response, or null if it is
-	 * not possible to retrieve the headers.
+	 * Returns the headers of this Response.
+	 * @return the headers of this Response, which are empty if it is not
+	 * possible to retrieve them.
+	 */
+	public Headers getHeaders() {
+		return headers;
+	}
+	
+	/**
+	 * Returns an immutable map of headers of this Response. The map ignores
+	 * case when looking up header field names.
+	 * @return an immutable map of headers of this Response.
 	 */
 	public Map<String, List<String>> getHeaderFields() {
-		if(conn == null) {
-			return null;
+		if(headerFields == null) {
+			headerFields = headers.toMultimap();
 		}
-		return conn.getHeaderFields();
+		return headerFields;
 	}
 	
 	/**
-	 * Returns the header value mapped by key.
+	 * Returns the header value mapped by key, ignoring case. If there are
+	 * multiple values for key, then the last one is returned.
 	 * @param key the header field name for which to return its value.
 	 * @return the header mapped by key, or null if there is no field with this
 	 * name or it is not possible to retrieve the header value.
 	 */
 	public String getHeaderField(String key) {
-		if(conn == null) {
-			return null;
-		}
-		return conn.getHeaderField(key);
+		return headers.get(key);
+	}
+	
+	/**
+	 * Returns the object attached to this Response with setTag().
+	 * @return the tag, or null if there is none.
+	 */
+	public Object getTag() {
+		return tag;
+	}
+	
+	/**
+	 * Attaches an object to this Response, such as the trace span of the Call
+	 * that produced it, for code that later handles the Response.
+	 * @param tag the tag, or null to remove it.
+	 */
+	public void setTag(Object tag) {
+		this.tag = tag;
+	}
+	
+	/**
+	 * Returns whether this Response was served from a cache, as marked by the
+	 * caching Interceptor that returned it.
+	 * @return true if this Response was served from a cache.
+	 */
+	public boolean isFromCache() {
+		return fromCache;
+	}
+	
+	/**
+	 * Marks this Response as served from a cache. A caching Interceptor calls
+	 * this on the Responses it returns, or after revalidating a cached
+	 * Response, so that metrics count them as cache hits. Responses returned
+	 * by an Interceptor without this mark, such as rejections, are not.
+	 * @param fromCache true if this Response was served from a cache.
+	 */
+	public void setFromCache(boolean fromCache) {
+		this.fromCache = fromCache;
 	}
 	
 	@Override
 	public String toString() {
-		return body + " " + ex;
+		return getBody() + " " + getException();
 	}
 }
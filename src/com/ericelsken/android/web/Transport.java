@@ -0,0 +1,35 @@
+package com.ericelsken.android.web;
+
+import java.io.IOException;
+
+/**
+ * The service provider interface used by Request.execute() to perform the
+ * actual HTTP exchange. Implementations decide how a Request reaches the
+ * remote server: over java.net.HttpURLConnection (the default, see
+ * HttpURLConnectionTransport), over a multiplexing HTTP/2 client that shares
+ * one connection between many concurrent Requests, or entirely in-process for
+ * tests.
+ * 
+ * A Transport is shared by every Request that uses it, possibly from many
+ * background threads at once, and therefore MUST be thread-safe.
+ * 
+ * The Transport used by a Request is the one given to
+ * Request.Builder.setTransport(), or RequestManager.getTransport() if none was
+ * given.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface Transport {
+	
+	/**
+	 * Creates a new Exchange for the given Request. The method and headers of
+	 * the Request must be applied to the Exchange before it is returned, but
+	 * implementations are free to defer any networking until the Request body
+	 * is written or the status code is requested.
+	 * @param req the Request to be executed.
+	 * @return a new Exchange for req.
+	 * @throws IOException if the Exchange could not be created.
+	 */
+	public Exchange newExchange(Request req) throws IOException;
+}
@@ -0,0 +1,22 @@
+package com.ericelsken.android.web.async;
+
+/**
+ * A function that starts the next asynchronous step, typically executing a
+ * dependent Request, once a RequestFuture succeeds. Used by
+ * RequestFuture.thenCompose().
+ * 
+ * @author Eric Elsken
+ *
+ * @param <T> the type of the input.
+ * @param <U> the type of the result of the next step.
+ */
+public interface Continuation<T, U> {
+	
+	/**
+	 * Starts the next step with input.
+	 * @param input the result of the source RequestFuture.
+	 * @return the RequestFuture of the next step, which cannot be null.
+	 * @throws Exception to fail the derived RequestFuture.
+	 */
+	RequestFuture<U> apply(T input) throws Exception;
+}
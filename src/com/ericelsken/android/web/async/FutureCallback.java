@@ -0,0 +1,26 @@
+package com.ericelsken.android.web.async;
+
+/**
+ * Receives the outcome of a RequestFuture, registered with
+ * RequestFuture.addCallback().
+ * 
+ * @author Eric Elsken
+ *
+ * @param <T> the type of the result.
+ */
+public interface FutureCallback<T> {
+	
+	/**
+	 * Called when the RequestFuture succeeds.
+	 * @param result the result.
+	 */
+	void onSuccess(T result);
+	
+	/**
+	 * Called when the RequestFuture fails, times out, or is cancelled.
+	 * @param ex the Exception the RequestFuture failed with. Cancellation is
+	 * reported with a CancellationException and a timeout with a
+	 * TimeoutException.
+	 */
+	void onFailure(Exception ex);
+}
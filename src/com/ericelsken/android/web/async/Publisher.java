@@ -0,0 +1,21 @@
+package com.ericelsken.android.web.async;
+
+/**
+ * A source of a potentially unbounded number of items, published to each
+ * Subscriber according to the demand it signals. This follows the contract of
+ * the Reactive Streams Publisher, so adapting it to a reactive library is a
+ * matter of delegating each method.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <T> the type of the items.
+ */
+public interface Publisher<T> {
+	
+	/**
+	 * Starts publishing to subscriber, which first receives
+	 * Subscriber.onSubscribe().
+	 * @param subscriber the Subscriber.
+	 */
+	void subscribe(Subscriber<? super T> subscriber);
+}
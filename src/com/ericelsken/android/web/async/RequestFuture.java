@@ -0,0 +1,613 @@
+package com.ericelsken.android.web.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.os.Build;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.HttpException;
+import com.ericelsken.android.web.Response;
+
+/**
+ * The pending result of an asynchronous step, such as executing a Request
+ * with Request.executeAsync(). Besides the blocking Future methods, a
+ * RequestFuture can be composed with further steps without blocking any
+ * thread or hopping to the main-UI thread: then() transforms its result,
+ * thenCompose() starts a dependent step such as another Request, catching()
+ * recovers from failures, and withTimeout() bounds how long it may take.
+ * 
+ * Steps run on the thread that completes the previous step, typically a
+ * thread of RequestManager.getExecutor(), unless an Executor is given.
+ * Cancelling a derived RequestFuture cancels the steps it depends on,
+ * including the Call of an executing Request.
+ * 
+ * A RequestFuture of a Response succeeds with the Response even if the
+ * Response holds an Exception, as every other part of this library does.
+ * Apply requireSuccess() to fail instead when the Response is not
+ * successful, so that a chain of dependent Requests stops at the first
+ * failure.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <T> the type of the result.
+ */
+public class RequestFuture<T> implements Future<T> {
+	
+	private static final int PENDING = 0;
+	private static final int SUCCEEDED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+	
+	/**
+	 * Runs listeners on the thread that completes the RequestFuture.
+	 */
+	private static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+	
+	private static final Transform<Response, Response> REQUIRE_SUCCESS = new Transform<Response, Response>() {
+		@Override
+		public Response apply(Response res) throws Exception {
+			if(res.isSuccessful()) {
+				return res;
+			}
+			Exception ex = res.getException();
+			throw ex != null ? ex : new HttpException(res.getStatusCode(), res.getStatusMessage(), res.getBody());
+		}
+	};
+	
+	private final CountDownLatch done;
+	private int state;
+	private T value;
+	private Exception exception;
+	private List<Runnable> listeners;
+	private volatile Runnable onCancel;
+	
+	RequestFuture() {
+		done = new CountDownLatch(1);
+		state = PENDING;
+	}
+	
+	/**
+	 * Executes call on executor.
+	 * @param call the Call to execute.
+	 * @param executor the Executor to execute call on.
+	 * @return a RequestFuture of the Response of call. Cancelling it cancels
+	 * call.
+	 */
+	public static RequestFuture<Response> execute(final Call call, Executor executor) {
+		final RequestFuture<Response> future = new RequestFuture<Response>();
+		future.onCancel = new Runnable() {
+			@Override
+			public void run() {
+				call.cancel();
+			}
+		};
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(future.isDone()) {
+					return;
+				}
+				try {
+					future.set(call.execute());
+				} catch (RuntimeException e) {
+					future.setException(e);
+				}
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Returns a RequestFuture that has already succeeded.
+	 * @param value the result.
+	 * @return a completed RequestFuture.
+	 */
+	public static <T> RequestFuture<T> completed(T value) {
+		RequestFuture<T> future = new RequestFuture<T>();
+		future.set(value);
+		return future;
+	}
+	
+	/**
+	 * Returns a RequestFuture that has already failed.
+	 * @param ex the failure.
+	 * @return a failed RequestFuture.
+	 */
+	public static <T> RequestFuture<T> failed(Exception ex) {
+		RequestFuture<T> future = new RequestFuture<T>();
+		future.setException(ex);
+		return future;
+	}
+	
+	/**
+	 * Returns a Transform for then() that passes on successful Responses and
+	 * fails with the Exception of any other Response.
+	 * @return the Transform.
+	 */
+	public static Transform<Response, Response> requireSuccess() {
+		return REQUIRE_SUCCESS;
+	}
+	
+	/**
+	 * Returns a RequestFuture that succeeds with the results of all futures,
+	 * in order, once all of them succeed, and fails as soon as any of them
+	 * fails. Cancelling it cancels all futures.
+	 * @param futures the RequestFutures to wait for.
+	 * @return a RequestFuture of the list of results.
+	 */
+	public static <T> RequestFuture<List<T>> all(final List<RequestFuture<T>> futures) {
+		final RequestFuture<List<T>> result = new RequestFuture<List<T>>();
+		final Runnable cancelAll = new Runnable() {
+			@Override
+			public void run() {
+				for(RequestFuture<T> future : futures) {
+					future.cancel(true);
+				}
+			}
+		};
+		result.onCancel = cancelAll;
+		if(futures.isEmpty()) {
+			result.set(new ArrayList<T>(0));
+			return result;
+		}
+		final int[] remaining = {futures.size()};
+		for(final RequestFuture<T> future : futures) {
+			future.addListener(new Runnable() {
+				@Override
+				public void run() {
+					Exception ex = future.failure();
+					if(ex != null) {
+						if(result.setException(ex)) {
+							cancelAll.run();
+						}
+						return;
+					}
+					synchronized(remaining) {
+						if(--remaining[0] > 0) {
+							return;
+						}
+					}
+					List<T> values = new ArrayList<T>(futures.size());
+					for(RequestFuture<T> f : futures) {
+						values.add(f.value());
+					}
+					result.set(values);
+				}
+			}, DIRECT);
+		}
+		return result;
+	}
+	
+	/**
+	 * Completes this RequestFuture with value, unless it is already done.
+	 * @return true if this call completed it.
+	 */
+	boolean set(T value) {
+		List<Runnable> toRun;
+		synchronized(this) {
+			if(state != PENDING) {
+				return false;
+			}
+			this.value = value;
+			state = SUCCEEDED;
+			toRun = finish();
+		}
+		runAll(toRun);
+		return true;
+	}
+	
+	/**
+	 * Fails this RequestFuture with ex, unless it is already done.
+	 * @return true if this call completed it.
+	 */
+	boolean setException(Exception ex) {
+		if(ex == null) {
+			throw new NullPointerException("Exception cannot be null.");
+		}
+		List<Runnable> toRun;
+		synchronized(this) {
+			if(state != PENDING) {
+				return false;
+			}
+			exception = ex;
+			state = FAILED;
+			toRun = finish();
+		}
+		runAll(toRun);
+		return true;
+	}
+	
+	/**
+	 * Cancels this RequestFuture and the steps it depends on, including the
+	 * Call of an executing Request.
+	 * @param mayInterruptIfRunning ignored; a running Call is always aborted.
+	 * @return true if this RequestFuture was cancelled, false if it was
+	 * already done.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		List<Runnable> toRun;
+		synchronized(this) {
+			if(state != PENDING) {
+				return false;
+			}
+			state = CANCELLED;
+			toRun = finish();
+		}
+		Runnable cancel = onCancel;
+		if(cancel != null) {
+			cancel.run();
+		}
+		runAll(toRun);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return state != PENDING;
+	}
+
+	/**
+	 * Waits on a CountDownLatch rather than this RequestFuture's monitor so
+	 * that a waiting virtual thread does not pin its carrier thread.
+	 */
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return report();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if(!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return report();
+	}
+	
+	/**
+	 * Runs listener on executor once this RequestFuture is done, or right
+	 * away if it already is.
+	 * @param listener the Runnable to run.
+	 * @param executor the Executor to run listener on.
+	 */
+	public void addListener(Runnable listener, final Executor executor) {
+		if(listener == null || executor == null) {
+			throw new NullPointerException("listener and executor cannot be null.");
+		}
+		final Runnable task = listener;
+		Runnable wrapped = executor == DIRECT ? task : new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(task);
+			}
+		};
+		synchronized(this) {
+			if(state == PENDING) {
+				if(listeners == null) {
+					listeners = new ArrayList<Runnable>(2);
+				}
+				listeners.add(wrapped);
+				return;
+			}
+		}
+		wrapped.run();
+	}
+	
+	/**
+	 * Calls callback with the outcome of this RequestFuture on executor.
+	 * @param callback the FutureCallback.
+	 * @param executor the Executor to call callback on.
+	 * @return this
+	 */
+	public RequestFuture<T> addCallback(final FutureCallback<? super T> callback, Executor executor) {
+		if(callback == null) {
+			throw new NullPointerException("FutureCallback cannot be null.");
+		}
+		addListener(new Runnable() {
+			@Override
+			public void run() {
+				Exception ex = failure();
+				if(ex == null) {
+					callback.onSuccess(value());
+				} else {
+					callback.onFailure(ex);
+				}
+			}
+		}, executor);
+		return this;
+	}
+	
+	/**
+	 * Returns a RequestFuture of transform applied to the result of this one,
+	 * applied on the thread that completes this RequestFuture. If this
+	 * RequestFuture fails, so does the returned one.
+	 * @param transform the Transform.
+	 * @return the derived RequestFuture.
+	 */
+	public <U> RequestFuture<U> then(Transform<? super T, ? extends U> transform) {
+		return then(transform, DIRECT);
+	}
+	
+	/**
+	 * Like then(Transform), except transform is applied on executor.
+	 */
+	public <U> RequestFuture<U> then(final Transform<? super T, ? extends U> transform, Executor executor) {
+		if(transform == null) {
+			throw new NullPointerException("Transform cannot be null.");
+		}
+		final RequestFuture<U> result = derive();
+		addListener(new Runnable() {
+			@Override
+			public void run() {
+				Exception ex = failure();
+				if(ex != null) {
+					result.setException(ex);
+					return;
+				}
+				try {
+					result.set(transform.apply(value()));
+				} catch (Exception e) {
+					result.setException(e);
+				}
+			}
+		}, executor);
+		return result;
+	}
+	
+	/**
+	 * Returns a RequestFuture of the step started by continuation once this
+	 * RequestFuture succeeds, such as executing a Request that depends on the
+	 * result of this one. If this RequestFuture fails, so does the returned
+	 * one. Cancelling the returned RequestFuture cancels the step that is
+	 * running, whichever it is.
+	 * @param continuation the Continuation.
+	 * @return the derived RequestFuture.
+	 */
+	public <U> RequestFuture<U> thenCompose(final Continuation<? super T, U> continuation) {
+		if(continuation == null) {
+			throw new NullPointerException("Continuation cannot be null.");
+		}
+		final RequestFuture<U> result = derive();
+		addListener(new Runnable() {
+			@Override
+			public void run() {
+				Exception ex = failure();
+				if(ex != null) {
+					result.setException(ex);
+					return;
+				}
+				final RequestFuture<U> next;
+				try {
+					next = continuation.apply(value());
+					if(next == null) {
+						throw new NullPointerException(continuation + " returned a null RequestFuture.");
+					}
+				} catch (Exception e) {
+					result.setException(e);
+					return;
+				}
+				result.onCancel = new Runnable() {
+					@Override
+					public void run() {
+						next.cancel(true);
+					}
+				};
+				if(result.isCancelled()) {
+					next.cancel(true);
+					return;
+				}
+				next.addListener(new Runnable() {
+					@Override
+					public void run() {
+						Exception ex = next.failure();
+						if(ex == null) {
+							result.set(next.value());
+						} else {
+							result.setException(ex);
+						}
+					}
+				}, DIRECT);
+			}
+		}, DIRECT);
+		return result;
+	}
+	
+	/**
+	 * Returns a RequestFuture that succeeds with the result of this one, or,
+	 * if this one fails, with the result of transform applied to the failure.
+	 * Cancellation is not recovered from.
+	 * @param transform the Transform applied to the failure.
+	 * @return the derived RequestFuture.
+	 */
+	public RequestFuture<T> catching(final Transform<? super Exception, ? extends T> transform) {
+		if(transform == null) {
+			throw new NullPointerException("Transform cannot be null.");
+		}
+		final RequestFuture<T> result = derive();
+		addListener(new Runnable() {
+			@Override
+			public void run() {
+				Exception ex = failure();
+				if(ex == null) {
+					result.set(value());
+				} else if(isCancelled()) {
+					result.cancel(true);
+				} else {
+					try {
+						result.set(transform.apply(ex));
+					} catch (Exception e) {
+						result.setException(e);
+					}
+				}
+			}
+		}, DIRECT);
+		return result;
+	}
+	
+	/**
+	 * Returns a RequestFuture that fails with a TimeoutException and cancels
+	 * this one if this one is not done within millis milliseconds.
+	 * @param millis the timeout in milliseconds.
+	 * @return the derived RequestFuture.
+	 */
+	public RequestFuture<T> withTimeout(final long millis) {
+		final RequestFuture<T> result = derive();
+		final ScheduledFuture<?> timer = Timer.sExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if(result.setException(new TimeoutException("Timed out after " + millis + "ms"))) {
+					RequestFuture.this.cancel(true);
+				}
+			}
+		}, millis, TimeUnit.MILLISECONDS);
+		addListener(new Runnable() {
+			@Override
+			public void run() {
+				if(timer.cancel(false)) {
+					Timer.purge();
+				}
+				Exception ex = failure();
+				if(ex == null) {
+					result.set(value());
+				} else if(isCancelled()) {
+					result.cancel(true);
+				} else {
+					result.setException(ex);
+				}
+			}
+		}, DIRECT);
+		return result;
+	}
+	
+	/**
+	 * Returns a new RequestFuture whose cancellation cancels this one.
+	 */
+	private <U> RequestFuture<U> derive() {
+		RequestFuture<U> result = new RequestFuture<U>();
+		result.onCancel = new Runnable() {
+			@Override
+			public void run() {
+				cancel(true);
+			}
+		};
+		return result;
+	}
+	
+	/**
+	 * Returns the result of this done RequestFuture.
+	 */
+	private synchronized T value() {
+		return value;
+	}
+	
+	/**
+	 * Returns the failure of this done RequestFuture, or null if it
+	 * succeeded.
+	 */
+	private synchronized Exception failure() {
+		if(state == CANCELLED) {
+			return new CancellationException("RequestFuture was cancelled.");
+		}
+		return exception;
+	}
+	
+	private List<Runnable> finish() {
+		done.countDown();
+		List<Runnable> toRun = listeners;
+		listeners = null;
+		onCancel = state == CANCELLED ? onCancel : null;
+		return toRun;
+	}
+	
+	private static void runAll(List<Runnable> toRun) {
+		if(toRun != null) {
+			for(Runnable r : toRun) {
+				r.run();
+			}
+		}
+	}
+	
+	private synchronized T report() throws ExecutionException {
+		if(state == CANCELLED) {
+			throw new CancellationException("RequestFuture was cancelled.");
+		}
+		if(state == FAILED) {
+			throw new ExecutionException(exception);
+		}
+		return value;
+	}
+	
+	/**
+	 * Holds the thread that fires the timeouts of withTimeout(), created on
+	 * first use. A cancelled timeout holds both futures and their value until
+	 * it leaves the queue, so cancelled timeouts are removed at once rather
+	 * than when their delay runs out.
+	 */
+	private static class Timer {
+		private static final ScheduledThreadPoolExecutor sExecutor = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "RequestFuture-Timer");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		private static final boolean sRemoveOnCancel;
+		
+		static {
+			//setRemoveOnCancelPolicy() is not available before API 21.
+			sRemoveOnCancel = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+			if(sRemoveOnCancel) {
+				sExecutor.setRemoveOnCancelPolicy(true);
+			}
+		}
+		
+		/**
+		 * Removes cancelled timeouts from the queue, if the executor does not
+		 * already do so itself.
+		 */
+		private static void purge() {
+			if(!sRemoveOnCancel) {
+				sExecutor.purge();
+			}
+		}
+	}
+	
+	@Override
+	public synchronized String toString() {
+		switch(state) {
+		case SUCCEEDED:
+			return "RequestFuture[" + value + "]";
+		case FAILED:
+			return "RequestFuture[failed: " + exception + "]";
+		case CANCELLED:
+			return "RequestFuture[cancelled]";
+		default:
+			return "RequestFuture[pending]";
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.ericelsken.android.web.async;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.RequestManager;
+import com.ericelsken.android.web.Response;
+
+/**
+ * A Publisher of the Responses of executing a Request. Every Subscriber gets
+ * its own executions: each item it requests executes the Request once more,
+ * up to a given number of times, waiting a given interval between executions.
+ * Executions happen on an Executor, by default RequestManager.getExecutor(),
+ * and never on the thread calling Subscription.request(). Cancelling the
+ * Subscription cancels the Call in progress.
+ * 
+ * As everywhere else in this library, a failed Request is published as a
+ * Response holding an Exception; Subscriber.onError() is only called if
+ * executing the Request throws, such as from a faulty Interceptor.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class RequestPublisher implements Publisher<Response> {
+	
+	private final Request mRequest;
+	private final long mTimes;
+	private final long mInterval;
+	private final Executor mExecutor;
+	
+	/**
+	 * Create a Publisher of the single Response of executing req.
+	 * @param req the Request.
+	 */
+	public RequestPublisher(Request req) {
+		this(req, 1, 0, null);
+	}
+	
+	/**
+	 * Create a Publisher that executes req up to times times.
+	 * @param req the Request.
+	 * @param times the number of executions, or Long.MAX_VALUE to publish
+	 * until cancelled.
+	 * @param intervalMillis the time waited between executions.
+	 * @param executor the Executor to execute req on, or null for
+	 * RequestManager.getExecutor().
+	 */
+	public RequestPublisher(Request req, long times, long intervalMillis, Executor executor) {
+		if(req == null) {
+			throw new NullPointerException("Request cannot be null.");
+		}
+		if(times < 1 || intervalMillis < 0) {
+			throw new IllegalArgumentException("times must be positive and intervalMillis not negative.");
+		}
+		mRequest = req;
+		mTimes = times;
+		mInterval = intervalMillis;
+		mExecutor = executor;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super Response> subscriber) {
+		if(subscriber == null) {
+			throw new NullPointerException("Subscriber cannot be null.");
+		}
+		Executor executor = mExecutor != null ? mExecutor : RequestManager.getInstance().getExecutor();
+		subscriber.onSubscribe(new RequestSubscription(subscriber, executor));
+	}
+	
+	/**
+	 * Executes the Request as items are requested. A single drain task runs
+	 * at a time, so calls to the Subscriber are never concurrent.
+	 */
+	private class RequestSubscription implements Subscription, Runnable {
+		
+		private final Subscriber<? super Response> subscriber;
+		private final Executor executor;
+		private final AtomicLong demand;
+		private final AtomicInteger wip;
+		private volatile boolean cancelled;
+		private volatile Call call;
+		private volatile Throwable invalid;
+		private long emitted;
+		private boolean done;
+		
+		private RequestSubscription(Subscriber<? super Response> subscriber, Executor executor) {
+			this.subscriber = subscriber;
+			this.executor = executor;
+			this.demand = new AtomicLong();
+			this.wip = new AtomicInteger();
+		}
+
+		@Override
+		public void request(long n) {
+			if(n <= 0) {
+				invalid = new IllegalArgumentException("Requested " + n + " items; must be positive.");
+			} else {
+				long current;
+				do {
+					current = demand.get();
+				} while(!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+			}
+			if(wip.getAndIncrement() == 0) {
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			Call c = call;
+			if(c != null) {
+				c.cancel();
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = wip.addAndGet(-missed);
+			} while(missed != 0);
+		}
+		
+		private void drain() {
+			if(done) {
+				return;
+			}
+			if(invalid != null) {
+				finish(invalid);
+				return;
+			}
+			while(!cancelled && emitted < mTimes && demand.get() > 0) {
+				if(emitted > 0 && mInterval > 0 && !pause()) {
+					return;
+				}
+				Response res;
+				try {
+					Call c = mRequest.newCall();
+					call = c;
+					if(cancelled) {
+						return;
+					}
+					res = c.execute();
+				} catch (RuntimeException e) {
+					finish(e);
+					return;
+				} finally {
+					call = null;
+				}
+				if(cancelled) {
+					return;
+				}
+				emitted++;
+				demand.decrementAndGet();
+				subscriber.onNext(res);
+			}
+			if(!cancelled && emitted == mTimes) {
+				finish(null);
+			}
+		}
+		
+		/**
+		 * Waits the interval between executions, returning false if cancelled
+		 * meanwhile.
+		 */
+		private boolean pause() {
+			try {
+				Thread.sleep(mInterval);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancelled = true;
+			}
+			return !cancelled;
+		}
+		
+		private void finish(Throwable t) {
+			done = true;
+			cancelled = true;
+			if(t == null) {
+				subscriber.onComplete();
+			} else {
+				subscriber.onError(t);
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package com.ericelsken.android.web.async;
+
+/**
+ * Receives the items of a Publisher. Calls to a Subscriber are never
+ * concurrent, but may be made from different threads.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <T> the type of the items.
+ */
+public interface Subscriber<T> {
+	
+	/**
+	 * Called first, with the Subscription used to request items or cancel.
+	 * No items are published until Subscription.request() is called.
+	 * @param subscription the Subscription.
+	 */
+	void onSubscribe(Subscription subscription);
+	
+	/**
+	 * Called with each item, never more often than requested.
+	 * @param item the item.
+	 */
+	void onNext(T item);
+	
+	/**
+	 * Called once if the Publisher failed. No further calls are made.
+	 * @param t the failure.
+	 */
+	void onError(Throwable t);
+	
+	/**
+	 * Called once when the Publisher has published all of its items. No
+	 * further calls are made.
+	 */
+	void onComplete();
+}
@@ -0,0 +1,23 @@
+package com.ericelsken.android.web.async;
+
+/**
+ * The link between a Publisher and one Subscriber. Both methods may be called
+ * from any thread.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface Subscription {
+	
+	/**
+	 * Requests up to n more items.
+	 * @param n the number of items, which must be positive.
+	 */
+	void request(long n);
+	
+	/**
+	 * Stops publishing to the Subscriber. Items in flight may still be
+	 * delivered.
+	 */
+	void cancel();
+}
@@ -0,0 +1,21 @@
+package com.ericelsken.android.web.async;
+
+/**
+ * A function applied to the result of a RequestFuture by
+ * RequestFuture.then() and RequestFuture.catching().
+ * 
+ * @author Eric Elsken
+ *
+ * @param <T> the type of the input.
+ * @param <U> the type of the result.
+ */
+public interface Transform<T, U> {
+	
+	/**
+	 * Transforms input into a result.
+	 * @param input the result of the source RequestFuture.
+	 * @return the result of the derived RequestFuture.
+	 * @throws Exception to fail the derived RequestFuture.
+	 */
+	U apply(T input) throws Exception;
+}
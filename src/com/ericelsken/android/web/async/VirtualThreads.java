@@ -0,0 +1,80 @@
+package com.ericelsken.android.web.async;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates Executors that run each task on its own virtual thread, for
+ * executing thousands of blocking Requests at once on a JVM that supports
+ * them (Java 21 or later), without the size of a thread pool limiting how
+ * many are in flight. Virtual threads are looked up reflectively, so this
+ * class also loads on Android and older JVMs, where newExecutor() falls back
+ * to an unbounded pool of platform threads.
+ * 
+ * To execute every asynchronous Request on a virtual thread:
+ * 
+ * 	RequestManager.getInstance().setExecutor(VirtualThreads.newExecutor());
+ * 
+ * Call and RequestFuture block with java.util.concurrent locks rather than
+ * monitors, so a virtual thread waiting on the network or on a RequestFuture
+ * releases its carrier thread.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public final class VirtualThreads {
+	
+	private static final Method sNewVirtualExecutor;
+	
+	static {
+		Method method = null;
+		try {
+			method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			//Throws on JVMs where virtual threads are a disabled preview feature.
+			((ExecutorService) method.invoke(null)).shutdown();
+		} catch (Exception e) {
+			method = null;
+		}
+		sNewVirtualExecutor = method;
+	}
+	
+	private VirtualThreads() {
+	}
+	
+	/**
+	 * Returns whether or not this JVM supports virtual threads.
+	 * @return true if newExecutor() returns a virtual thread Executor.
+	 */
+	public static boolean isAvailable() {
+		return sNewVirtualExecutor != null;
+	}
+	
+	/**
+	 * Returns a new Executor that starts a virtual thread per task, or, if
+	 * virtual threads are not available, a new unbounded pool of daemon
+	 * platform threads.
+	 * @return the new ExecutorService.
+	 */
+	public static ExecutorService newExecutor() {
+		if(sNewVirtualExecutor != null) {
+			try {
+				return (ExecutorService) sNewVirtualExecutor.invoke(null);
+			} catch (Exception e) {
+				//Checked when this class was loaded; fall back regardless.
+			}
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Request-" + mCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+}
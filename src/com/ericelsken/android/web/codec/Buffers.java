@@ -0,0 +1,109 @@
+package com.ericelsken.android.web.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Scratch buffers for reading text bodies and encoding Request bodies, kept
+ * per thread so that the threads executing Requests reuse them across calls
+ * instead of allocating them for every body.
+ */
+final class Buffers {
+	
+	private static final int CHAR_BUFFER_SIZE = 4 * 1024;
+	
+	/**
+	 * Builders grown beyond this many chars by a large body are dropped
+	 * rather than kept for the life of the thread.
+	 */
+	private static final int MAX_RETAINED_CHARS = 64 * 1024;
+	
+	private static final int BYTE_BUFFER_SIZE = 4 * 1024;
+	
+	/**
+	 * Byte buffers grown beyond this size by a large body are dropped rather
+	 * than kept for the life of the thread.
+	 */
+	private static final int MAX_RETAINED_BYTES = 64 * 1024;
+	
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static final ThreadLocal<Buffers> sBuffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+	
+	private final char[] mChars;
+	private StringBuilder mBuilder;
+	private ByteArrayOutputStream mBytes;
+	
+	private Buffers() {
+		mChars = new char[CHAR_BUFFER_SIZE];
+		mBuilder = new StringBuilder(CHAR_BUFFER_SIZE);
+		mBytes = new ByteArrayOutputStream(BYTE_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Encodes value with codec and returns the encoded bytes.
+	 */
+	static <T> byte[] encode(Codec<T> codec, T value) throws IOException {
+		Buffers buffers = sBuffers.get();
+		ByteArrayOutputStream out = buffers.mBytes;
+		//Taken for the duration of the call in case codec encodes another body.
+		buffers.mBytes = null;
+		if(out == null) {
+			out = new ByteArrayOutputStream(BYTE_BUFFER_SIZE);
+		}
+		try {
+			codec.encode(value, out);
+			return out.toByteArray();
+		} finally {
+			if(out.size() <= MAX_RETAINED_BYTES) {
+				out.reset();
+				buffers.mBytes = out;
+			} else {
+				buffers.mBytes = new ByteArrayOutputStream(BYTE_BUFFER_SIZE);
+			}
+		}
+	}
+	
+	/**
+	 * Reads in as text in the given charset, or UTF-8 if it is null or not
+	 * supported.
+	 */
+	static String readText(InputStream in, String charset) throws IOException {
+		Buffers buffers = sBuffers.get();
+		Reader reader = new InputStreamReader(in, charsetOf(charset));
+		StringBuilder builder = buffers.mBuilder;
+		builder.setLength(0);
+		int read;
+		while((read = reader.read(buffers.mChars, 0, buffers.mChars.length)) != -1) {
+			builder.append(buffers.mChars, 0, read);
+		}
+		String text = builder.toString();
+		if(builder.capacity() > MAX_RETAINED_CHARS) {
+			buffers.mBuilder = new StringBuilder(CHAR_BUFFER_SIZE);
+		} else {
+			builder.setLength(0);
+		}
+		return text;
+	}
+	
+	static Charset charsetOf(String charset) {
+		if(charset == null) {
+			return UTF_8;
+		}
+		try {
+			return Charset.forName(charset);
+		} catch (IllegalArgumentException e) {
+			//Unsupported or illegal name.
+			return UTF_8;
+		}
+	}
+}
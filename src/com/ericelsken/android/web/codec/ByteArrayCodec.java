@@ -0,0 +1,38 @@
+package com.ericelsken.android.web.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A Codec of raw bytes, written and read as they are.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class ByteArrayCodec implements Codec<byte[]> {
+	
+	/**
+	 * The shared instance registered by CodecRegistry.createDefault().
+	 */
+	public static final ByteArrayCodec INSTANCE = new ByteArrayCodec();
+	
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	@Override
+	public void encode(byte[] value, OutputStream out) throws IOException {
+		out.write(value);
+	}
+
+	@Override
+	public byte[] decode(InputStream in, String charset) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while((read = in.read(buffer, 0, buffer.length)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
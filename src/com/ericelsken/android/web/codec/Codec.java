@@ -0,0 +1,39 @@
+package com.ericelsken.android.web.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes values of a type into a body of some content type, and decodes
+ * them back out of one. Codecs are registered with a CodecRegistry, which
+ * hands the same instance to every Request and Response it applies to, so
+ * implementations MUST be safe to call from several threads at once. Anything
+ * costly to create, such as a parser factory or scratch buffers, should be
+ * created once and reused across calls.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <T> the type of value encoded and decoded.
+ */
+public interface Codec<T> {
+	
+	/**
+	 * Writes value to out. This is called on the background thread executing
+	 * the Request each time its body is written.
+	 * @param value the value to encode.
+	 * @param out the stream of the Request body, which MUST NOT be closed.
+	 * @throws IOException if writing fails.
+	 */
+	void encode(T value, OutputStream out) throws IOException;
+	
+	/**
+	 * Reads a value from in, which ends at the end of the body.
+	 * @param in the stream of the Response body, which MUST NOT be closed.
+	 * @param charset the charset parameter of the Content-Type of the body, or
+	 * null if it had none.
+	 * @return the value decoded.
+	 * @throws IOException if reading fails or the body is malformed.
+	 */
+	T decode(InputStream in, String charset) throws IOException;
+}
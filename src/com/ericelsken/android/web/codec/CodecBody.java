@@ -0,0 +1,57 @@
+package com.ericelsken.android.web.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.ericelsken.android.web.RequestBody;
+
+/**
+ * A RequestBody that encodes a value with a Codec the first time its length
+ * or content is needed, so that it is sent with a Content-Length rather than
+ * chunked, which many servers and proxies refuse. The value is encoded into a
+ * per-thread buffer and copied out once, and the encoding is reused each time
+ * the Request is sent.
+ */
+class CodecBody<T> extends RequestBody {
+	
+	private final String contentType;
+	private final Codec<T> codec;
+	private final T value;
+	private volatile byte[] encoded;
+	
+	CodecBody(String contentType, Codec<T> codec, T value) {
+		this.contentType = contentType;
+		this.codec = codec;
+		this.value = value;
+		this.encoded = null;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public long getContentLength() {
+		try {
+			return encoded().length;
+		} catch (IOException e) {
+			//Thrown again by writeTo().
+			return -1;
+		}
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(encoded());
+	}
+	
+	private byte[] encoded() throws IOException {
+		byte[] bytes = encoded;
+		if(bytes == null) {
+			bytes = Buffers.encode(codec, value);
+			encoded = bytes;
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,269 @@
+package com.ericelsken.android.web.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.ericelsken.android.web.RequestBody;
+import com.ericelsken.android.web.Response;
+import com.ericelsken.android.web.async.Transform;
+
+/**
+ * A registry of Codecs keyed by content type and Java type, which encodes
+ * typed Request bodies into reused buffers and decodes typed values straight
+ * out of Response bodies, without a String in between.
+ * 
+ * Content types are matched by their media type, ignoring parameters such as
+ * charset and case. A structured syntax suffix falls back to its base type, so
+ * application/vnd.api+json is handled by the Codec of application/json unless
+ * one is registered for it. Among the Codecs of a content type, the one for
+ * the most specific type applicable wins: the type of the value being
+ * encoded, or the type requested when decoding.
+ * 
+ * RequestManager holds the registry used by Request.Builder.setEncodedBody()
+ * and DecodingResponseLoader, which starts out as createDefault(). Codecs may
+ * be registered at any time and from any thread.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class CodecRegistry {
+	
+	private static final Entry[] NO_ENTRIES = new Entry[0];
+	
+	/**
+	 * Copied on write so that lookups, which happen on every Request, do not
+	 * lock.
+	 */
+	private volatile Entry[] mEntries;
+	
+	/**
+	 * Creates an empty registry.
+	 */
+	public CodecRegistry() {
+		mEntries = NO_ENTRIES;
+	}
+	
+	/**
+	 * Creates a registry of the built-in Codecs: TextCodec for text/plain,
+	 * ByteArrayCodec for application/octet-stream, and JsonCodec for
+	 * application/json.
+	 * @return the new registry.
+	 */
+	public static CodecRegistry createDefault() {
+		CodecRegistry registry = new CodecRegistry();
+		registry.register("text/plain", String.class, TextCodec.INSTANCE);
+		registry.register("application/octet-stream", byte[].class, ByteArrayCodec.INSTANCE);
+		registry.register("application/json", JSONObject.class, JsonCodec.OBJECT);
+		registry.register("application/json", JSONArray.class, JsonCodec.ARRAY);
+		return registry;
+	}
+	
+	/**
+	 * Registers codec for values of type in bodies of contentType, replacing
+	 * any Codec registered for the same content type and type.
+	 * @param contentType the media type of the body, such as
+	 * application/x-protobuf.
+	 * @param type the type of value encoded and decoded.
+	 * @param codec the Codec.
+	 * @throws NullPointerException if any argument is null.
+	 */
+	public <T> void register(String contentType, Class<T> type, Codec<T> codec) {
+		if(contentType == null) {
+			throw new NullPointerException("contentType cannot be null.");
+		}
+		if(type == null) {
+			throw new NullPointerException("type cannot be null.");
+		}
+		if(codec == null) {
+			throw new NullPointerException("Codec cannot be null.");
+		}
+		Entry entry = new Entry(mediaType(contentType), type, codec);
+		synchronized(this) {
+			Entry[] entries = mEntries;
+			for(int i = 0; i < entries.length; i++) {
+				if(entries[i].mediaType.equals(entry.mediaType) && entries[i].type == type) {
+					Entry[] copy = entries.clone();
+					copy[i] = entry;
+					mEntries = copy;
+					return;
+				}
+			}
+			Entry[] copy = new Entry[entries.length + 1];
+			System.arraycopy(entries, 0, copy, 0, entries.length);
+			copy[entries.length] = entry;
+			mEntries = copy;
+		}
+	}
+	
+	/**
+	 * Returns the Codec that decodes values of type from bodies of
+	 * contentType.
+	 * @param contentType the content type of the body.
+	 * @param type the type of value wanted.
+	 * @return the Codec, or null if none is registered.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Codec<? extends T> getDecoder(String contentType, Class<T> type) {
+		Entry entry = find(contentType, type, true);
+		return entry == null ? null : (Codec<? extends T>) entry.codec;
+	}
+	
+	/**
+	 * Returns the Codec that encodes values of type into bodies of
+	 * contentType.
+	 * @param contentType the content type of the body.
+	 * @param type the type of value to encode.
+	 * @return the Codec, or null if none is registered.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Codec<? super T> getEncoder(String contentType, Class<T> type) {
+		Entry entry = find(contentType, type, false);
+		return entry == null ? null : (Codec<? super T>) entry.codec;
+	}
+	
+	/**
+	 * Creates a RequestBody of contentType that encodes value with the Codec
+	 * registered for it the first time the body is sent. value MUST NOT be
+	 * modified afterwards.
+	 * @param contentType the content type of the body.
+	 * @param value the value to encode.
+	 * @return the new RequestBody.
+	 * @throws NullPointerException if value is null.
+	 * @throws IllegalArgumentException if no Codec encodes the type of value
+	 * into contentType.
+	 */
+	@SuppressWarnings("unchecked")
+	public RequestBody newBody(String contentType, Object value) {
+		if(value == null) {
+			throw new NullPointerException("value cannot be null.");
+		}
+		Entry entry = find(contentType, value.getClass(), false);
+		if(entry == null) {
+			throw new IllegalArgumentException("No Codec encodes " + value.getClass().getName()
+					+ " into " + contentType);
+		}
+		return new CodecBody<Object>(contentType, (Codec<Object>) entry.codec, value);
+	}
+	
+	/**
+	 * Decodes a value of type from the body of res with the Codec registered
+	 * for its Content-Type. The body stream of a Response from
+	 * Call.executeStreaming() is read but not closed; otherwise the body bytes
+	 * are read.
+	 * @param res the Response to decode.
+	 * @param type the type of value wanted.
+	 * @return the value decoded.
+	 * @throws IOException if no Codec decodes the Content-Type of res into
+	 * type, or the body cannot be read or decoded.
+	 */
+	public <T> T decode(Response res, Class<T> type) throws IOException {
+		InputStream in = res.getBodyStream();
+		if(in == null) {
+			byte[] bytes = res.getBodyBytes();
+			in = new ByteArrayInputStream(bytes == null ? new byte[0] : bytes);
+		}
+		return decode(res, type, in);
+	}
+	
+	/**
+	 * Decodes a value of type from in, the body of res, with the Codec
+	 * registered for the Content-Type of res.
+	 * @param res the Response whose body is in.
+	 * @param type the type of value wanted.
+	 * @param in the body of res, which is not closed.
+	 * @return the value decoded.
+	 * @throws IOException if no Codec decodes the Content-Type of res into
+	 * type, or the body cannot be read or decoded.
+	 */
+	public <T> T decode(Response res, Class<T> type, InputStream in) throws IOException {
+		String contentType = res.getHeaderField("Content-Type");
+		Entry entry = find(contentType, type, true);
+		if(entry == null) {
+			throw new IOException("No Codec decodes " + contentType + " into " + type.getName());
+		}
+		return type.cast(entry.codec.decode(in, res.getCharset()));
+	}
+	
+	/**
+	 * Returns a Transform that decodes a Response into type, for use with
+	 * RequestFuture.then().
+	 * @param type the type of value wanted.
+	 * @return the Transform.
+	 */
+	public <T> Transform<Response, T> decoder(final Class<T> type) {
+		if(type == null) {
+			throw new NullPointerException("type cannot be null.");
+		}
+		return new Transform<Response, T>() {
+			@Override
+			public T apply(Response res) throws Exception {
+				return decode(res, type);
+			}
+		};
+	}
+	
+	/**
+	 * Finds the Codec of the most specific type applicable: one decoding into
+	 * type or a subtype of it, or one encoding type or a supertype of it. An
+	 * exact match of the media type is preferred over its suffix.
+	 */
+	private Entry find(String contentType, Class<?> type, boolean decoding) {
+		if(contentType == null) {
+			return null;
+		}
+		String mediaType = mediaType(contentType);
+		Entry entry = find(mediaType, type, decoding, mEntries);
+		if(entry == null) {
+			int plus = mediaType.lastIndexOf('+');
+			int slash = mediaType.indexOf('/');
+			if(plus > slash && slash > 0) {
+				entry = find(mediaType.substring(0, slash + 1) + mediaType.substring(plus + 1), type, decoding,
+						mEntries);
+			}
+		}
+		return entry;
+	}
+	
+	private static Entry find(String mediaType, Class<?> type, boolean decoding, Entry[] entries) {
+		Entry best = null;
+		for(Entry entry : entries) {
+			if(!entry.mediaType.equals(mediaType)) {
+				continue;
+			}
+			if(entry.type == type) {
+				return entry;
+			}
+			if(decoding ? type.isAssignableFrom(entry.type) : entry.type.isAssignableFrom(type)) {
+				//Encoding, the narrowest supertype of type; decoding, the widest subtype.
+				if(best == null || (decoding ? entry.type.isAssignableFrom(best.type)
+						: best.type.isAssignableFrom(entry.type))) {
+					best = entry;
+				}
+			}
+		}
+		return best;
+	}
+	
+	private static String mediaType(String contentType) {
+		int semicolon = contentType.indexOf(';');
+		String type = semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+		return type.trim().toLowerCase(Locale.US);
+	}
+	
+	private static class Entry {
+		private final String mediaType;
+		private final Class<?> type;
+		private final Codec<?> codec;
+		
+		private Entry(String mediaType, Class<?> type, Codec<?> codec) {
+			this.mediaType = mediaType;
+			this.type = type;
+			this.codec = codec;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.ericelsken.android.web.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Codecs of the org.json types built into Android. Since org.json parses from
+ * and writes to Strings, the body is read as text into a reused buffer first.
+ * Applications using a streaming JSON parser should register their own Codec
+ * for application/json instead.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <T> JSONObject or JSONArray.
+ */
+public abstract class JsonCodec<T> implements Codec<T> {
+	
+	/**
+	 * The Codec of JSONObjects.
+	 */
+	public static final JsonCodec<JSONObject> OBJECT = new JsonCodec<JSONObject>() {
+		@Override
+		protected JSONObject parse(String json) throws JSONException {
+			return new JSONObject(json);
+		}
+	};
+	
+	/**
+	 * The Codec of JSONArrays.
+	 */
+	public static final JsonCodec<JSONArray> ARRAY = new JsonCodec<JSONArray>() {
+		@Override
+		protected JSONArray parse(String json) throws JSONException {
+			return new JSONArray(json);
+		}
+	};
+	
+	private JsonCodec() {
+		//Only OBJECT and ARRAY.
+	}
+	
+	protected abstract T parse(String json) throws JSONException;
+
+	@Override
+	public void encode(T value, OutputStream out) throws IOException {
+		TextCodec.INSTANCE.encode(value.toString(), out);
+	}
+
+	@Override
+	public T decode(InputStream in, String charset) throws IOException {
+		String json = Buffers.readText(in, charset);
+		try {
+			return parse(json);
+		} catch (JSONException e) {
+			IOException ioe = new IOException("Malformed JSON body.");
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+}
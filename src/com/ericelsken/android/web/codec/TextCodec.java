@@ -0,0 +1,34 @@
+package com.ericelsken.android.web.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * A Codec of Strings, written as UTF-8 and read in the charset of the body.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class TextCodec implements Codec<String> {
+	
+	/**
+	 * The shared instance registered by CodecRegistry.createDefault().
+	 */
+	public static final TextCodec INSTANCE = new TextCodec();
+
+	@Override
+	public void encode(String value, OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, Buffers.UTF_8);
+		writer.write(value);
+		//Flush the encoder without closing the Request body.
+		writer.flush();
+	}
+
+	@Override
+	public String decode(InputStream in, String charset) throws IOException {
+		return Buffers.readText(in, charset);
+	}
+}
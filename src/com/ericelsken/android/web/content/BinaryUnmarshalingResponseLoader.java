@@ -0,0 +1,175 @@
+package com.ericelsken.android.web.content;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import android.content.Context;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+import com.ericelsken.android.web.trace.Tracer;
+
+/**
+ * A ResponseLoader for binary formats, such as protocol buffers, that
+ * unmarshals the body of a Response straight from the network rather than
+ * through a String. The Request is executed with Call.executeStreaming(), and
+ * the body of a 2xx response is given to unmarshal() as an InputStream while
+ * it is being read, so it is never held in memory as a whole.
+ * 
+ * By default unmarshal() reads the body with the MessageReader given to the
+ * constructor, which is the codec of the format. A DelimitedReader reads a
+ * stream of length-delimited messages. Subclasses may instead override
+ * unmarshal().
+ * 
+ * As with UnmarshalingResponseLoader, getData() returns the unmarshaled data
+ * and getUnmarshalingException() returns the Exception thrown from
+ * unmarshal(), if any. The delivered Response has no body stream once the
+ * load finishes; the body of a non 2xx response is read into it as usual.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <E> the type of data that is to be unmarshaled from a Response once
+ * the Response is loaded.
+ */
+public class BinaryUnmarshalingResponseLoader<E> extends ResponseLoader {
+	
+	private final MessageReader<E> mReader;
+	private volatile Call mCall;
+	private E mData;
+	private Exception mUnmarshalingException;
+	
+	/**
+	 * Creates a new Loader that loads a Response from the given Request in
+	 * the given Context and reads its body with reader.
+	 * @param context the Context in which to load.
+	 * @param req the Request to execute.
+	 * @param reader the MessageReader of the body, or null if unmarshal() is
+	 * overridden.
+	 */
+	public BinaryUnmarshalingResponseLoader(Context context, Request req, MessageReader<E> reader) {
+		super(context, req);
+		mReader = reader;
+		mCall = null;
+		mData = null;
+		mUnmarshalingException = null;
+	}
+	
+	/**
+	 * Worker method for executing the Request and unmarshaling its body as
+	 * it is read.
+	 */
+	@Override
+	public Response loadInBackground() {
+		Request req = getRequest();
+		Call call = req.newCall();
+		mCall = call;
+		Response res = call.executeStreaming();
+		mUnmarshalingException = null;
+		long start = System.nanoTime();
+		try {
+			if(!res.hasException()) {
+				InputStream in = res.getBodyStream();
+				if(in == null) {
+					//An Interceptor may have answered with the body in memory.
+					byte[] bytes = res.getBodyBytes();
+					in = new ByteArrayInputStream(bytes == null ? new byte[0] : bytes);
+				} else {
+					in = new BufferedInputStream(in, req.getBufferSize());
+				}
+				mData = unmarshal(res, in);
+			}
+		} catch (Exception ex) {
+			mUnmarshalingException = ex;
+		} finally {
+			res.close();
+			mCall = null;
+		}
+		if(Tracer.isTraced(res)) {
+			Tracer.recordUnmarshal(res, start, mUnmarshalingException != null);
+		}
+		return res;
+	}
+	
+	/**
+	 * Cancels the load, along with the Call of the current load.
+	 * cancelLoadInBackground() is only called from API 16, so the Call is
+	 * also cancelled here for earlier API levels.
+	 */
+	@Override
+	public boolean cancelLoad() {
+		boolean cancelled = super.cancelLoad();
+		cancelCall();
+		return cancelled;
+	}
+	
+	/**
+	 * Cancels the Call of the current load, aborting the read of its body.
+	 */
+	@Override
+	public void cancelLoadInBackground() {
+		cancelCall();
+	}
+	
+	private void cancelCall() {
+		Call call = mCall;
+		if(call != null) {
+			call.cancel();
+		}
+	}
+	
+	/**
+	 * Returns the data that was unmarshaled by the call to unmarshal().
+	 * @return the data that was unmarshaled.
+	 */
+	public final E getData() {
+		return mData;
+	}
+	
+	/**
+	 * Returns whether or not an Exception was thrown by unmarshal().
+	 * @return true if an Exception was thrown by unmarshal(), false otherwise.
+	 */
+	public final boolean hasUnmarshalingException() {
+		return mUnmarshalingException != null;
+	}
+	
+	/**
+	 * Returns the Exception thrown by unmarshal() or null if no Exception was
+	 * thrown.
+	 * @return the Exception thrown by unmarshal() or null if no Exception was
+	 * thrown.
+	 */
+	public final Exception getUnmarshalingException() {
+		return mUnmarshalingException;
+	}
+	
+	/**
+	 * Nullifies mData and mUnmarshalingException.
+	 */
+	@Override
+	protected void onReset() {
+		super.onReset();
+		mData = null;
+		mUnmarshalingException = null;
+	}
+	
+	/**
+	 * Called when the body of the Response needs to be unmarshaled. By
+	 * default this reads it with the MessageReader of this Loader.
+	 * Response.hasException() is guaranteed to return false in this callback.
+	 * IMPORTANT: This method is called on the background thread used by the
+	 * superclass.
+	 * @param res the Response that was loaded that needs to be unmarshaled.
+	 * @param in the body of res, which is closed once this method returns.
+	 * @return the unmarshaled data.
+	 * @throws Exception if an Exception occurs while unmarshaling the body.
+	 */
+	protected E unmarshal(Response res, InputStream in) throws Exception {
+		if(mReader == null) {
+			throw new IllegalStateException("No MessageReader was given and unmarshal() is not overridden.");
+		}
+		return mReader.read(in);
+	}
+}
@@ -0,0 +1,65 @@
+package com.ericelsken.android.web.content;
+
+import java.io.InputStream;
+
+import android.content.Context;
+
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.RequestManager;
+import com.ericelsken.android.web.Response;
+import com.ericelsken.android.web.codec.CodecRegistry;
+
+/**
+ * A BinaryUnmarshalingResponseLoader that decodes the body of a Response into
+ * a given type with the Codec registered for its Content-Type, reading it
+ * straight from the network. No subclass is needed for types that have a
+ * registered Codec.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <E> the type of data decoded from the Response.
+ */
+public class DecodingResponseLoader<E> extends BinaryUnmarshalingResponseLoader<E> {
+	
+	private final Class<E> mType;
+	private final CodecRegistry mRegistry;
+	
+	/**
+	 * Creates a new Loader that decodes the Response of req into type with
+	 * the CodecRegistry of RequestManager.
+	 * @param context the Context in which to load.
+	 * @param req the Request to execute.
+	 * @param type the type of data decoded.
+	 */
+	public DecodingResponseLoader(Context context, Request req, Class<E> type) {
+		this(context, req, type, RequestManager.getInstance().getCodecRegistry());
+	}
+	
+	/**
+	 * Creates a new Loader that decodes the Response of req into type with
+	 * the given CodecRegistry.
+	 * @param context the Context in which to load.
+	 * @param req the Request to execute.
+	 * @param type the type of data decoded.
+	 * @param registry the CodecRegistry of the Codecs to decode with.
+	 */
+	public DecodingResponseLoader(Context context, Request req, Class<E> type, CodecRegistry registry) {
+		super(context, req, null);
+		if(type == null) {
+			throw new NullPointerException("type cannot be null.");
+		}
+		if(registry == null) {
+			throw new NullPointerException("CodecRegistry cannot be null.");
+		}
+		mType = type;
+		mRegistry = registry;
+	}
+	
+	/**
+	 * Decodes the body with the Codec of its Content-Type.
+	 */
+	@Override
+	protected E unmarshal(Response res, InputStream in) throws Exception {
+		return mRegistry.decode(res, mType, in);
+	}
+}
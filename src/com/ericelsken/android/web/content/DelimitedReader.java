@@ -0,0 +1,227 @@
+package com.ericelsken.android.web.content;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A MessageReader of a stream of length-delimited messages, each preceded by
+ * its length in bytes, as written by the writeDelimitedTo() method of
+ * protocol buffers. Each message is read by another MessageReader from a
+ * stream that ends at the end of the message, so messages are parsed as they
+ * arrive without the whole body being held in memory.
+ * 
+ * The length is either a base 128 varint, as protocol buffers use, or a 4
+ * byte big-endian integer.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <E> the type of the messages read.
+ */
+public class DelimitedReader<E> implements MessageReader<List<E>> {
+	
+	/**
+	 * Each message is preceded by its length as a base 128 varint.
+	 */
+	public static final int PREFIX_VARINT = 0;
+	
+	/**
+	 * Each message is preceded by its length as a 4 byte big-endian integer.
+	 */
+	public static final int PREFIX_FIXED32 = 1;
+	
+	/**
+	 * The default largest length of a message that is read.
+	 */
+	public static final int DEFAULT_MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+	
+	private final MessageReader<E> mReader;
+	private final int mPrefix;
+	private final int mMaxMessageSize;
+	
+	/**
+	 * Creates a new reader of varint delimited messages.
+	 * @param reader the MessageReader of each message.
+	 */
+	public DelimitedReader(MessageReader<E> reader) {
+		this(reader, PREFIX_VARINT, DEFAULT_MAX_MESSAGE_SIZE);
+	}
+	
+	/**
+	 * Creates a new reader of length-delimited messages.
+	 * @param reader the MessageReader of each message.
+	 * @param prefix PREFIX_VARINT or PREFIX_FIXED32.
+	 * @param maxMessageSize the largest length of a message, beyond which an
+	 * IOException is thrown rather than the message read.
+	 */
+	public DelimitedReader(MessageReader<E> reader, int prefix, int maxMessageSize) {
+		if(reader == null) {
+			throw new NullPointerException("MessageReader cannot be null.");
+		}
+		if(prefix != PREFIX_VARINT && prefix != PREFIX_FIXED32) {
+			throw new IllegalArgumentException("Unknown prefix: " + prefix);
+		}
+		if(maxMessageSize <= 0) {
+			throw new IllegalArgumentException("maxMessageSize must be positive.");
+		}
+		mReader = reader;
+		mPrefix = prefix;
+		mMaxMessageSize = maxMessageSize;
+	}
+	
+	/**
+	 * Reads every message until the end of in.
+	 */
+	@Override
+	public List<E> read(InputStream in) throws IOException {
+		List<E> messages = new ArrayList<E>();
+		E message;
+		while((message = readNext(in)) != null) {
+			messages.add(message);
+		}
+		return messages;
+	}
+	
+	/**
+	 * Reads the next message from in, for callers that handle each message
+	 * as it arrives.
+	 * @param in the stream of messages.
+	 * @return the next message, or null at the end of in.
+	 * @throws IOException if in ends within a message, or a message is too
+	 * large or malformed.
+	 */
+	public E readNext(InputStream in) throws IOException {
+		int length = mPrefix == PREFIX_VARINT ? readVarint(in) : readFixed32(in);
+		if(length == -1) {
+			return null;
+		}
+		if(length < 0 || length > mMaxMessageSize) {
+			throw new IOException("Message length out of range: " + length);
+		}
+		MessageStream message = new MessageStream(in, length);
+		E e = mReader.read(message);
+		if(e == null) {
+			throw new IOException(mReader + " returned a null message.");
+		}
+		//Skip whatever the MessageReader left unread of the message.
+		message.skipRemaining();
+		return e;
+	}
+	
+	/**
+	 * Reads a varint, returning -1 if in ends before its first byte.
+	 */
+	private static int readVarint(InputStream in) throws IOException {
+		int b = in.read();
+		if(b == -1) {
+			return -1;
+		}
+		int value = b & 0x7f;
+		int shift = 7;
+		while((b & 0x80) != 0) {
+			if(shift > 28) {
+				throw new IOException("Malformed varint length.");
+			}
+			b = in.read();
+			if(b == -1) {
+				throw new EOFException("Stream ended within a length.");
+			}
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		return value;
+	}
+	
+	/**
+	 * Reads a big-endian int, returning -1 if in ends before its first byte.
+	 */
+	private static int readFixed32(InputStream in) throws IOException {
+		int b = in.read();
+		if(b == -1) {
+			return -1;
+		}
+		int value = b;
+		for(int i = 0; i < 3; i++) {
+			b = in.read();
+			if(b == -1) {
+				throw new EOFException("Stream ended within a length.");
+			}
+			value = (value << 8) | b;
+		}
+		return value;
+	}
+	
+	/**
+	 * A view of the stream of messages that ends at the end of one message.
+	 * Closing it does not close the underlying stream.
+	 */
+	private static class MessageStream extends FilterInputStream {
+		
+		private int remaining;
+		
+		private MessageStream(InputStream in, int length) {
+			super(in);
+			this.remaining = length;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if(remaining == 0) {
+				return -1;
+			}
+			int b = in.read();
+			if(b == -1) {
+				throw new EOFException("Stream ended within a message.");
+			}
+			remaining--;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int off, int len) throws IOException {
+			if(remaining == 0) {
+				return -1;
+			}
+			int read = in.read(buffer, off, Math.min(len, remaining));
+			if(read == -1) {
+				throw new EOFException("Stream ended within a message.");
+			}
+			remaining -= read;
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return Math.min(in.available(), remaining);
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+		
+		@Override
+		public void close() {
+			//The underlying stream holds the messages that follow.
+		}
+		
+		private void skipRemaining() throws IOException {
+			while(remaining > 0) {
+				if(read() == -1) {
+					return;
+				}
+				skip(remaining);
+			}
+		}
+	}
+}
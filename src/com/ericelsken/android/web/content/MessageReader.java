@@ -0,0 +1,26 @@
+package com.ericelsken.android.web.content;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a message of a binary format, such as a protocol buffer, from a
+ * stream. Implementations are the codecs plugged into a
+ * BinaryUnmarshalingResponseLoader, and may be shared between Loaders as long
+ * as they hold no state of their own.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <E> the type of message read.
+ */
+public interface MessageReader<E> {
+	
+	/**
+	 * Reads one message from in. Implementations should not close in.
+	 * @param in the stream positioned at the start of the message, which ends
+	 * at the end of the message.
+	 * @return the message read.
+	 * @throws IOException if the message cannot be read or is malformed.
+	 */
+	E read(InputStream in) throws IOException;
+}
@@ -0,0 +1,105 @@
+package com.ericelsken.android.web.content;
+
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+
+/**
+ * The combined result of a MultiResponseLoader: the Response of every Request
+ * it executed, including follow-up Requests, each with its own status and
+ * Exception. Parts are indexed in the order they were submitted: the
+ * Requests given to the loader first, then follow-ups in the order they were
+ * created.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class MultiResponse {
+	
+	private final Request[] mRequests;
+	private final Response[] mResponses;
+	private final int[] mParents;
+	
+	MultiResponse(Request[] requests, Response[] responses, int[] parents) {
+		mRequests = requests;
+		mResponses = responses;
+		mParents = parents;
+	}
+	
+	/**
+	 * Returns the number of parts, i.e. Requests submitted.
+	 * @return the number of parts.
+	 */
+	public int size() {
+		return mRequests.length;
+	}
+	
+	/**
+	 * Returns the Request of part index.
+	 * @param index the index of the part.
+	 * @return the Request.
+	 */
+	public Request getRequest(int index) {
+		return mRequests[index];
+	}
+	
+	/**
+	 * Returns the Response of part index.
+	 * @param index the index of the part.
+	 * @return the Response, or null if the load was cancelled before the part
+	 * was executed.
+	 */
+	public Response getResponse(int index) {
+		return mResponses[index];
+	}
+	
+	/**
+	 * Returns the index of the part whose Response the Request of part index
+	 * followed up on.
+	 * @param index the index of the part.
+	 * @return the index of the parent part, or -1 if the Request was given to
+	 * the loader.
+	 */
+	public int getParent(int index) {
+		return mParents[index];
+	}
+	
+	/**
+	 * Returns whether or not the Response of every part is successful.
+	 * @return true if every part succeeded, false otherwise.
+	 */
+	public boolean isSuccessful() {
+		for(Response res : mResponses) {
+			if(res == null || !res.isSuccessful()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the number of parts whose Response is missing or not
+	 * successful.
+	 * @return the number of failed parts.
+	 */
+	public int getFailureCount() {
+		int count = 0;
+		for(Response res : mResponses) {
+			if(res == null || !res.isSuccessful()) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Releases the bodies of all Responses.
+	 * @see Response#releaseBody()
+	 */
+	public void releaseBodies() {
+		for(Response res : mResponses) {
+			if(res != null) {
+				res.releaseBody();
+			}
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package com.ericelsken.android.web.content;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.RequestManager;
+import com.ericelsken.android.web.Response;
+
+/**
+ * An implementation of AsyncTaskLoader that executes several Requests in
+ * parallel and delivers their Responses together as a MultiResponse. Screens
+ * that need data from several endpoints load it in the time of the slowest
+ * Request rather than the sum of all of them.
+ * 
+ * At most maxParallel Requests execute at once, on RequestManager.getExecutor(),
+ * while loadInBackground() waits for all of them. A FollowUps implementation
+ * may submit further Requests that depend on a Response as soon as it
+ * arrives; they execute in parallel with the Requests still in flight and are
+ * part of the same MultiResponse.
+ * 
+ * Every load executes all Requests again. Cancelling the load cancels the
+ * Calls in flight.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class MultiResponseLoader extends AsyncTaskLoader<MultiResponse> {
+	
+	/**
+	 * The default maximum number of Requests executing at once.
+	 */
+	public static final int DEFAULT_MAX_PARALLEL = 4;
+	
+	/**
+	 * Creates Requests that depend on the Response of another Request.
+	 */
+	public interface FollowUps {
+		/**
+		 * Called on a background thread with each Response as it arrives,
+		 * including the Responses of follow-ups.
+		 * @param index the index of the part in the MultiResponse.
+		 * @param res the Response of the part.
+		 * @return the Requests to execute next, or null for none. A
+		 * RuntimeException thrown from here is set on res.
+		 */
+		List<Request> onResponse(int index, Response res);
+	}
+	
+	private final List<Request> mRequests;
+	private final FollowUps mFollowUps;
+	private final int mMaxParallel;
+	private volatile Run mRun;
+	private MultiResponse mRes;
+	
+	/**
+	 * Creates a new Loader that executes reqs in parallel.
+	 * @param context the Context in which to load.
+	 * @param reqs the Requests to execute.
+	 */
+	public MultiResponseLoader(Context context, List<Request> reqs) {
+		this(context, reqs, null, DEFAULT_MAX_PARALLEL);
+	}
+	
+	/**
+	 * Creates a new Loader that executes reqs and their follow-ups in
+	 * parallel.
+	 * @param context the Context in which to load.
+	 * @param reqs the Requests to execute.
+	 * @param followUps creates dependent Requests, or null.
+	 * @param maxParallel the maximum number of Requests executing at once.
+	 */
+	public MultiResponseLoader(Context context, List<Request> reqs, FollowUps followUps, int maxParallel) {
+		super(context);
+		if(reqs == null) {
+			throw new NullPointerException("Requests cannot be null.");
+		}
+		if(maxParallel < 1) {
+			throw new IllegalArgumentException("maxParallel must be positive.");
+		}
+		mRequests = new ArrayList<Request>(reqs);
+		mFollowUps = followUps;
+		mMaxParallel = maxParallel;
+	}
+	
+	protected MultiResponse getMultiResponse() {
+		return mRes;
+	}
+	
+	/**
+	 * Worker method that executes all Requests and waits for them.
+	 */
+	@Override
+	public MultiResponse loadInBackground() {
+		Run run = new Run(RequestManager.getInstance().getExecutor());
+		mRun = run;
+		try {
+			for(Request req : mRequests) {
+				run.submit(req, -1);
+			}
+			return run.await();
+		} finally {
+			mRun = null;
+		}
+	}
+	
+	/**
+	 * Cancels the load, along with the Calls in flight.
+	 * cancelLoadInBackground() is only called from API 16, so the Calls are
+	 * also cancelled here for earlier API levels.
+	 */
+	@Override
+	public boolean cancelLoad() {
+		boolean cancelled = super.cancelLoad();
+		cancelCalls();
+		return cancelled;
+	}
+	
+	/**
+	 * Cancels the Calls in flight when the load is cancelled.
+	 */
+	@Override
+	public void cancelLoadInBackground() {
+		cancelCalls();
+	}
+	
+	private void cancelCalls() {
+		Run run = mRun;
+		if(run != null) {
+			run.cancel();
+		}
+	}
+	
+	/**
+	 * Called with data that was successfully loaded.
+	 */
+	@Override
+	public void deliverResult(MultiResponse data) {
+		if(isReset()) {
+			if(data != null) {
+				onReleaseResources(data);
+			}
+		}
+		MultiResponse oldData = mRes;
+		mRes = data;
+		if(isStarted()) {
+			super.deliverResult(data);
+		}
+		if(oldData != null && oldData != data) {
+			onReleaseResources(oldData);
+		}
+	}
+	
+	@Override
+	protected void onStartLoading() {
+		if(mRes != null) {
+			deliverResult(mRes);
+		}
+		if(takeContentChanged() || mRes == null) {
+			forceLoad();
+		}
+	}
+	
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+	
+	@Override
+	public void onCanceled(MultiResponse data) {
+		super.onCanceled(data);
+		if(data != null) {
+			onReleaseResources(data);
+		}
+	}
+	
+	@Override
+	protected void onReset() {
+		super.onReset();
+		onStopLoading();
+		if(mRes != null) {
+			onReleaseResources(mRes);
+		}
+		mRes = null;
+	}
+	
+	protected void onReleaseResources(MultiResponse res) {
+		//Do nothing. Leave here for future development.
+	}
+	
+	/**
+	 * The state of a single load. Up to mMaxParallel workers on the executor
+	 * take parts from the queue until it is empty.
+	 */
+	private class Run implements Runnable {
+		
+		private final Executor executor;
+		private final List<Request> requests;
+		private final List<Response> responses;
+		private final List<Integer> parents;
+		private final List<Call> calls;
+		private final ArrayDeque<Integer> queue;
+		private int outstanding;
+		private int workers;
+		private boolean cancelled;
+		
+		private Run(Executor executor) {
+			this.executor = executor;
+			this.requests = new ArrayList<Request>();
+			this.responses = new ArrayList<Response>();
+			this.parents = new ArrayList<Integer>();
+			this.calls = new ArrayList<Call>();
+			this.queue = new ArrayDeque<Integer>();
+		}
+		
+		private void submit(Request req, int parent) {
+			if(req == null) {
+				throw new NullPointerException("Request cannot be null.");
+			}
+			boolean startWorker;
+			synchronized(this) {
+				if(cancelled) {
+					return;
+				}
+				int index = requests.size();
+				requests.add(req);
+				responses.add(null);
+				parents.add(parent);
+				calls.add(req.newCall());
+				queue.add(index);
+				outstanding++;
+				startWorker = workers < mMaxParallel;
+				if(startWorker) {
+					workers++;
+				}
+			}
+			if(startWorker) {
+				executor.execute(this);
+			}
+		}
+		
+		@Override
+		public void run() {
+			boolean drained = false;
+			try {
+				while(true) {
+					int index;
+					Call call;
+					synchronized(this) {
+						Integer next = cancelled ? null : queue.poll();
+						if(next == null) {
+							//Under the lock of poll(), so that submit() starts a new worker.
+							workers--;
+							drained = true;
+							return;
+						}
+						index = next;
+						call = calls.get(index);
+					}
+					execute(index, call);
+				}
+			} finally {
+				if(!drained) {
+					synchronized(this) {
+						workers--;
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Executes the Call at index and its follow-ups, recording a
+		 * RuntimeException thrown by either as the Exception of its Response.
+		 */
+		private void execute(int index, Call call) {
+			Response res = null;
+			try {
+				res = call.execute();
+				synchronized(this) {
+					responses.set(index, res);
+				}
+				if(mFollowUps != null && !call.isCanceled()) {
+					List<Request> next = mFollowUps.onResponse(index, res);
+					if(next != null) {
+						for(Request req : next) {
+							submit(req, index);
+						}
+					}
+				}
+			} catch (RuntimeException e) {
+				if(res == null) {
+					res = new Response(-1, null, null, null, e);
+					synchronized(this) {
+						responses.set(index, res);
+					}
+				} else {
+					res.setException(e);
+				}
+			} finally {
+				synchronized(this) {
+					if(--outstanding == 0) {
+						notifyAll();
+					}
+				}
+			}
+		}
+		
+		private synchronized MultiResponse await() {
+			while(outstanding > 0 && !cancelled) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					cancel();
+					Thread.currentThread().interrupt();
+				}
+			}
+			int size = requests.size();
+			int[] parentArray = new int[size];
+			for(int i = 0; i < size; i++) {
+				parentArray[i] = parents.get(i);
+			}
+			return new MultiResponse(requests.toArray(new Request[size]),
+					responses.toArray(new Response[size]), parentArray);
+		}
+		
+		private void cancel() {
+			List<Call> toCancel;
+			synchronized(this) {
+				cancelled = true;
+				queue.clear();
+				toCancel = new ArrayList<Call>(calls);
+				notifyAll();
+			}
+			for(Call call : toCancel) {
+				call.cancel();
+			}
+		}
+	}
+}
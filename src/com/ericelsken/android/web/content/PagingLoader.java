@@ -0,0 +1,453 @@
+package com.ericelsken.android.web.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+
+/**
+ * An UnmarshalingResponseLoader for paged endpoints, such as those backing an
+ * infinite-scroll list. Each load fetches one page: the Request given to the
+ * constructor fetches the first page, and newPageRequest() creates the
+ * Request of every other page from the key of that page, which is either a
+ * cursor or an offset returned by getNextPageKey() for the page before it.
+ * 
+ * Loaded pages are kept by this Loader and their items are available by
+ * position through getItem() and getItemCount(). The list should call
+ * onItemVisible() from the main-UI thread as items are bound, which fetches
+ * the next page once the list is within getPrefetchDistance() items of the
+ * end, and keeps the pages that are held in memory within a budget. Once the
+ * budget is exceeded, the pages farthest from the visible position are
+ * evicted: their items are dropped, their Response bodies released, and
+ * getItem() returns null for them until onItemVisible() loads them again.
+ * 
+ * onLoadFinished() is called with the Response of each page as it is loaded.
+ * All methods of this class other than the abstract ones MUST be called on the
+ * main-UI thread.
+ * 
+ * @author Eric Elsken
+ *
+ * @param <E> the type of the items of a page.
+ */
+public abstract class PagingLoader<E> extends UnmarshalingResponseLoader<List<E>> {
+	
+	/**
+	 * The default number of items from the end of the list at which the next
+	 * page is fetched.
+	 */
+	public static final int DEFAULT_PREFETCH_DISTANCE = 10;
+	
+	private final List<Page<E>> mPages;
+	private final long mMemoryBudget;
+	private int mPrefetchDistance;
+	private int mLastVisible;
+	private boolean mEnd;
+	
+	/**
+	 * The page being loaded, or null if none is. Read by the background
+	 * thread when a load starts.
+	 */
+	private volatile PageRequest mRequested;
+	private PageRequest mLoading;
+	private volatile LoadedPage<E> mLoaded;
+	
+	/**
+	 * Creates a new Loader of the pages of a paged endpoint.
+	 * @param context the Context in which to load.
+	 * @param firstPage the Request of the first page.
+	 * @param memoryBudget the combined size of the pages held in memory, as
+	 * measured by sizeOf(), beyond which pages are evicted.
+	 */
+	public PagingLoader(Context context, Request firstPage, long memoryBudget) {
+		super(context, firstPage);
+		if(memoryBudget <= 0) {
+			throw new IllegalArgumentException("memoryBudget must be positive.");
+		}
+		mPages = new ArrayList<Page<E>>();
+		mMemoryBudget = memoryBudget;
+		mPrefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+		mLastVisible = 0;
+		mEnd = false;
+	}
+	
+	/**
+	 * Returns the Request of the page with the given key. This is called on
+	 * the background thread.
+	 * @param firstPage the Request of the first page.
+	 * @param key the key of the page, as returned by getNextPageKey().
+	 * @return the Request of the page.
+	 */
+	protected abstract Request newPageRequest(Request firstPage, String key);
+	
+	/**
+	 * Returns the key of the page after the one in res, typically a cursor
+	 * from the body or headers of res, or the offset of the next item. This is
+	 * called on the background thread after unmarshal().
+	 * @param res the Response of a page.
+	 * @param items the items unmarshaled from res.
+	 * @return the key of the next page, or null if res holds the last page.
+	 */
+	protected abstract String getNextPageKey(Response res, List<E> items);
+	
+	/**
+	 * Returns the memory held by a page, in the unit of the memory budget.
+	 * By default this is the size in bytes of the body of res as a String.
+	 * This is called on the background thread.
+	 * @param res the Response of the page.
+	 * @param items the items unmarshaled from res.
+	 * @return the size of the page.
+	 */
+	protected long sizeOf(Response res, List<E> items) {
+		String body = res.getBody();
+		return body == null ? items.size() : 2L * body.length();
+	}
+	
+	/**
+	 * Returns the Request of the page being loaded.
+	 */
+	@Override
+	protected Request getRequest() {
+		PageRequest req = mLoading;
+		if(req == null || req.key == null) {
+			return super.getRequest();
+		}
+		return newPageRequest(super.getRequest(), req.key);
+	}
+	
+	/**
+	 * Loads the requested page and unmarshals its items.
+	 */
+	@Override
+	public Response loadInBackground() {
+		PageRequest req = mRequested;
+		mLoading = req;
+		try {
+			Response res = super.loadInBackground();
+			if(req == null) {
+				return res;
+			}
+			if(!res.hasException() && !hasUnmarshalingException()) {
+				List<E> items = getData();
+				if(items == null) {
+					items = new ArrayList<E>(0);
+				}
+				mLoaded = new LoadedPage<E>(req, items, getNextPageKey(res, items), sizeOf(res, items), res);
+			} else {
+				//Let onItemVisible() try the page again.
+				mLoaded = new LoadedPage<E>(req, null, null, 0, res);
+			}
+			return res;
+		} finally {
+			mLoading = null;
+		}
+	}
+	
+	/**
+	 * Adds the loaded page before delivering its Response.
+	 */
+	@Override
+	public void deliverResult(Response data) {
+		LoadedPage<E> loaded = mLoaded;
+		mLoaded = null;
+		if(loaded != null && loaded.request == mRequested) {
+			mRequested = null;
+			if(loaded.items != null) {
+				addPage(loaded);
+			}
+		}
+		super.deliverResult(data);
+	}
+	
+	@Override
+	public void onCanceled(Response data) {
+		mLoaded = null;
+		super.onCanceled(data);
+	}
+	
+	/**
+	 * Loads the first page if none is loaded.
+	 */
+	@Override
+	protected void onStartLoading() {
+		if(takeContentChanged()) {
+			clearPages();
+		}
+		if(getResponse() != null) {
+			deliverResult(getResponse());
+		}
+		if(mPages.isEmpty()) {
+			loadNextPage();
+		}
+	}
+	
+	@Override
+	protected void onStopLoading() {
+		super.onStopLoading();
+		mRequested = null;
+	}
+	
+	@Override
+	protected void onReset() {
+		super.onReset();
+		clearPages();
+	}
+	
+	/**
+	 * Drops all pages and loads the first page again.
+	 */
+	public void refresh() {
+		clearPages();
+		loadNextPage();
+	}
+	
+	/**
+	 * Fetches the next page, unless a page is already loading or the last
+	 * page was loaded.
+	 * @return true if a load was started, false otherwise.
+	 */
+	public boolean loadNextPage() {
+		if(mRequested != null || mEnd) {
+			return false;
+		}
+		String key = mPages.isEmpty() ? null : mPages.get(mPages.size() - 1).nextKey;
+		return startLoad(new PageRequest(key, -1));
+	}
+	
+	/**
+	 * Records that the item at position is visible, fetching the next page
+	 * if position is near the end of the loaded items, or reloading the page
+	 * of position if it was evicted.
+	 * @param position the position of the visible item.
+	 */
+	public void onItemVisible(int position) {
+		mLastVisible = position;
+		int index = pageOf(position);
+		if(index >= 0 && mPages.get(index).items == null) {
+			if(mRequested == null) {
+				startLoad(new PageRequest(mPages.get(index).key, index));
+			}
+		} else if(position >= getItemCount() - mPrefetchDistance) {
+			loadNextPage();
+		}
+	}
+	
+	/**
+	 * Returns the number of items in all pages loaded so far, including
+	 * evicted pages.
+	 * @return the number of items.
+	 */
+	public int getItemCount() {
+		int count = 0;
+		for(Page<E> page : mPages) {
+			count += page.itemCount;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the item at position.
+	 * @param position the position of the item.
+	 * @return the item, or null if its page was evicted.
+	 * @throws IndexOutOfBoundsException if position is not less than
+	 * getItemCount().
+	 */
+	public E getItem(int position) {
+		int index = pageOf(position);
+		if(index < 0) {
+			throw new IndexOutOfBoundsException("position: " + position + ", count: " + getItemCount());
+		}
+		Page<E> page = mPages.get(index);
+		return page.items == null ? null : page.items.get(position - page.start);
+	}
+	
+	/**
+	 * Returns whether or not the last page has been loaded.
+	 * @return true if getNextPageKey() returned null for a loaded page.
+	 */
+	public boolean isEndReached() {
+		return mEnd;
+	}
+	
+	/**
+	 * Returns whether or not a page is being loaded.
+	 * @return true if a page is being loaded.
+	 */
+	public boolean isLoadingPage() {
+		return mRequested != null;
+	}
+	
+	/**
+	 * Returns the number of items from the end of the loaded items at which
+	 * onItemVisible() fetches the next page.
+	 * @return the prefetch distance.
+	 */
+	public int getPrefetchDistance() {
+		return mPrefetchDistance;
+	}
+	
+	/**
+	 * Sets the number of items from the end of the loaded items at which
+	 * onItemVisible() fetches the next page.
+	 * @param distance the prefetch distance.
+	 */
+	public void setPrefetchDistance(int distance) {
+		if(distance < 0) {
+			throw new IllegalArgumentException("distance cannot be negative.");
+		}
+		mPrefetchDistance = distance;
+	}
+	
+	private boolean startLoad(PageRequest req) {
+		mRequested = req;
+		forceLoad();
+		return true;
+	}
+	
+	private void addPage(LoadedPage<E> loaded) {
+		int index = loaded.request.index;
+		if(index >= 0 && index < mPages.size()) {
+			Page<E> page = mPages.get(index);
+			page.items = loaded.items;
+			page.res = loaded.res;
+			page.size = loaded.size;
+			//The page may have changed size since it was first loaded.
+			page.itemCount = loaded.items.size();
+			reindex();
+		} else {
+			Page<E> page = new Page<E>(loaded.request.key, loaded.nextKey, getItemCount());
+			page.items = loaded.items;
+			page.res = loaded.res;
+			page.size = loaded.size;
+			page.itemCount = loaded.items.size();
+			mPages.add(page);
+			mEnd = loaded.nextKey == null;
+		}
+		evict();
+	}
+	
+	/**
+	 * Evicts the pages farthest from the last visible position until the
+	 * pages held fit the memory budget. The page of the last visible position
+	 * is never evicted.
+	 */
+	private void evict() {
+		long total = 0;
+		for(Page<E> page : mPages) {
+			if(page.items != null) {
+				total += page.size;
+			}
+		}
+		int visible = Math.max(0, pageOf(Math.min(mLastVisible, getItemCount() - 1)));
+		while(total > mMemoryBudget) {
+			int farthest = -1;
+			for(int i = 0; i < mPages.size(); i++) {
+				if(i != visible && mPages.get(i).items != null
+						&& (farthest == -1 || Math.abs(i - visible) > Math.abs(farthest - visible))) {
+					farthest = i;
+				}
+			}
+			if(farthest == -1) {
+				return;
+			}
+			Page<E> page = mPages.get(farthest);
+			total -= page.size;
+			page.items = null;
+			if(page.res != null) {
+				page.res.releaseBody();
+				page.res = null;
+			}
+		}
+	}
+	
+	private void clearPages() {
+		for(Page<E> page : mPages) {
+			if(page.res != null) {
+				page.res.releaseBody();
+			}
+		}
+		mPages.clear();
+		mRequested = null;
+		mEnd = false;
+		mLastVisible = 0;
+	}
+	
+	private void reindex() {
+		int start = 0;
+		for(Page<E> page : mPages) {
+			page.start = start;
+			start += page.itemCount;
+		}
+	}
+	
+	/**
+	 * Returns the index of the page holding position, or -1.
+	 */
+	private int pageOf(int position) {
+		if(position < 0) {
+			return -1;
+		}
+		for(int i = 0; i < mPages.size(); i++) {
+			Page<E> page = mPages.get(i);
+			if(position < page.start + page.itemCount) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * A page requested from the background thread: the key of the page, and
+	 * the index of the evicted page it reloads or -1 for the next page.
+	 */
+	private static class PageRequest {
+		private final String key;
+		private final int index;
+		
+		private PageRequest(String key, int index) {
+			this.key = key;
+			this.index = index;
+		}
+	}
+	
+	/**
+	 * A page loaded on the background thread, waiting to be added. Its items
+	 * are null if it failed to load.
+	 */
+	private static class LoadedPage<E> {
+		private final PageRequest request;
+		private final List<E> items;
+		private final String nextKey;
+		private final long size;
+		private final Response res;
+		
+		private LoadedPage(PageRequest request, List<E> items, String nextKey, long size, Response res) {
+			this.request = request;
+			this.items = items;
+			this.nextKey = nextKey;
+			this.size = size;
+			this.res = res;
+		}
+	}
+	
+	/**
+	 * A page held by this Loader, whose items are null once evicted.
+	 */
+	private static class Page<E> {
+		private final String key;
+		private final String nextKey;
+		private int start;
+		private int itemCount;
+		private List<E> items;
+		private Response res;
+		private long size;
+		
+		private Page(String key, String nextKey, int start) {
+			this.key = key;
+			this.nextKey = nextKey;
+			this.start = start;
+		}
+	}
+}
@@ -10,6 +10,9 @@ import com.ericelsken.android.web.Response;
  * An implementation of AsyncTaskLoader that loads a Response by executing
  * a given Request. 
  * 
+ * Every load executes the Request again, so calling onContentChanged() or
+ * forceLoad() on this Loader reloads a fresh Response from the remote server.
+ * 
  * @author Eric Elsken
  *
  */
@@ -42,13 +45,24 @@ public class ResponseLoader extends AsyncTaskLoader<Response> {
 	protected Response getResponse() {
 		return mRes;
 	}
+	
+	/**
+	 * Returns the Request executed by the next load. Subclasses may override
+	 * this to execute a different Request on each load. This is called on the
+	 * background thread.
+	 * @return the Request to execute.
+	 */
+	protected Request getRequest() {
+		return mReq;
+	}
 
 	/**
 	 * Worker method for executing the Request.
+	 * A new Call is made for every load.
 	 */
 	@Override
 	public Response loadInBackground() {
-		Response res = mReq.execute();
+		Response res = getRequest().execute();
 		return res;
 	}
 
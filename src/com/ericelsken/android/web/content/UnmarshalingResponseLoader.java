@@ -4,6 +4,7 @@ import android.content.Context;
 
 import com.ericelsken.android.web.Request;
 import com.ericelsken.android.web.Response;
+import com.ericelsken.android.web.trace.Tracer;
 
 /**
  * A utility class that allows for some processing to automatically take place
@@ -55,15 +56,21 @@ public abstract class UnmarshalingResponseLoader<E> extends ResponseLoader {
 	 */
 	@Override
 	public Response loadInBackground() {
-		super.loadInBackground();
+		//Unmarshal the freshly loaded Response, not the previously delivered one.
+		Response res = super.loadInBackground();
+		mUnmarshalingException = null;
+		long start = System.nanoTime();
 		try {
-			if(!getResponse().hasException()) {
-				mData = unmarshal(getResponse());
+			if(!res.hasException()) {
+				mData = unmarshal(res);
 			}
 		} catch (Exception ex) {
 			mUnmarshalingException = ex;
 		}
-		return getResponse();
+		if(Tracer.isTraced(res)) {
+			Tracer.recordUnmarshal(res, start, mUnmarshalingException != null);
+		}
+		return res;
 	}
 	
 	/**
@@ -0,0 +1,72 @@
+package com.ericelsken.android.web.digest;
+
+/**
+ * The text encodings of digests and signatures in headers.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public enum DigestEncoding {
+	
+	/**
+	 * Lower case hexadecimal.
+	 */
+	HEX {
+		@Override
+		public String encode(byte[] bytes) {
+			char[] chars = new char[bytes.length * 2];
+			for(int i = 0; i < bytes.length; i++) {
+				chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+				chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+			}
+			return new String(chars);
+		}
+		
+		@Override
+		boolean matches(String expected, String actual) {
+			return expected.equalsIgnoreCase(actual);
+		}
+	},
+	
+	/**
+	 * Standard Base64 with padding.
+	 */
+	BASE64 {
+		@Override
+		public String encode(byte[] bytes) {
+			StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+			for(int i = 0; i < bytes.length; i += 3) {
+				int b = (bytes[i] & 0xff) << 16;
+				if(i + 1 < bytes.length) {
+					b |= (bytes[i + 1] & 0xff) << 8;
+				}
+				if(i + 2 < bytes.length) {
+					b |= bytes[i + 2] & 0xff;
+				}
+				sb.append(BASE64_DIGITS[(b >> 18) & 0x3f]);
+				sb.append(BASE64_DIGITS[(b >> 12) & 0x3f]);
+				sb.append(i + 1 < bytes.length ? BASE64_DIGITS[(b >> 6) & 0x3f] : '=');
+				sb.append(i + 2 < bytes.length ? BASE64_DIGITS[b & 0x3f] : '=');
+			}
+			return sb.toString();
+		}
+		
+		@Override
+		boolean matches(String expected, String actual) {
+			return expected.equals(actual);
+		}
+	};
+	
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final char[] BASE64_DIGITS =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	
+	/**
+	 * Encodes bytes as text.
+	 * @param bytes the bytes to encode.
+	 * @return the encoded text.
+	 */
+	public abstract String encode(byte[] bytes);
+	
+	abstract boolean matches(String expected, String actual);
+}
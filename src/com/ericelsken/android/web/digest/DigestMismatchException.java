@@ -0,0 +1,48 @@
+package com.ericelsken.android.web.digest;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the digest of a Response body does not match the digest its
+ * headers declared, i.e. the body was corrupted or tampered with.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class DigestMismatchException extends IOException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final String mExpected;
+	private final String mActual;
+	
+	/**
+	 * Create a new instance for the given digests.
+	 * @param algorithm the digest algorithm, such as SHA-256.
+	 * @param expected the encoded digest declared by the response headers, or
+	 * null if they declared none.
+	 * @param actual the encoded digest of the body as it was read.
+	 */
+	public DigestMismatchException(String algorithm, String expected, String actual) {
+		super(expected == null ? "Missing " + algorithm + " digest, body was " + actual
+				: algorithm + " digest mismatch: expected " + expected + " but was " + actual);
+		mExpected = expected;
+		mActual = actual;
+	}
+	
+	/**
+	 * Returns the encoded digest declared by the response headers.
+	 * @return the expected digest, or null if none was declared.
+	 */
+	public String getExpected() {
+		return mExpected;
+	}
+	
+	/**
+	 * Returns the encoded digest of the body as it was read.
+	 * @return the actual digest.
+	 */
+	public String getActual() {
+		return mActual;
+	}
+}
@@ -0,0 +1,105 @@
+package com.ericelsken.android.web.digest;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.ericelsken.android.web.BodyObserver;
+import com.ericelsken.android.web.Headers;
+import com.ericelsken.android.web.Request;
+
+/**
+ * A BodyObserver.Factory that verifies the body of a 2xx response against the
+ * digest declared by one of its headers, computing the digest as the body is
+ * read. A body that does not match fails the Request with a
+ * DigestMismatchException.
+ * 
+ * The header value is the encoded digest, optionally preceded by the name of
+ * the algorithm and an equals sign, as in the Digest header of RFC 3230
+ * (Digest: SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=). A response
+ * without the header is not verified unless the header is required.
+ * 
+ *     new Request.Builder(uri)
+ *         .setResponseBodyObserver(new DigestVerifier("Digest", "SHA-256", DigestEncoding.BASE64, true))
+ *         .create();
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class DigestVerifier implements BodyObserver.Factory {
+	
+	private final String mHeader;
+	private final String mAlgorithm;
+	private final DigestEncoding mEncoding;
+	private final boolean mRequired;
+	
+	/**
+	 * Creates a new verifier.
+	 * @param header the name of the header declaring the digest.
+	 * @param algorithm the MessageDigest algorithm, such as SHA-256.
+	 * @param encoding the encoding of the digest in the header.
+	 * @param required whether a response without the header fails.
+	 * @throws IllegalArgumentException if the algorithm is not available.
+	 */
+	public DigestVerifier(String header, String algorithm, DigestEncoding encoding, boolean required) {
+		if(header == null) {
+			throw new NullPointerException("header cannot be null.");
+		}
+		if(encoding == null) {
+			throw new NullPointerException("DigestEncoding cannot be null.");
+		}
+		newDigest(algorithm);
+		mHeader = header;
+		mAlgorithm = algorithm;
+		mEncoding = encoding;
+		mRequired = required;
+	}
+	
+	@Override
+	public BodyObserver newObserver(Request req, Headers headers) {
+		String value = headers.get(mHeader);
+		if(value == null) {
+			return mRequired ? new Verification(null) : null;
+		}
+		value = value.trim();
+		if(value.regionMatches(true, 0, mAlgorithm + "=", 0, mAlgorithm.length() + 1)) {
+			value = value.substring(mAlgorithm.length() + 1);
+		}
+		return new Verification(value);
+	}
+	
+	private MessageDigest newDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unavailable digest algorithm: " + algorithm, e);
+		}
+	}
+	
+	/**
+	 * The digest of one body and the value it must match.
+	 */
+	private class Verification implements BodyObserver {
+		
+		private final String expected;
+		private final MessageDigest digest;
+		
+		private Verification(String expected) {
+			this.expected = expected;
+			this.digest = newDigest(mAlgorithm);
+		}
+		
+		@Override
+		public void update(byte[] buffer, int offset, int count) {
+			digest.update(buffer, offset, count);
+		}
+		
+		@Override
+		public void end() throws IOException {
+			String actual = mEncoding.encode(digest.digest());
+			if(expected == null || !mEncoding.matches(expected, actual)) {
+				throw new DigestMismatchException(mAlgorithm, expected, actual);
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.ericelsken.android.web.digest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.ericelsken.android.web.Interceptor;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.RequestBody;
+import com.ericelsken.android.web.Response;
+
+/**
+ * An Interceptor that signs the body of each Request with an HMAC and sends
+ * the signature in a header. Since the header is sent before the body, the
+ * body is passed through the Mac before the Request proceeds, by writing it
+ * straight into the Mac rather than into a copy. Bodies of byte arrays and
+ * Strings are therefore read from memory twice but never copied, and file
+ * bodies are read from disk twice. One-shot bodies, such as those created
+ * from an InputStream, can only be written once and thus CANNOT be signed:
+ * rather than buffering them, the Request fails with an
+ * IllegalStateException before anything is sent, so create signed bodies from
+ * byte arrays, Strings, or files.
+ * 
+ * Subclasses may override update() to sign more than the body, such as the
+ * method, path, or a timestamp header.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class HmacSigner implements Interceptor {
+	
+	private final SecretKeySpec mKey;
+	private final String mHeader;
+	private final DigestEncoding mEncoding;
+	
+	/**
+	 * Creates a new signer.
+	 * @param key the secret key.
+	 * @param algorithm the Mac algorithm, such as HmacSHA256.
+	 * @param header the name of the header in which to send the signature.
+	 * @param encoding the encoding of the signature in the header.
+	 * @throws IllegalArgumentException if the algorithm is not available or
+	 * the key is not valid for it.
+	 */
+	public HmacSigner(byte[] key, String algorithm, String header, DigestEncoding encoding) {
+		if(header == null) {
+			throw new NullPointerException("header cannot be null.");
+		}
+		if(encoding == null) {
+			throw new NullPointerException("DigestEncoding cannot be null.");
+		}
+		mKey = new SecretKeySpec(key, algorithm);
+		mHeader = header;
+		mEncoding = encoding;
+		newMac();
+	}
+	
+	@Override
+	public Response intercept(Chain chain) {
+		Request req = chain.request();
+		Mac mac = newMac();
+		try {
+			update(mac, req);
+		} catch (IOException e) {
+			return new Response(-1, null, null, null, e);
+		} catch (IllegalStateException e) {
+			return new Response(-1, null, null, null, e);
+		}
+		String signature = mEncoding.encode(mac.doFinal());
+		return chain.proceed(req.newBuilder(req.getUri()).setHeader(mHeader, signature).create());
+	}
+	
+	/**
+	 * Passes what is signed of req through mac. By default this is the body
+	 * of req, if it has one.
+	 * @param mac the Mac computing the signature.
+	 * @param req the Request to sign.
+	 * @throws IOException if the body cannot be read.
+	 * @throws IllegalStateException if the body is one-shot.
+	 */
+	protected void update(final Mac mac, Request req) throws IOException {
+		RequestBody body = req.getBody();
+		if(body == null) {
+			return;
+		}
+		if(body.isOneShot()) {
+			throw new IllegalStateException("Cannot sign a one-shot RequestBody; create it from a byte array, String, or file.");
+		}
+		body.writeTo(new OutputStream() {
+			@Override
+			public void write(int b) {
+				mac.update((byte) b);
+			}
+			
+			@Override
+			public void write(byte[] buffer, int offset, int count) {
+				mac.update(buffer, offset, count);
+			}
+		});
+	}
+	
+	/**
+	 * Mac instances are not thread-safe, so each Request gets its own.
+	 */
+	private Mac newMac() {
+		try {
+			Mac mac = Mac.getInstance(mKey.getAlgorithm());
+			mac.init(mKey);
+			return mac;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalArgumentException("Cannot create " + mKey.getAlgorithm() + " Mac.", e);
+		}
+	}
+}
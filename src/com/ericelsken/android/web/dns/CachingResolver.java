@@ -0,0 +1,280 @@
+package com.ericelsken.android.web.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import com.ericelsken.android.web.RequestManager;
+
+/**
+ * A Resolver that caches the addresses of each host for a fixed time to live,
+ * and failed lookups for a shorter one, in front of another Resolver.
+ * Concurrent lookups of the same host wait for a single lookup rather than
+ * each querying the network.
+ * 
+ * warm() resolves a list of known hosts in the background, typically when the
+ * application starts, so that the first Requests to them do not wait on DNS.
+ * Only Transports that open their own sockets through a Resolver benefit:
+ * HttpURLConnectionTransport resolves through the platform, whose cache
+ * only keeps addresses for a few seconds, so warming does nothing for it.
+ * 
+ * The time to live is set by this class since the platform does not expose
+ * the TTL of DNS records. All methods are thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class CachingResolver implements Resolver {
+	
+	/**
+	 * The default time to live of resolved addresses.
+	 */
+	public static final long DEFAULT_TTL = 60 * 1000;
+	
+	/**
+	 * The default time to live of failed lookups.
+	 */
+	public static final long DEFAULT_NEGATIVE_TTL = 5 * 1000;
+	
+	/**
+	 * The default number of hosts cached.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+	
+	private final Resolver mUpstream;
+	private final ConcurrentMap<String, Entry> mEntries;
+	private volatile long mTtl;
+	private volatile long mNegativeTtl;
+	private volatile int mMaxEntries;
+	
+	/**
+	 * Creates a new cache in front of Resolver.SYSTEM.
+	 */
+	public CachingResolver() {
+		this(Resolver.SYSTEM);
+	}
+	
+	/**
+	 * Creates a new cache in front of upstream.
+	 * @param upstream the Resolver of hosts that are not cached.
+	 */
+	public CachingResolver(Resolver upstream) {
+		if(upstream == null) {
+			throw new NullPointerException("Resolver cannot be null.");
+		}
+		mUpstream = upstream;
+		mEntries = new ConcurrentHashMap<String, Entry>();
+		mTtl = DEFAULT_TTL;
+		mNegativeTtl = DEFAULT_NEGATIVE_TTL;
+		mMaxEntries = DEFAULT_MAX_ENTRIES;
+	}
+	
+	/**
+	 * Returns the cached addresses of host, resolving them with the upstream
+	 * Resolver if they are not cached or have expired.
+	 */
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		if(host == null) {
+			throw new UnknownHostException("host cannot be null.");
+		}
+		String key = host.toLowerCase(Locale.US);
+		while(true) {
+			Entry entry = mEntries.get(key);
+			if(entry != null) {
+				entry.await(host);
+				if(System.nanoTime() - entry.expiresAt < 0) {
+					return entry.result(host);
+				}
+				mEntries.remove(key, entry);
+				continue;
+			}
+			entry = new Entry();
+			if(mEntries.putIfAbsent(key, entry) != null) {
+				continue;
+			}
+			trim();
+			lookup(host, entry);
+			return entry.result(host);
+		}
+	}
+	
+	private void lookup(String host, Entry entry) {
+		try {
+			InetAddress[] addresses = mUpstream.resolve(host);
+			if(addresses == null || addresses.length == 0) {
+				throw new UnknownHostException(host);
+			}
+			entry.addresses = addresses;
+			entry.expiresAt = System.nanoTime() + mTtl * 1000000L;
+		} catch (UnknownHostException e) {
+			entry.failure = e.getMessage() == null ? host : e.getMessage();
+			entry.expiresAt = System.nanoTime() + mNegativeTtl * 1000000L;
+		} catch (RuntimeException e) {
+			//Do not cache the failures of a broken upstream Resolver.
+			entry.failure = String.valueOf(e);
+			entry.expiresAt = System.nanoTime();
+		} finally {
+			entry.done.countDown();
+		}
+	}
+	
+	/**
+	 * Removes expired entries, then arbitrary ones, once there are more than
+	 * getMaxEntries().
+	 */
+	private void trim() {
+		if(mEntries.size() <= mMaxEntries) {
+			return;
+		}
+		long now = System.nanoTime();
+		Iterator<Entry> it = mEntries.values().iterator();
+		while(it.hasNext()) {
+			Entry entry = it.next();
+			if(entry.done.getCount() == 0 && now - entry.expiresAt >= 0) {
+				it.remove();
+			}
+		}
+		it = mEntries.values().iterator();
+		while(mEntries.size() > mMaxEntries && it.hasNext()) {
+			if(it.next().done.getCount() == 0) {
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Resolves hosts in the background on RequestManager.getExecutor(),
+	 * caching their addresses. Failures are cached like any other lookup.
+	 * @param hosts the hosts to resolve.
+	 */
+	public void warm(String... hosts) {
+		warm(RequestManager.getInstance().getExecutor(), hosts);
+	}
+	
+	/**
+	 * Resolves hosts in the background on executor, caching their addresses.
+	 * @param executor the Executor on which to resolve each host.
+	 * @param hosts the hosts to resolve.
+	 */
+	public void warm(Executor executor, String... hosts) {
+		for(final String host : hosts) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						resolve(host);
+					} catch (UnknownHostException ignored) {
+						//Cached as a failed lookup.
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Removes host from the cache, such as after connecting to all of its
+	 * addresses failed.
+	 * @param host the host to remove.
+	 */
+	public void invalidate(String host) {
+		mEntries.remove(host.toLowerCase(Locale.US));
+	}
+	
+	/**
+	 * Removes every host from the cache, such as when the network changes.
+	 */
+	public void clear() {
+		mEntries.clear();
+	}
+	
+	/**
+	 * Returns the time to live of resolved addresses.
+	 * @return the time to live in milliseconds.
+	 */
+	public long getTtl() {
+		return mTtl;
+	}
+	
+	/**
+	 * Sets the time to live of addresses resolved after this call returns.
+	 * @param ttl the time to live in milliseconds.
+	 */
+	public void setTtl(long ttl) {
+		if(ttl < 0) {
+			throw new IllegalArgumentException("ttl cannot be negative.");
+		}
+		mTtl = ttl;
+	}
+	
+	/**
+	 * Returns the time to live of failed lookups.
+	 * @return the time to live in milliseconds, or 0 if failures are not cached.
+	 */
+	public long getNegativeTtl() {
+		return mNegativeTtl;
+	}
+	
+	/**
+	 * Sets the time to live of failed lookups made after this call returns.
+	 * @param ttl the time to live in milliseconds, or 0 to not cache failures.
+	 */
+	public void setNegativeTtl(long ttl) {
+		if(ttl < 0) {
+			throw new IllegalArgumentException("ttl cannot be negative.");
+		}
+		mNegativeTtl = ttl;
+	}
+	
+	/**
+	 * Returns the number of hosts the cache holds before evicting entries,
+	 * expired ones first.
+	 * @return the maximum number of hosts cached.
+	 */
+	public int getMaxEntries() {
+		return mMaxEntries;
+	}
+	
+	/**
+	 * Sets the number of hosts the cache holds before evicting entries,
+	 * expired ones first.
+	 * @param maxEntries the maximum number of hosts cached.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		if(maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive.");
+		}
+		mMaxEntries = maxEntries;
+	}
+	
+	/**
+	 * A lookup of a host, which other threads wait on until it is done.
+	 */
+	private static class Entry {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile InetAddress[] addresses;
+		private volatile String failure;
+		private volatile long expiresAt;
+		
+		private void await(String host) throws UnknownHostException {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new UnknownHostException("Interrupted while resolving " + host);
+			}
+		}
+		
+		private InetAddress[] result(String host) throws UnknownHostException {
+			if(addresses == null) {
+				throw new UnknownHostException(failure);
+			}
+			return addresses.clone();
+		}
+	}
+}
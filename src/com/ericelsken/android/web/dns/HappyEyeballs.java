@@ -0,0 +1,212 @@
+package com.ericelsken.android.web.dns;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ericelsken.android.web.RequestManager;
+
+/**
+ * Connects to the first reachable address of a host by racing connection
+ * attempts, as described by RFC 8305 (Happy Eyeballs). The addresses are
+ * interleaved by family, IPv6 and IPv4 in turn, starting with the family of
+ * the first address. The next attempt is started as soon as the previous one
+ * fails or after the attempt delay, whichever is first, and the first
+ * attempt to connect wins; the others are closed. A broken IPv6 route then
+ * costs the attempt delay rather than a whole connect timeout.
+ * 
+ * This is for Transports that open their own sockets, together with the
+ * Resolver of RequestManager.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public final class HappyEyeballs {
+	
+	/**
+	 * The default delay before the next attempt is started, as recommended by
+	 * RFC 8305.
+	 */
+	public static final int DEFAULT_ATTEMPT_DELAY = 250;
+	
+	private HappyEyeballs() {
+		//No instances.
+	}
+	
+	/**
+	 * Connects to port on the first reachable address of host, resolved with
+	 * the Resolver of RequestManager, racing attempts on threads of their own.
+	 * Attempts do not run on RequestManager.getExecutor(), whose bounded pool
+	 * may have no thread free for the next attempt, particularly when this is
+	 * called from one of its threads.
+	 * @param host the host to connect to.
+	 * @param port the port to connect to.
+	 * @param timeout the time in milliseconds to wait for any attempt to
+	 * connect, or 0 to wait indefinitely.
+	 * @return the connected Socket.
+	 * @throws IOException if host cannot be resolved, no address can be
+	 * connected to, or the timeout elapses.
+	 */
+	public static Socket connect(String host, int port, int timeout) throws IOException {
+		RequestManager manager = RequestManager.getInstance();
+		return connect(manager.getResolver().resolve(host), port, timeout, DEFAULT_ATTEMPT_DELAY,
+				Attempts.sExecutor);
+	}
+	
+	/**
+	 * Connects to port on the first reachable of addresses.
+	 * @param addresses the addresses of the host, in order of preference.
+	 * @param port the port to connect to.
+	 * @param timeout the time in milliseconds to wait for any attempt to
+	 * connect, or 0 to wait indefinitely.
+	 * @param attemptDelay the time in milliseconds after which the next
+	 * attempt is started while the previous one is still connecting.
+	 * @param executor the Executor on which attempts are made. It MUST be
+	 * able to run an attempt while the previous ones are running.
+	 * @return the connected Socket.
+	 * @throws IOException if no address can be connected to, the timeout
+	 * elapses, or the calling thread is interrupted.
+	 */
+	public static Socket connect(InetAddress[] addresses, int port, int timeout, int attemptDelay,
+			Executor executor) throws IOException {
+		if(addresses.length == 0) {
+			throw new IllegalArgumentException("addresses cannot be empty.");
+		}
+		InetAddress[] order = interleave(addresses);
+		BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+		List<Socket> attempts = new ArrayList<Socket>(order.length);
+		long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+		int started = 0;
+		int finished = 0;
+		try {
+			attempts.add(start(order[started++], port, timeout, results, executor));
+			while(true) {
+				long wait = started < order.length ? attemptDelay : Long.MAX_VALUE;
+				if(deadline != 0) {
+					long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if(left <= 0) {
+						throw new SocketTimeoutException("Connect timed out after " + timeout + "ms");
+					}
+					wait = Math.min(wait, left);
+				}
+				Object result = results.poll(wait, TimeUnit.MILLISECONDS);
+				if(result == null) {
+					//The attempt delay elapsed, or the deadline which is checked above.
+					if(started < order.length) {
+						attempts.add(start(order[started++], port, timeout, results, executor));
+					}
+					continue;
+				}
+				finished++;
+				if(result instanceof Socket) {
+					Socket winner = (Socket) result;
+					attempts.remove(winner);
+					return winner;
+				}
+				if(finished == order.length) {
+					throw (IOException) result;
+				}
+				if(started < order.length) {
+					attempts.add(start(order[started++], port, timeout, results, executor));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while connecting.");
+		} finally {
+			//Abort the attempts still connecting and close those that lost.
+			for(Socket socket : attempts) {
+				closeQuietly(socket);
+			}
+		}
+	}
+	
+	/**
+	 * Holds the unbounded pool on which connect(String, int, int) races
+	 * attempts, created on first use. Its threads are only kept alive for a
+	 * short while since they are needed in bursts.
+	 */
+	private static class Attempts {
+		private static final Executor sExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "HappyEyeballs-" + mCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+	
+	private static Socket start(final InetAddress address, final int port, final int timeout,
+			final BlockingQueue<Object> results, Executor executor) {
+		final Socket socket = new Socket();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					socket.connect(new InetSocketAddress(address, port), timeout);
+					results.add(socket);
+				} catch (IOException e) {
+					closeQuietly(socket);
+					results.add(e);
+				}
+			}
+		});
+		return socket;
+	}
+	
+	/**
+	 * Returns addresses reordered so that families alternate, starting with
+	 * the family of the first address, keeping the order within each family.
+	 * @param addresses the addresses to reorder.
+	 * @return the reordered addresses.
+	 */
+	public static InetAddress[] interleave(InetAddress[] addresses) {
+		List<InetAddress> first = new ArrayList<InetAddress>();
+		List<InetAddress> second = new ArrayList<InetAddress>();
+		boolean firstIsV6 = addresses[0] instanceof Inet6Address;
+		for(InetAddress address : addresses) {
+			if((address instanceof Inet6Address) == firstIsV6) {
+				first.add(address);
+			} else {
+				second.add(address);
+			}
+		}
+		InetAddress[] order = new InetAddress[addresses.length];
+		int i = 0;
+		for(int j = 0; j < Math.max(first.size(), second.size()); j++) {
+			if(j < first.size()) {
+				order[i++] = first.get(j);
+			}
+			if(j < second.size()) {
+				order[i++] = second.get(j);
+			}
+		}
+		return order;
+	}
+	
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+			//Nothing more can be done.
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.ericelsken.android.web.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names to the addresses a Transport connects to. The Resolver
+ * of RequestManager is used by Transports that open their own sockets, which
+ * should connect with HappyEyeballs.connect(). HttpURLConnectionTransport
+ * cannot use it, since HttpURLConnection always resolves through the
+ * platform.
+ * 
+ * Implementations are shared by every Request, possibly from many background
+ * threads at once, and therefore MUST be thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface Resolver {
+	
+	/**
+	 * The Resolver of the platform, InetAddress.getAllByName().
+	 */
+	Resolver SYSTEM = new Resolver() {
+		@Override
+		public InetAddress[] resolve(String host) throws UnknownHostException {
+			return InetAddress.getAllByName(host);
+		}
+	};
+	
+	/**
+	 * Returns the addresses of host, in the order they should be tried. This
+	 * may block on the network and thus CANNOT be called on the main-UI
+	 * thread.
+	 * @param host the host name or address literal to resolve.
+	 * @return the addresses of host, of which there is at least one.
+	 * @throws UnknownHostException if host has no addresses.
+	 */
+	InetAddress[] resolve(String host) throws UnknownHostException;
+}
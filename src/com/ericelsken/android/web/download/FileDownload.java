@@ -0,0 +1,590 @@
+package com.ericelsken.android.web.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+
+/**
+ * Downloads the body of a GET Request to a file, resuming where it left off
+ * after a failure, a cancellation, or even a process restart.
+ * 
+ * While downloading, the body is written to a partial file next to the target
+ * file (target name + ".part") and the progress is recorded in a metadata file
+ * (target name + ".meta"). Calling execute() again, on this or a new instance
+ * for the same target, resumes the download with a Range request. The ETag
+ * (or, failing that, the Last-Modified date) of the first response is sent in
+ * an If-Range header, so if the resource has changed in the meantime the
+ * server sends it whole and the download starts over instead of splicing two
+ * versions together. Once complete, the partial file is renamed to the target
+ * file and the metadata file is deleted.
+ * 
+ * With setSegments(), a large file whose server supports ranges is split into
+ * that many segments which are downloaded in parallel, each on its own
+ * connection, and each resumed independently.
+ * 
+ * execute() makes networking calls and thus CANNOT be called on the main-UI
+ * thread.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class FileDownload {
+	
+	/**
+	 * The smallest segment a download is split into by setSegments().
+	 */
+	public static final long MIN_SEGMENT_SIZE = 1 << 20;
+	
+	/**
+	 * The number of bytes written by a segment between saves of the progress
+	 * to the metadata file.
+	 */
+	private static final long CHECKPOINT_BYTES = 256 * 1024;
+	
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+	
+	private final Request mReq;
+	private final File mTarget;
+	private final File mPart;
+	private final File mMeta;
+	private final List<Call> mCalls;
+	private int mSegmentCount;
+	private volatile boolean mCanceled;
+	
+	private String mValidator;
+	private volatile long mTotal;
+	private volatile List<Segment> mSegments;
+	private boolean mMetaInvalidated;
+	
+	/**
+	 * Create a new download of the body of req to target.
+	 * @param req the GET Request of the file to download.
+	 * @param target the file to download to.
+	 * @throws NullPointerException if req or target is null.
+	 */
+	public FileDownload(Request req, File target) {
+		if(req == null) {
+			throw new NullPointerException("Request cannot be null.");
+		}
+		if(target == null) {
+			throw new NullPointerException("target cannot be null.");
+		}
+		mReq = req;
+		mTarget = target;
+		mPart = new File(target.getPath() + ".part");
+		mMeta = new File(target.getPath() + ".meta");
+		mCalls = new ArrayList<Call>();
+		mSegmentCount = 1;
+		mCanceled = false;
+		mValidator = null;
+		mTotal = -1;
+		mSegments = null;
+		mMetaInvalidated = false;
+	}
+	
+	/**
+	 * Sets the number of segments to download in parallel when a new download
+	 * begins. This has no effect on a download being resumed, or if the server
+	 * does not support ranges or does not report the length of the file.
+	 * Segments are never smaller than MIN_SEGMENT_SIZE.
+	 * @param segments the number of segments.
+	 * @throws IllegalArgumentException if segments is less than 1.
+	 */
+	public void setSegments(int segments) {
+		if(segments < 1) {
+			throw new IllegalArgumentException("segments cannot be less than 1.");
+		}
+		mSegmentCount = segments;
+	}
+	
+	/**
+	 * Returns the file being downloaded to.
+	 * @return the target file.
+	 */
+	public File getTarget() {
+		return mTarget;
+	}
+	
+	/**
+	 * Returns the number of bytes of the file received so far, including those
+	 * received before the download was resumed. This may be called from any
+	 * thread.
+	 * @return the number of bytes received.
+	 */
+	public long getBytesReceived() {
+		List<Segment> segments = mSegments;
+		if(segments == null) {
+			return 0;
+		}
+		long received = 0;
+		for(Segment seg : segments) {
+			received += seg.offset - seg.start;
+		}
+		return received;
+	}
+	
+	/**
+	 * Returns the length of the file. This may be called from any thread.
+	 * @return the length of the file, or -1 if it is not yet known.
+	 */
+	public long getTotalBytes() {
+		return mTotal;
+	}
+	
+	/**
+	 * Cancels the download. The progress made so far is kept and the download
+	 * may be resumed later by a new instance. This may be called from any
+	 * thread.
+	 */
+	public void cancel() {
+		mCanceled = true;
+		synchronized(mCalls) {
+			for(Call call : mCalls) {
+				call.cancel();
+			}
+		}
+	}
+	
+	/**
+	 * Downloads the file, resuming any previous progress, and returns once the
+	 * download completes or fails.
+	 * @return the Response of the last range downloaded. Its body is always
+	 * null. If Response.hasException() returns false, the file is complete.
+	 */
+	public Response execute() {
+		if(mCanceled) {
+			return failure(new InterruptedIOException("Download was cancelled."));
+		}
+		synchronized(this) {
+			mMetaInvalidated = false;
+		}
+		try {
+			if(!loadMeta()) {
+				return start();
+			}
+		} catch (IOException ex) {
+			return failure(ex);
+		}
+		return resume();
+	}
+	
+	/**
+	 * Starts a new download from byte zero.
+	 */
+	private Response start() throws IOException {
+		deletePartial();
+		Segment first = new Segment(0, -1, 0);
+		mSegments = single(first);
+		Request req = mReq.newBuilder(mReq.getUri()).setHeader("Range", "bytes=0-").create();
+		Response res = open(req);
+		if(res.hasException()) {
+			return res;
+		}
+		readValidator(res);
+		long total = -1;
+		if(res.getStatusCode() == HttpURLConnection.HTTP_PARTIAL) {
+			total = parseTotal(res.getHeaderField("Content-Range"));
+		} else {
+			total = parseLength(res.getHeaderField("Content-Length"));
+		}
+		mTotal = total;
+		if(total >= 0) {
+			first.end = total - 1;
+		}
+		List<Segment> others = new ArrayList<Segment>();
+		if(res.getStatusCode() == HttpURLConnection.HTTP_PARTIAL && total > 0 && mSegmentCount > 1) {
+			int count = (int) Math.max(1, Math.min(mSegmentCount, total / MIN_SEGMENT_SIZE));
+			long size = total / count;
+			List<Segment> segments = new ArrayList<Segment>(count);
+			first.end = size - 1;
+			segments.add(first);
+			for(int i = 1; i < count; i++) {
+				long start = i * size;
+				long end = i == count - 1 ? total - 1 : start + size - 1;
+				Segment seg = new Segment(start, end, start);
+				segments.add(seg);
+				others.add(seg);
+			}
+			mSegments = segments;
+		}
+		saveMeta();
+		return run(first, res, others);
+	}
+	
+	/**
+	 * Resumes a download whose progress was loaded from the metadata file.
+	 */
+	private Response resume() {
+		List<Segment> pending = new ArrayList<Segment>();
+		for(Segment seg : mSegments) {
+			if(!seg.isComplete()) {
+				pending.add(seg);
+			}
+		}
+		if(pending.isEmpty()) {
+			return finish(new Response(HttpURLConnection.HTTP_OK, null, null, null, null));
+		}
+		Segment first = pending.remove(0);
+		Response res = open(rangeRequest(first));
+		if(res.hasException()) {
+			if(res.getStatusCode() == HTTP_RANGE_NOT_SATISFIABLE && first.end == -1) {
+				//An open-ended segment was already fully received.
+				first.end = first.offset - 1;
+				res.setException(null);
+				return run(first, null, pending);
+			}
+			return res;
+		}
+		if(res.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+			//The resource changed or ranges are not supported; start over.
+			res.close();
+			try {
+				return start();
+			} catch (IOException ex) {
+				return failure(ex);
+			}
+		}
+		return run(first, res, pending);
+	}
+	
+	/**
+	 * Reads first from res on this thread, and the other segments on their
+	 * own threads, then finishes the download if all succeeded.
+	 * @param res the open Response for first, or null if first is complete.
+	 */
+	private Response run(Segment first, Response res, List<Segment> others) {
+		List<SegmentThread> threads = new ArrayList<SegmentThread>(others.size());
+		for(Segment seg : others) {
+			SegmentThread thread = new SegmentThread(seg);
+			threads.add(thread);
+			thread.start();
+		}
+		Response result = res == null
+				? new Response(HttpURLConnection.HTTP_OK, null, null, null, null)
+				: read(first, res);
+		for(SegmentThread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException ex) {
+				cancel();
+				Thread.currentThread().interrupt();
+			}
+			if(!result.hasException() && thread.result != null && thread.result.hasException()) {
+				result = thread.result;
+			}
+		}
+		try {
+			saveMeta();
+		} catch (IOException ex) {
+			if(!result.hasException()) {
+				result.setException(ex);
+			}
+		}
+		if(result.hasException()) {
+			return result;
+		}
+		return finish(result);
+	}
+	
+	/**
+	 * Downloads seg on its own connection.
+	 */
+	private Response download(Segment seg) {
+		Response res = open(rangeRequest(seg));
+		if(res.hasException()) {
+			return res;
+		}
+		if(res.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+			res.close();
+			//The resource changed since the download began.
+			invalidateMeta();
+			res.setException(new IOException("Resource changed during download."));
+			return res;
+		}
+		return read(seg, res);
+	}
+	
+	/**
+	 * Copies the body of res into the partial file at seg, closing res.
+	 */
+	private Response read(Segment seg, Response res) {
+		RandomAccessFile file = null;
+		InputStream in = res.getBodyStream();
+		try {
+			file = new RandomAccessFile(mPart, "rw");
+			file.seek(seg.offset);
+			byte[] buffer = new byte[mReq.getBufferSize()];
+			long sinceCheckpoint = 0;
+			while(seg.end == -1 || seg.offset <= seg.end) {
+				int max = buffer.length;
+				if(seg.end != -1) {
+					max = (int) Math.min(max, seg.end - seg.offset + 1);
+				}
+				int read = in.read(buffer, 0, max);
+				if(read == -1) {
+					break;
+				}
+				file.write(buffer, 0, read);
+				seg.offset += read;
+				sinceCheckpoint += read;
+				if(sinceCheckpoint >= CHECKPOINT_BYTES) {
+					sinceCheckpoint = 0;
+					saveMeta();
+				}
+			}
+			if(seg.end == -1) {
+				//The length was unknown; the end of the stream is the end.
+				seg.end = seg.offset - 1;
+			} else if(seg.offset <= seg.end) {
+				throw new IOException("Connection closed before the end of the range.");
+			}
+		} catch (IOException ex) {
+			res.setException(mCanceled ? new InterruptedIOException("Download was cancelled.") : ex);
+		} finally {
+			res.close();
+			if(file != null) {
+				try {
+					file.close();
+				} catch (IOException ex) {
+					if(!res.hasException()) {
+						res.setException(ex);
+					}
+				}
+			}
+		}
+		return res;
+	}
+	
+	private Response finish(Response res) {
+		if(mTarget.exists() && !mTarget.delete()) {
+			res.setException(new IOException("Could not replace " + mTarget));
+			return res;
+		}
+		if(!mPart.exists()) {
+			try {
+				//An empty file never creates the partial file.
+				new FileOutputStream(mPart).close();
+			} catch (IOException ex) {
+				res.setException(ex);
+				return res;
+			}
+		}
+		if(!mPart.renameTo(mTarget)) {
+			res.setException(new IOException("Could not rename " + mPart + " to " + mTarget));
+			return res;
+		}
+		deleteMeta();
+		return res;
+	}
+	
+	/**
+	 * Executes req for streaming, registering its Call for cancellation.
+	 */
+	private Response open(Request req) {
+		Call call = req.newCall();
+		synchronized(mCalls) {
+			mCalls.add(call);
+		}
+		if(mCanceled) {
+			call.cancel();
+		}
+		try {
+			return call.executeStreaming();
+		} finally {
+			synchronized(mCalls) {
+				mCalls.remove(call);
+			}
+		}
+	}
+	
+	private Request rangeRequest(Segment seg) {
+		Request.Builder builder = mReq.newBuilder(mReq.getUri());
+		builder.setHeader("Range", "bytes=" + seg.offset + "-" + (seg.end == -1 ? "" : String.valueOf(seg.end)));
+		if(mValidator != null) {
+			builder.setHeader("If-Range", mValidator);
+		}
+		return builder.create();
+	}
+	
+	private void readValidator(Response res) {
+		String etag = res.getHeaderField("ETag");
+		//Weak ETags cannot be used with If-Range.
+		if(etag != null && !etag.startsWith("W/")) {
+			mValidator = etag;
+		} else {
+			mValidator = res.getHeaderField("Last-Modified");
+		}
+	}
+	
+	/**
+	 * Parses the total length out of a Content-Range header, i.e.
+	 * "bytes 0-99/100".
+	 */
+	private static long parseTotal(String contentRange) {
+		if(contentRange == null) {
+			return -1;
+		}
+		int slash = contentRange.lastIndexOf('/');
+		if(slash == -1) {
+			return -1;
+		}
+		return parseLength(contentRange.substring(slash + 1).trim());
+	}
+	
+	private static long parseLength(String value) {
+		if(value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+	
+	private Response failure(Exception ex) {
+		return new Response(-1, null, null, null, ex);
+	}
+	
+	private static List<Segment> single(Segment seg) {
+		List<Segment> list = new ArrayList<Segment>(1);
+		list.add(seg);
+		return list;
+	}
+	
+	/**
+	 * Loads the progress of a previous download.
+	 * @return true if there was progress to load, false otherwise.
+	 */
+	private boolean loadMeta() throws IOException {
+		if(!mMeta.exists() || !mPart.exists()) {
+			return false;
+		}
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(mMeta);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		try {
+			int count = Integer.parseInt(props.getProperty("segments"));
+			List<Segment> segments = new ArrayList<Segment>(count);
+			for(int i = 0; i < count; i++) {
+				String[] parts = props.getProperty("segment." + i).split(",");
+				segments.add(new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+						Long.parseLong(parts[2])));
+			}
+			mValidator = props.getProperty("validator");
+			mTotal = Long.parseLong(props.getProperty("total"));
+			mSegments = segments;
+		} catch (RuntimeException ex) {
+			//Corrupt metadata; start over.
+			return false;
+		}
+		//Without a validator, a partial file cannot be safely resumed.
+		return mValidator != null;
+	}
+	
+	/**
+	 * Writes the progress of the download to the metadata file, unless the
+	 * metadata was invalidated by a change of the resource.
+	 */
+	private synchronized void saveMeta() throws IOException {
+		if(mMetaInvalidated) {
+			return;
+		}
+		Properties props = new Properties();
+		if(mValidator != null) {
+			props.setProperty("validator", mValidator);
+		}
+		props.setProperty("total", String.valueOf(mTotal));
+		props.setProperty("segments", String.valueOf(mSegments.size()));
+		for(int i = 0; i < mSegments.size(); i++) {
+			Segment seg = mSegments.get(i);
+			props.setProperty("segment." + i, seg.start + "," + seg.end + "," + seg.offset);
+		}
+		File tmp = new File(mMeta.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			props.store(out, null);
+		} finally {
+			out.close();
+		}
+		if(!tmp.renameTo(mMeta)) {
+			throw new IOException("Could not write " + mMeta);
+		}
+	}
+	
+	private synchronized void deleteMeta() {
+		mMeta.delete();
+	}
+	
+	/**
+	 * Deletes the metadata file and keeps it from being written again until
+	 * the next call to execute(), so the next attempt starts over.
+	 */
+	private synchronized void invalidateMeta() {
+		mMetaInvalidated = true;
+		mMeta.delete();
+	}
+	
+	private void deletePartial() {
+		deleteMeta();
+		mPart.delete();
+		mValidator = null;
+		mTotal = -1;
+	}
+	
+	/**
+	 * A contiguous range of the file. end is -1 if the length of the file is
+	 * unknown, and offset is the next byte to be received.
+	 */
+	private static class Segment {
+		private final long start;
+		private long end;
+		private volatile long offset;
+		
+		private Segment(long start, long end, long offset) {
+			this.start = start;
+			this.end = end;
+			this.offset = offset;
+		}
+		
+		private boolean isComplete() {
+			return end != -1 && offset > end;
+		}
+	}
+	
+	/**
+	 * Downloads one segment other than the first.
+	 */
+	private class SegmentThread extends Thread {
+		
+		private final Segment mSeg;
+		private volatile Response result;
+		
+		private SegmentThread(Segment seg) {
+			super("FileDownload-" + seg.start);
+			mSeg = seg;
+		}
+		
+		@Override
+		public void run() {
+			result = download(mSeg);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.ericelsken.android.web.image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * A memory cache of decoded Bitmaps bounded by the number of bytes of their
+ * pixels rather than by a number of entries, since a single full screen image
+ * may weigh as much as hundreds of thumbnails. When a Bitmap is put beyond the
+ * budget, the least recently used Bitmaps are evicted until it fits.
+ * 
+ * Evicted Bitmaps are dropped rather than recycled since they may still be
+ * displayed by a View. All methods are thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class BitmapCache {
+	
+	private final LinkedHashMap<String, Bitmap> mMap;
+	private final long mMaxBytes;
+	private long mBytes;
+	
+	/**
+	 * Creates a new cache that holds up to maxBytes bytes of pixels.
+	 * @param maxBytes the budget of the cache in bytes.
+	 */
+	public BitmapCache(long maxBytes) {
+		if(maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive.");
+		}
+		mMap = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+		mMaxBytes = maxBytes;
+		mBytes = 0;
+	}
+	
+	/**
+	 * Returns the default budget of a cache: an eighth of the heap available
+	 * to the application.
+	 * @return the default budget of a cache in bytes.
+	 */
+	public static long getDefaultMaxBytes() {
+		return Runtime.getRuntime().maxMemory() / 8;
+	}
+	
+	/**
+	 * Returns the number of bytes of pixels held by bitmap.
+	 * @param bitmap the Bitmap to size.
+	 * @return the number of bytes of pixels held by bitmap.
+	 */
+	public static long sizeOf(Bitmap bitmap) {
+		//getByteCount() is not available before API 12.
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+	
+	/**
+	 * Returns the Bitmap cached under key, marking it as most recently used,
+	 * or null if there is none.
+	 */
+	public synchronized Bitmap get(String key) {
+		return mMap.get(key);
+	}
+	
+	/**
+	 * Caches bitmap under key, evicting the least recently used Bitmaps as
+	 * needed. A Bitmap larger than the whole budget is not cached.
+	 * @param key the key of bitmap.
+	 * @param bitmap the Bitmap to cache.
+	 */
+	public synchronized void put(String key, Bitmap bitmap) {
+		if(key == null) {
+			throw new NullPointerException("Key cannot be null.");
+		}
+		if(bitmap == null) {
+			throw new NullPointerException("Bitmap cannot be null.");
+		}
+		long size = sizeOf(bitmap);
+		if(size > mMaxBytes) {
+			return;
+		}
+		Bitmap previous = mMap.put(key, bitmap);
+		if(previous != null) {
+			mBytes -= sizeOf(previous);
+		}
+		mBytes += size;
+		trimTo(mMaxBytes);
+	}
+	
+	/**
+	 * Removes the Bitmap cached under key, if any.
+	 * @return the removed Bitmap or null if there was none.
+	 */
+	public synchronized Bitmap remove(String key) {
+		Bitmap previous = mMap.remove(key);
+		if(previous != null) {
+			mBytes -= sizeOf(previous);
+		}
+		return previous;
+	}
+	
+	/**
+	 * Evicts the least recently used Bitmaps until at most maxBytes bytes are
+	 * held. trimTo(0) empties the cache, as in response to
+	 * ComponentCallbacks.onLowMemory().
+	 * @param maxBytes the number of bytes to keep at most.
+	 */
+	public synchronized void trimTo(long maxBytes) {
+		Iterator<Map.Entry<String, Bitmap>> it = mMap.entrySet().iterator();
+		while(mBytes > maxBytes && it.hasNext()) {
+			mBytes -= sizeOf(it.next().getValue());
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes of pixels held by the cache.
+	 */
+	public synchronized long getSize() {
+		return mBytes;
+	}
+	
+	/**
+	 * Returns the budget of the cache in bytes.
+	 */
+	public long getMaxSize() {
+		return mMaxBytes;
+	}
+}
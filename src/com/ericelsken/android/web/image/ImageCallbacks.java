@@ -0,0 +1,28 @@
+package com.ericelsken.android.web.image;
+
+import android.graphics.Bitmap;
+
+/**
+ * Callback interface for the result of an image loaded by an ImageLoader.
+ * Methods are called on the main thread, and not at all once the load has
+ * been cancelled.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface ImageCallbacks {
+	
+	/**
+	 * Called with the decoded Bitmap once it is loaded, or at once if it was
+	 * in the memory cache.
+	 * @param bitmap the decoded Bitmap.
+	 */
+	public void onImageLoaded(Bitmap bitmap);
+	
+	/**
+	 * Called when the image could not be fetched or decoded.
+	 * @param ex the Exception of the Response, or an IOException if the body
+	 * is not a decodable image.
+	 */
+	public void onImageFailed(Exception ex);
+}
@@ -0,0 +1,476 @@
+package com.ericelsken.android.web.image;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.RequestManager;
+import com.ericelsken.android.web.Response;
+
+/**
+ * Loads images from Requests into Bitmaps decoded to the size at which they
+ * are displayed. The body of the Response is streamed straight into
+ * BitmapFactory: the bounds of the image are decoded first from a marked
+ * stream, and the pixels are then decoded with the largest power of two
+ * sample size that keeps the Bitmap at least as large as its target, so a
+ * photo shown as a thumbnail never occupies the memory of the full photo.
+ * 
+ * Decoded Bitmaps are kept in a BitmapCache keyed by URI and target size.
+ * Concurrent loads of the same key share one Call, and a load is cancelled
+ * once every caller waiting on it has cancelled. load(Request, ImageView)
+ * binds the load to the ImageView, so that when the View is recycled by an
+ * AdapterView and bound to another image, the previous load is cancelled
+ * rather than displayed in the wrong row.
+ * 
+ * The methods of this class must be called on the main thread, on which
+ * ImageCallbacks are also called. Requests are executed on the Executor of
+ * the RequestManager unless another is set.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class ImageLoader {
+	
+	/**
+	 * The number of bytes of a body that may be read to decode the bounds of
+	 * an image. Common formats give the bounds in their first bytes.
+	 */
+	public static final int MARK_LIMIT = 1 << 20;
+	
+	private static class InstanceHolder {
+		private static final ImageLoader sInstance = new ImageLoader(new BitmapCache(BitmapCache.getDefaultMaxBytes()));
+	}
+	
+	/**
+	 * Returns the shared instance of this class, whose cache has the default
+	 * budget of BitmapCache.
+	 * @return the shared instance of this class.
+	 */
+	public static ImageLoader getInstance() {
+		return InstanceHolder.sInstance;
+	}
+	
+	private final BitmapCache mCache;
+	private final Handler mHandler;
+	private final Map<String, Load> mLoads;
+	private final Map<ImageView, Ticket> mTargets;
+	private volatile Executor mExecutor;
+	
+	/**
+	 * Creates a new ImageLoader that caches decoded Bitmaps in cache.
+	 * @param cache the memory cache of decoded Bitmaps.
+	 */
+	public ImageLoader(BitmapCache cache) {
+		if(cache == null) {
+			throw new NullPointerException("BitmapCache cannot be null.");
+		}
+		mCache = cache;
+		mHandler = new Handler(Looper.getMainLooper());
+		mLoads = new HashMap<String, Load>();
+		mTargets = new WeakHashMap<ImageView, Ticket>();
+		mExecutor = null;
+	}
+	
+	/**
+	 * Loads the image of req decoded to at least width by height pixels and
+	 * gives it to callbacks. If the image is cached, callbacks are called
+	 * before this method returns. A width or height that is not positive
+	 * decodes the image at its full size.
+	 * @param req the Request of the image.
+	 * @param width the width at which the image is displayed.
+	 * @param height the height at which the image is displayed.
+	 * @param callbacks the callbacks of the result.
+	 * @return the Ticket with which to cancel the load.
+	 */
+	public Ticket load(Request req, int width, int height, ImageCallbacks callbacks) {
+		if(req == null) {
+			throw new NullPointerException("Request cannot be null.");
+		}
+		if(callbacks == null) {
+			throw new NullPointerException("ImageCallbacks cannot be null.");
+		}
+		String key = keyOf(req, width, height);
+		Ticket ticket = new Ticket(key, callbacks);
+		Bitmap cached = mCache.get(key);
+		if(cached != null) {
+			ticket.mDone = true;
+			callbacks.onImageLoaded(cached);
+			return ticket;
+		}
+		boolean start = false;
+		Load load;
+		synchronized(mLoads) {
+			load = mLoads.get(key);
+			if(load == null) {
+				load = new Load(key, req, width, height);
+				mLoads.put(key, load);
+				start = true;
+			}
+		}
+		ticket.mLoad = load;
+		load.mTickets.add(ticket);
+		if(start) {
+			getExecutor().execute(load);
+		}
+		return ticket;
+	}
+	
+	/**
+	 * Loads the image of req into view, decoded to the size of view.
+	 * @see #load(Request, ImageView, ImageCallbacks)
+	 */
+	public Ticket load(Request req, ImageView view) {
+		return load(req, view, null);
+	}
+	
+	/**
+	 * Loads the image of req into view, decoded to the size of view, or to
+	 * the size of its LayoutParams or of the screen if it has not been laid
+	 * out yet. Any previous load into view is cancelled, unless it is of the
+	 * same image, in which case its Ticket is returned. The View is not
+	 * changed until the image is loaded, so a placeholder may be set before
+	 * calling this method.
+	 * @param req the Request of the image.
+	 * @param view the ImageView in which to display the image.
+	 * @param callbacks the callbacks of the result, called after the image
+	 * is set on view, or null.
+	 * @return the Ticket with which to cancel the load.
+	 */
+	public Ticket load(Request req, ImageView view, ImageCallbacks callbacks) {
+		if(view == null) {
+			throw new NullPointerException("ImageView cannot be null.");
+		}
+		int width = getTargetWidth(view);
+		int height = getTargetHeight(view);
+		Ticket current = mTargets.get(view);
+		if(current != null) {
+			if(!current.isDone() && current.mKey.equals(keyOf(req, width, height))) {
+				return current;
+			}
+			current.cancel();
+			mTargets.remove(view);
+		}
+		Ticket ticket = load(req, width, height, new ViewCallbacks(view, callbacks));
+		if(!ticket.isDone()) {
+			mTargets.put(view, ticket);
+		}
+		return ticket;
+	}
+	
+	/**
+	 * Cancels the load into view, if any.
+	 * @param view the ImageView whose load to cancel.
+	 */
+	public void cancel(ImageView view) {
+		Ticket ticket = mTargets.remove(view);
+		if(ticket != null) {
+			ticket.cancel();
+		}
+	}
+	
+	/**
+	 * Returns the memory cache of decoded Bitmaps.
+	 */
+	public BitmapCache getCache() {
+		return mCache;
+	}
+	
+	/**
+	 * Sets the Executor on which images are fetched and decoded, or null to
+	 * use the Executor of the RequestManager.
+	 */
+	public void setExecutor(Executor executor) {
+		mExecutor = executor;
+	}
+	
+	/**
+	 * Returns the Executor on which images are fetched and decoded.
+	 */
+	public Executor getExecutor() {
+		Executor executor = mExecutor;
+		return executor == null ? RequestManager.getInstance().getExecutor() : executor;
+	}
+	
+	/**
+	 * Returns the largest power of two by which an image of width by height
+	 * pixels can be subsampled and remain at least reqWidth by reqHeight
+	 * pixels.
+	 */
+	public static int getSampleSize(int width, int height, int reqWidth, int reqHeight) {
+		int sample = 1;
+		if(reqWidth <= 0 || reqHeight <= 0) {
+			return sample;
+		}
+		while(width / (sample * 2) >= reqWidth && height / (sample * 2) >= reqHeight) {
+			sample *= 2;
+		}
+		return sample;
+	}
+	
+	private static String keyOf(Request req, int width, int height) {
+		return req.getUri() + "@" + Math.max(width, 0) + "x" + Math.max(height, 0);
+	}
+	
+	private static int getTargetWidth(ImageView view) {
+		int width = view.getWidth();
+		ViewGroup.LayoutParams params = view.getLayoutParams();
+		if(width <= 0 && params != null) {
+			width = params.width;
+		}
+		if(width <= 0) {
+			DisplayMetrics metrics = view.getResources().getDisplayMetrics();
+			width = metrics.widthPixels;
+		}
+		return width;
+	}
+	
+	private static int getTargetHeight(ImageView view) {
+		int height = view.getHeight();
+		ViewGroup.LayoutParams params = view.getLayoutParams();
+		if(height <= 0 && params != null) {
+			height = params.height;
+		}
+		if(height <= 0) {
+			DisplayMetrics metrics = view.getResources().getDisplayMetrics();
+			height = metrics.heightPixels;
+		}
+		return height;
+	}
+	
+	/**
+	 * Decodes the body of res subsampled to at least width by height pixels.
+	 */
+	private static Bitmap decode(Response res, int bufferSize, int width, int height) throws IOException {
+		InputStream in = res.getBodyStream();
+		if(in == null) {
+			//An Interceptor may have answered with the body in memory.
+			byte[] bytes = res.getBodyBytes();
+			in = new ByteArrayInputStream(bytes == null ? new byte[0] : bytes);
+		}
+		BufferedInputStream bin = new BufferedInputStream(in, bufferSize);
+		bin.mark(MARK_LIMIT);
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeStream(bin, null, options);
+		if(options.outWidth <= 0 || options.outHeight <= 0) {
+			throw new IOException("Body is not a decodable image.");
+		}
+		//Throws if the bounds were beyond MARK_LIMIT.
+		bin.reset();
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, width, height);
+		Bitmap bitmap = BitmapFactory.decodeStream(bin, null, options);
+		if(bitmap == null) {
+			throw new IOException("Body is not a decodable image.");
+		}
+		return bitmap;
+	}
+	
+	/**
+	 * The handle of a single call to load(). Cancelling it stops its
+	 * ImageCallbacks from being called, and cancels the fetch of the image
+	 * if no other load is waiting on it.
+	 */
+	public final class Ticket {
+		
+		private final String mKey;
+		private final ImageCallbacks mCallbacks;
+		private Load mLoad;
+		private boolean mDone;
+		private boolean mCancelled;
+		
+		private Ticket(String key, ImageCallbacks callbacks) {
+			mKey = key;
+			mCallbacks = callbacks;
+			mLoad = null;
+			mDone = false;
+			mCancelled = false;
+		}
+		
+		/**
+		 * Cancels the load. Does nothing if the image was already delivered.
+		 */
+		public void cancel() {
+			if(mDone || mCancelled) {
+				return;
+			}
+			mCancelled = true;
+			Load load = mLoad;
+			load.mTickets.remove(this);
+			if(load.mTickets.isEmpty()) {
+				load.cancel();
+			}
+		}
+		
+		/**
+		 * Returns whether the ImageCallbacks of this Ticket were called.
+		 */
+		public boolean isDone() {
+			return mDone;
+		}
+		
+		/**
+		 * Returns whether cancel() was called before the image was delivered.
+		 */
+		public boolean isCancelled() {
+			return mCancelled;
+		}
+	}
+	
+	/**
+	 * A fetch and decode shared by all Tickets of the same key. mTickets is
+	 * only accessed on the main thread.
+	 */
+	private class Load implements Runnable {
+		
+		private final String mKey;
+		private final Request mRequest;
+		private final int mWidth;
+		private final int mHeight;
+		private final List<Ticket> mTickets;
+		private volatile Call mCall;
+		private volatile boolean mCancelled;
+		
+		private Load(String key, Request req, int width, int height) {
+			mKey = key;
+			mRequest = req;
+			mWidth = width;
+			mHeight = height;
+			mTickets = new ArrayList<Ticket>(1);
+			mCall = null;
+			mCancelled = false;
+		}
+		
+		@Override
+		public void run() {
+			Call call = mRequest.newCall();
+			mCall = call;
+			if(mCancelled) {
+				return;
+			}
+			Bitmap bitmap = null;
+			Exception error = null;
+			try {
+				Response res = call.executeStreaming();
+				try {
+					if(res.hasException()) {
+						error = res.getException();
+					} else {
+						bitmap = decode(res, mRequest.getBufferSize(), mWidth, mHeight);
+					}
+				} catch (IOException ex) {
+					error = ex;
+				} catch (OutOfMemoryError e) {
+					error = new IOException("Not enough memory to decode the image.", e);
+				} finally {
+					res.close();
+				}
+				if(bitmap != null) {
+					mCache.put(mKey, bitmap);
+				}
+			} catch (RuntimeException ex) {
+				//An Interceptor failed; report it like any other failure.
+				error = ex;
+			} finally {
+				//Never leave the Load behind, or later Tickets would attach to it.
+				synchronized(mLoads) {
+					if(mLoads.get(mKey) == this) {
+						mLoads.remove(mKey);
+					}
+				}
+			}
+			if(!mCancelled) {
+				final Bitmap result = bitmap;
+				final Exception ex = error;
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						deliver(result, ex);
+					}
+				});
+			}
+		}
+		
+		private void deliver(Bitmap bitmap, Exception ex) {
+			List<Ticket> tickets = new ArrayList<Ticket>(mTickets);
+			mTickets.clear();
+			for(Ticket ticket : tickets) {
+				ticket.mDone = true;
+				if(bitmap != null) {
+					ticket.mCallbacks.onImageLoaded(bitmap);
+				} else {
+					ticket.mCallbacks.onImageFailed(ex);
+				}
+			}
+		}
+		
+		private void cancel() {
+			mCancelled = true;
+			synchronized(mLoads) {
+				if(mLoads.get(mKey) == this) {
+					mLoads.remove(mKey);
+				}
+			}
+			Call call = mCall;
+			if(call != null) {
+				call.cancel();
+			}
+		}
+	}
+	
+	/**
+	 * Sets the loaded image on an ImageView, which is only weakly referenced
+	 * since the Ticket holding this is the value of mTargets.
+	 */
+	private class ViewCallbacks implements ImageCallbacks {
+		
+		private final WeakReference<ImageView> mView;
+		private final ImageCallbacks mCallbacks;
+		
+		private ViewCallbacks(ImageView view, ImageCallbacks callbacks) {
+			mView = new WeakReference<ImageView>(view);
+			mCallbacks = callbacks;
+		}
+		
+		@Override
+		public void onImageLoaded(Bitmap bitmap) {
+			ImageView view = mView.get();
+			if(view != null) {
+				mTargets.remove(view);
+				view.setImageBitmap(bitmap);
+			}
+			if(mCallbacks != null) {
+				mCallbacks.onImageLoaded(bitmap);
+			}
+		}
+		
+		@Override
+		public void onImageFailed(Exception ex) {
+			ImageView view = mView.get();
+			if(view != null) {
+				mTargets.remove(view);
+			}
+			if(mCallbacks != null) {
+				mCallbacks.onImageFailed(ex);
+			}
+		}
+	}
+}
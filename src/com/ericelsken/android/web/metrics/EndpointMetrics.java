@@ -0,0 +1,67 @@
+package com.ericelsken.android.web.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The lock-free counters and latency histogram kept by a MetricsRegistry for
+ * a single endpoint.
+ * 
+ * @author Eric Elsken
+ *
+ */
+class EndpointMetrics {
+	
+	/**
+	 * Index into statusClasses for Requests that failed without a status code.
+	 */
+	static final int NETWORK_ERROR = 0;
+	
+	final String key;
+	final AtomicLong count;
+	final AtomicLongArray statusClasses;
+	final AtomicLong errors;
+	final AtomicLong bytesIn;
+	final AtomicLong bytesOut;
+	final AtomicLong cacheHits;
+	final LatencyHistogram latency;
+	
+	EndpointMetrics(String key) {
+		this.key = key;
+		this.count = new AtomicLong();
+		//Network errors, then 1xx through 5xx.
+		this.statusClasses = new AtomicLongArray(6);
+		this.errors = new AtomicLong();
+		this.bytesIn = new AtomicLong();
+		this.bytesOut = new AtomicLong();
+		this.cacheHits = new AtomicLong();
+		this.latency = new LatencyHistogram();
+	}
+	
+	void record(int status, boolean failed, boolean cacheHit, long nanos, long in, long out) {
+		count.incrementAndGet();
+		int statusClass = status / 100;
+		statusClasses.incrementAndGet(statusClass >= 1 && statusClass <= 5 ? statusClass : NETWORK_ERROR);
+		if(failed) {
+			errors.incrementAndGet();
+		}
+		if(cacheHit) {
+			cacheHits.incrementAndGet();
+		}
+		bytesIn.addAndGet(in);
+		bytesOut.addAndGet(out);
+		latency.record(nanos);
+	}
+	
+	void reset() {
+		count.set(0);
+		for(int i = 0; i < statusClasses.length(); i++) {
+			statusClasses.set(i, 0);
+		}
+		errors.set(0);
+		bytesIn.set(0);
+		bytesOut.set(0);
+		cacheHits.set(0);
+		latency.reset();
+	}
+}
@@ -0,0 +1,132 @@
+package com.ericelsken.android.web.metrics;
+
+/**
+ * An immutable copy of the metrics of one endpoint at the time
+ * MetricsRegistry.snapshot() was called. Counters are read one at a time
+ * without locking, so a snapshot taken while Requests complete may be off by
+ * the few Requests recorded during the copy.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class EndpointSnapshot {
+	
+	private final String endpoint;
+	private final long count;
+	private final long[] statusClasses;
+	private final long errors;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long cacheHits;
+	private final long[] latencyCounts;
+	private final long latencyTotal;
+	
+	EndpointSnapshot(EndpointMetrics m) {
+		endpoint = m.key;
+		count = m.count.get();
+		statusClasses = new long[m.statusClasses.length()];
+		for(int i = 0; i < statusClasses.length; i++) {
+			statusClasses[i] = m.statusClasses.get(i);
+		}
+		errors = m.errors.get();
+		bytesIn = m.bytesIn.get();
+		bytesOut = m.bytesOut.get();
+		cacheHits = m.cacheHits.get();
+		latencyCounts = new long[LatencyHistogram.BUCKETS];
+		m.latency.copyTo(latencyCounts);
+		long total = 0;
+		for(long c : latencyCounts) {
+			total += c;
+		}
+		latencyTotal = total;
+	}
+	
+	/**
+	 * Returns the endpoint, as the host followed by the path template.
+	 * @return the endpoint of these metrics.
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+	
+	/**
+	 * Returns the number of Requests executed.
+	 * @return the number of Requests executed.
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the number of Requests that completed with a status code in the
+	 * given class.
+	 * @param statusClass 1 through 5 for 1xx through 5xx, or 0 for Requests
+	 * that failed without a status code.
+	 * @return the number of Requests in the status class.
+	 */
+	public long getStatusClassCount(int statusClass) {
+		if(statusClass < 0 || statusClass >= statusClasses.length) {
+			return 0;
+		}
+		return statusClasses[statusClass];
+	}
+	
+	/**
+	 * Returns the fraction of Requests whose Response had an Exception.
+	 * @return the error rate, between 0 and 1.
+	 */
+	public double getErrorRate() {
+		return count == 0 ? 0 : (double) errors / count;
+	}
+	
+	/**
+	 * Returns the total number of Response body bytes received.
+	 * @return the number of bytes received.
+	 */
+	public long getBytesIn() {
+		return bytesIn;
+	}
+	
+	/**
+	 * Returns the total number of Request body bytes sent.
+	 * @return the number of bytes sent.
+	 */
+	public long getBytesOut() {
+		return bytesOut;
+	}
+	
+	/**
+	 * Returns the fraction of Requests answered from a cache, including 304
+	 * Not Modified responses.
+	 * @return the cache hit ratio, between 0 and 1.
+	 */
+	public double getCacheHitRatio() {
+		return count == 0 ? 0 : (double) cacheHits / count;
+	}
+	
+	/**
+	 * Returns the latency at the given percentile.
+	 * @param p the percentile, between 0 and 100.
+	 * @return the latency in milliseconds.
+	 */
+	public double getLatencyPercentile(double p) {
+		return LatencyHistogram.percentile(latencyCounts, latencyTotal, p);
+	}
+	
+	@Override
+	public String toString() {
+		return endpoint + " count=" + count
+				+ " errorRate=" + getErrorRate()
+				+ " 2xx=" + statusClasses[2]
+				+ " 3xx=" + statusClasses[3]
+				+ " 4xx=" + statusClasses[4]
+				+ " 5xx=" + statusClasses[5]
+				+ " networkErrors=" + statusClasses[EndpointMetrics.NETWORK_ERROR]
+				+ " p50=" + getLatencyPercentile(50)
+				+ " p95=" + getLatencyPercentile(95)
+				+ " p99=" + getLatencyPercentile(99)
+				+ " bytesIn=" + bytesIn
+				+ " bytesOut=" + bytesOut
+				+ " cacheHitRatio=" + getCacheHitRatio();
+	}
+}
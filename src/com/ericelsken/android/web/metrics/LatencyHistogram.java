@@ -0,0 +1,110 @@
+package com.ericelsken.android.web.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free histogram of latencies. Latencies are counted in
+ * buckets whose bounds grow geometrically, with four buckets per power of two
+ * microseconds, so any percentile is reported within about 19% of its true
+ * value from 1 microsecond up to well over an hour. Recording is a single
+ * atomic increment and never allocates.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class LatencyHistogram {
+	
+	private static final int SUB_BUCKETS = 4;
+	private static final int POWERS = 32;
+	
+	/**
+	 * The number of buckets in every histogram.
+	 */
+	static final int BUCKETS = SUB_BUCKETS * POWERS;
+	
+	private final AtomicLongArray counts;
+	
+	/**
+	 * Create a new, empty histogram.
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+	}
+	
+	/**
+	 * Records a latency.
+	 * @param nanos the latency in nanoseconds.
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(bucketOf(nanos / 1000));
+	}
+	
+	/**
+	 * Clears all recorded latencies.
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+	}
+	
+	/**
+	 * Copies the current bucket counts into counts.
+	 */
+	void copyTo(long[] dest) {
+		for(int i = 0; i < BUCKETS; i++) {
+			dest[i] = counts.get(i);
+		}
+	}
+	
+	/**
+	 * Returns the bucket of a latency in microseconds.
+	 */
+	static int bucketOf(long micros) {
+		if(micros < SUB_BUCKETS) {
+			return (int) Math.max(0, micros);
+		}
+		int power = 63 - Long.numberOfLeadingZeros(micros);
+		//The two bits below the highest set bit select the sub-bucket.
+		int sub = (int) (micros >>> (power - 2)) & (SUB_BUCKETS - 1);
+		int bucket = (power - 1) * SUB_BUCKETS + sub;
+		return Math.min(bucket, BUCKETS - 1);
+	}
+	
+	/**
+	 * Returns the upper bound in microseconds of the latencies counted by
+	 * bucket.
+	 */
+	static long upperBoundOf(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket + 1;
+		}
+		int power = bucket / SUB_BUCKETS + 1;
+		int sub = bucket % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1)) << (power - 2);
+	}
+	
+	/**
+	 * Returns the latency at percentile p of the given bucket counts.
+	 * @param counts the bucket counts.
+	 * @param total the sum of counts.
+	 * @param p the percentile, between 0 and 100.
+	 * @return the upper bound of the bucket holding the percentile in
+	 * milliseconds, or 0 if total is 0.
+	 */
+	static double percentile(long[] counts, long total, double p) {
+		if(total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * p / 100.0);
+		rank = Math.max(1, rank);
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return upperBoundOf(i) / 1000.0;
+			}
+		}
+		return upperBoundOf(counts.length - 1) / 1000.0;
+	}
+}
@@ -0,0 +1,176 @@
+package com.ericelsken.android.web.metrics;
+
+import java.net.URI;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+
+/**
+ * Aggregates metrics about every Request executed while it is set with
+ * RequestManager.setMetricsRegistry(). For each endpoint, identified by host
+ * and PathTemplate, it keeps the number of Requests, their status classes and
+ * error rate, a latency histogram from which percentiles are computed, the
+ * bytes sent and received, and the cache hit ratio.
+ * 
+ * Once the endpoint has been seen, recording only builds the endpoint's key
+ * from the host and path template and increments atomic counters, so the
+ * registry is cheap enough to leave enabled in production. To bound
+ * memory, at most getMaxEndpoints() endpoints are tracked; Requests to any
+ * further endpoints are recorded under OVERFLOW_ENDPOINT.
+ * 
+ * All methods of this class are thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class MetricsRegistry {
+	
+	/**
+	 * The default maximum number of endpoints tracked.
+	 */
+	public static final int DEFAULT_MAX_ENDPOINTS = 256;
+	
+	/**
+	 * The endpoint under which Requests are recorded once the maximum number
+	 * of endpoints is reached.
+	 */
+	public static final String OVERFLOW_ENDPOINT = "(other)";
+	
+	private final ConcurrentMap<String, EndpointMetrics> endpoints;
+	private final int maxEndpoints;
+	private volatile PathTemplate pathTemplate;
+	
+	/**
+	 * Create a new registry tracking up to DEFAULT_MAX_ENDPOINTS endpoints.
+	 */
+	public MetricsRegistry() {
+		this(DEFAULT_MAX_ENDPOINTS);
+	}
+	
+	/**
+	 * Create a new registry tracking up to maxEndpoints endpoints.
+	 * @param maxEndpoints the maximum number of endpoints to track.
+	 */
+	public MetricsRegistry(int maxEndpoints) {
+		if(maxEndpoints < 1) {
+			throw new IllegalArgumentException("maxEndpoints must be positive.");
+		}
+		this.endpoints = new ConcurrentHashMap<String, EndpointMetrics>();
+		this.maxEndpoints = maxEndpoints;
+		this.pathTemplate = PathTemplate.DEFAULT;
+	}
+	
+	/**
+	 * Sets the PathTemplate used to group Requests into endpoints. Endpoints
+	 * already recorded are not affected.
+	 * @param pathTemplate the new PathTemplate.
+	 */
+	public void setPathTemplate(PathTemplate pathTemplate) {
+		if(pathTemplate == null) {
+			throw new NullPointerException("PathTemplate cannot be null.");
+		}
+		this.pathTemplate = pathTemplate;
+	}
+	
+	/**
+	 * Returns the PathTemplate used to group Requests into endpoints.
+	 * @return the current PathTemplate.
+	 */
+	public PathTemplate getPathTemplate() {
+		return pathTemplate;
+	}
+	
+	/**
+	 * Returns the maximum number of endpoints tracked.
+	 * @return the maximum number of endpoints tracked.
+	 */
+	public int getMaxEndpoints() {
+		return maxEndpoints;
+	}
+	
+	/**
+	 * Returns the endpoint req is recorded under, as its host followed by its
+	 * path template.
+	 * @param req the Request.
+	 * @return the endpoint of req.
+	 */
+	public String endpointOf(Request req) {
+		URI uri = req.getUri();
+		return uri.getHost() + pathTemplate.template(uri);
+	}
+	
+	/**
+	 * Records an executed Request. This is called by Call once the Response
+	 * has been read.
+	 * @param req the Request executed.
+	 * @param res the Response obtained.
+	 * @param nanos the time taken to execute the Request, in nanoseconds.
+	 * @param bytesIn the number of Response body bytes received.
+	 * @param bytesOut the number of Request body bytes sent.
+	 * @param cacheHit true if the Response was marked with
+	 * Response.setFromCache().
+	 */
+	public void record(Request req, Response res, long nanos, long bytesIn, long bytesOut, boolean cacheHit) {
+		int status = res.getStatusCode();
+		boolean hit = cacheHit || status == HttpURLConnection.HTTP_NOT_MODIFIED;
+		metricsOf(endpointOf(req)).record(status, res.hasException() && status != HttpURLConnection.HTTP_NOT_MODIFIED,
+				hit, nanos, bytesIn, bytesOut);
+	}
+	
+	private EndpointMetrics metricsOf(String key) {
+		EndpointMetrics m = endpoints.get(key);
+		if(m != null) {
+			return m;
+		}
+		if(endpoints.size() >= maxEndpoints) {
+			//Only build the overflow endpoint's histogram the first time.
+			key = OVERFLOW_ENDPOINT;
+			m = endpoints.get(key);
+			if(m != null) {
+				return m;
+			}
+		}
+		m = new EndpointMetrics(key);
+		EndpointMetrics existing = endpoints.putIfAbsent(key, m);
+		return existing != null ? existing : m;
+	}
+	
+	/**
+	 * Returns a snapshot of the metrics of every endpoint, suitable for
+	 * export.
+	 * @return a new list of endpoint snapshots.
+	 */
+	public List<EndpointSnapshot> snapshot() {
+		List<EndpointSnapshot> list = new ArrayList<EndpointSnapshot>(endpoints.size());
+		for(EndpointMetrics m : endpoints.values()) {
+			list.add(new EndpointSnapshot(m));
+		}
+		return list;
+	}
+	
+	/**
+	 * Returns a snapshot of the metrics of every endpoint and resets all
+	 * counters, for periodic export of deltas.
+	 * @return a new list of endpoint snapshots.
+	 */
+	public List<EndpointSnapshot> snapshotAndReset() {
+		List<EndpointSnapshot> list = new ArrayList<EndpointSnapshot>(endpoints.size());
+		for(EndpointMetrics m : endpoints.values()) {
+			list.add(new EndpointSnapshot(m));
+			m.reset();
+		}
+		return list;
+	}
+	
+	/**
+	 * Removes all endpoints and their metrics.
+	 */
+	public void clear() {
+		endpoints.clear();
+	}
+}
@@ -0,0 +1,68 @@
+package com.ericelsken.android.web.metrics;
+
+import java.net.URI;
+
+/**
+ * Maps the URI of a Request to the endpoint its metrics are recorded under,
+ * so that Requests to /users/1 and /users/2 are counted together.
+ * Implementations are called on the thread executing each Request and MUST be
+ * thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface PathTemplate {
+	
+	/**
+	 * The default PathTemplate. Each path segment that is a number, a UUID,
+	 * or a long hexadecimal string is replaced by {id}, and the query is
+	 * dropped.
+	 */
+	public static final PathTemplate DEFAULT = new PathTemplate() {
+		@Override
+		public String template(URI uri) {
+			String path = uri.getRawPath();
+			if(path == null || path.length() == 0) {
+				return "/";
+			}
+			StringBuilder sb = new StringBuilder(path.length());
+			int start = 0;
+			while(start < path.length()) {
+				int end = path.indexOf('/', start + 1);
+				if(end == -1) {
+					end = path.length();
+				}
+				//Segments are appended with their leading slash.
+				if(isId(path, start + 1, end)) {
+					sb.append("/{id}");
+				} else {
+					sb.append(path, start, end);
+				}
+				start = end;
+			}
+			return sb.toString();
+		}
+		
+		private boolean isId(String path, int start, int end) {
+			if(start >= end) {
+				return false;
+			}
+			boolean digits = true;
+			boolean hex = true;
+			for(int i = start; i < end; i++) {
+				char c = path.charAt(i);
+				boolean digit = c >= '0' && c <= '9';
+				digits &= digit;
+				hex &= digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-';
+			}
+			return digits || (hex && end - start >= 16);
+		}
+	};
+	
+	/**
+	 * Returns the path template of uri.
+	 * @param uri the URI of a Request.
+	 * @return the path template, which must not be null.
+	 */
+	public String template(URI uri);
+}
@@ -0,0 +1,351 @@
+package com.ericelsken.android.web.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+
+/**
+ * A structured log of the last Requests executed while it is set with
+ * RequestManager.setRequestLog(), successful or not, kept in memory so that
+ * it can be dumped when a user reports that the application was slow, or
+ * attached to a crash report.
+ * 
+ * Each entry holds the method, host and path template of the Request (never
+ * its query or body), its status, how long it was queued, waiting for the
+ * first byte of the response, transferring, and in total, the bytes sent
+ * and received, whether it was served from a cache, and the type of its
+ * Exception, if any, taken without creating the Exception of a routine
+ * failure. The log is a ring of entries allocated up front and overwritten
+ * in place, so recording a Request allocates nothing and costs an atomic
+ * increment and an uncontended lock. Path templates are only computed when the log is read.
+ * 
+ * All methods of this class are thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class RequestLog {
+	
+	/**
+	 * The default number of entries kept.
+	 */
+	public static final int DEFAULT_CAPACITY = 128;
+	
+	private final Entry[] entries;
+	private final AtomicLong sequence;
+	private final PathTemplate pathTemplate;
+	
+	/**
+	 * Creates a log of the last DEFAULT_CAPACITY Requests.
+	 */
+	public RequestLog() {
+		this(DEFAULT_CAPACITY, PathTemplate.DEFAULT);
+	}
+	
+	/**
+	 * Creates a log of the last capacity Requests.
+	 * @param capacity the number of entries kept.
+	 * @param pathTemplate the PathTemplate of the paths logged.
+	 */
+	public RequestLog(int capacity, PathTemplate pathTemplate) {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive.");
+		}
+		if(pathTemplate == null) {
+			throw new NullPointerException("PathTemplate cannot be null.");
+		}
+		this.entries = new Entry[capacity];
+		for(int i = 0; i < capacity; i++) {
+			entries[i] = new Entry();
+		}
+		this.sequence = new AtomicLong();
+		this.pathTemplate = pathTemplate;
+	}
+	
+	/**
+	 * Records an executed Request. This is called by Call once the Response
+	 * has been read.
+	 * @param call the Call that executed the Request.
+	 * @param req the Request executed.
+	 * @param res the Response obtained.
+	 * @param nanos the time taken to execute the Request, in nanoseconds.
+	 * @param bytesIn the number of Response body bytes received.
+	 * @param bytesOut the number of Request body bytes sent.
+	 * @param cacheHit true if the Response was marked with
+	 * Response.setFromCache().
+	 */
+	public void record(Call call, Request req, Response res, long nanos, long bytesIn, long bytesOut,
+			boolean cacheHit) {
+		long seq = sequence.getAndIncrement();
+		Entry e = entries[(int) (seq % entries.length)];
+		long queue = call.getQueueNanos();
+		long wait = call.getWaitNanos();
+		long transfer = call.getTransferNanos();
+		Class<? extends Exception> error = res.getExceptionType();
+		synchronized(e) {
+			e.sequence = seq;
+			e.timeMillis = System.currentTimeMillis();
+			e.method = req.getMethod();
+			e.uri = req.getUri();
+			e.status = res.getStatusCode();
+			e.queueNanos = queue;
+			e.waitNanos = wait;
+			e.transferNanos = transfer;
+			e.durationNanos = nanos;
+			e.bytesIn = bytesIn;
+			e.bytesOut = bytesOut;
+			e.cacheHit = cacheHit || e.status == HttpURLConnection.HTTP_NOT_MODIFIED;
+			e.cancelled = res.isCancelled();
+			//Also typed with a status, since an observer may fail a 2xx Response.
+			e.error = error;
+			e.template = null;
+		}
+	}
+	
+	/**
+	 * Returns copies of the entries in the log, oldest first.
+	 * @return the entries.
+	 */
+	public List<Entry> snapshot() {
+		long end = sequence.get();
+		long start = Math.max(0, end - entries.length);
+		List<Entry> list = new ArrayList<Entry>((int) (end - start));
+		for(long seq = start; seq < end; seq++) {
+			Entry e = entries[(int) (seq % entries.length)];
+			Entry copy = new Entry();
+			synchronized(e) {
+				if(e.sequence != seq || e.uri == null) {
+					//Overwritten by a newer Request, or not yet written.
+					continue;
+				}
+				copy.copyFrom(e);
+			}
+			copy.template = copy.uri.getHost() + pathTemplate.template(copy.uri);
+			list.add(copy);
+		}
+		return list;
+	}
+	
+	/**
+	 * Writes the log to out, one entry per line, oldest first.
+	 * @param out the Writer to write to.
+	 * @throws IOException if writing fails.
+	 */
+	public void dump(Writer out) throws IOException {
+		for(Entry e : snapshot()) {
+			out.write(e.toString());
+			out.write('\n');
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Returns the log as text, one entry per line, oldest first, such as for
+	 * a crash report.
+	 * @return the log.
+	 */
+	public String dump() {
+		StringWriter out = new StringWriter();
+		try {
+			dump(out);
+		} catch (IOException impossible) {
+			//StringWriter does not throw.
+		}
+		return out.toString();
+	}
+	
+	/**
+	 * Returns the number of Requests recorded since this log was created,
+	 * including those overwritten.
+	 * @return the number of Requests recorded.
+	 */
+	public long getRecordedCount() {
+		return sequence.get();
+	}
+	
+	/**
+	 * A logged Request. Instances returned by snapshot() are copies and do
+	 * not change.
+	 */
+	public static final class Entry {
+		
+		private long sequence;
+		private long timeMillis;
+		private String method;
+		private URI uri;
+		private String template;
+		private int status;
+		private long queueNanos;
+		private long waitNanos;
+		private long transferNanos;
+		private long durationNanos;
+		private long bytesIn;
+		private long bytesOut;
+		private boolean cacheHit;
+		private boolean cancelled;
+		private Class<?> error;
+		
+		private Entry() {
+			this.sequence = -1;
+		}
+		
+		private void copyFrom(Entry e) {
+			sequence = e.sequence;
+			timeMillis = e.timeMillis;
+			method = e.method;
+			uri = e.uri;
+			status = e.status;
+			queueNanos = e.queueNanos;
+			waitNanos = e.waitNanos;
+			transferNanos = e.transferNanos;
+			durationNanos = e.durationNanos;
+			bytesIn = e.bytesIn;
+			bytesOut = e.bytesOut;
+			cacheHit = e.cacheHit;
+			cancelled = e.cancelled;
+			error = e.error;
+		}
+		
+		/**
+		 * Returns the wall clock time at which the Request finished.
+		 * @return the time in milliseconds since the epoch.
+		 */
+		public long getTimeMillis() {
+			return timeMillis;
+		}
+		
+		/**
+		 * Returns the method of the Request.
+		 * @return the method.
+		 */
+		public String getMethod() {
+			return method;
+		}
+		
+		/**
+		 * Returns the host and path template of the Request.
+		 * @return the endpoint of the Request.
+		 */
+		public String getEndpoint() {
+			return template;
+		}
+		
+		/**
+		 * Returns the status code of the Response.
+		 * @return the status code, or -1 if there was none.
+		 */
+		public int getStatus() {
+			return status;
+		}
+		
+		/**
+		 * Returns the time the Request was queued before it started executing.
+		 * @return the time in nanoseconds.
+		 */
+		public long getQueueNanos() {
+			return queueNanos;
+		}
+		
+		/**
+		 * Returns the time to first byte, from the Request reaching the
+		 * Transport until the response headers were received, as given by
+		 * Call.getWaitNanos().
+		 * @return the time in nanoseconds, or -1 if the Request did not
+		 * reach the network.
+		 */
+		public long getWaitNanos() {
+			return waitNanos;
+		}
+		
+		/**
+		 * Returns the time taken to receive the response body.
+		 * @return the time in nanoseconds, or -1 if there was none.
+		 */
+		public long getTransferNanos() {
+			return transferNanos;
+		}
+		
+		/**
+		 * Returns the total time taken to execute the Request and read its
+		 * response body.
+		 * @return the time in nanoseconds.
+		 */
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+		
+		/**
+		 * Returns the number of response body bytes received.
+		 * @return the number of bytes received.
+		 */
+		public long getBytesIn() {
+			return bytesIn;
+		}
+		
+		/**
+		 * Returns the number of Request body bytes sent.
+		 * @return the number of bytes sent.
+		 */
+		public long getBytesOut() {
+			return bytesOut;
+		}
+		
+		/**
+		 * Returns whether the Response was served from a cache, or revalidated
+		 * with a 304 Not Modified.
+		 * @return true if the Request was a cache hit.
+		 */
+		public boolean isCacheHit() {
+			return cacheHit;
+		}
+		
+		/**
+		 * Returns whether the Request was cancelled.
+		 * @return true if the Request was cancelled.
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+		
+		/**
+		 * Returns the type of the Exception the Request failed with, including
+		 * an HttpException or RequestCancelledException, and an Exception
+		 * failing a 2xx Response such as a DigestMismatchException.
+		 * @return the type of the Exception, or null if there was none.
+		 */
+		public Class<?> getError() {
+			return error;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(128);
+			sb.append(timeMillis).append(' ').append(method).append(' ').append(template)
+					.append(" status=").append(status)
+					.append(" total=").append(durationNanos / 1000000).append("ms")
+					.append(" queue=").append(queueNanos / 1000000).append("ms")
+					.append(" wait=").append(waitNanos < 0 ? -1 : waitNanos / 1000000).append("ms")
+					.append(" transfer=").append(transferNanos < 0 ? -1 : transferNanos / 1000000).append("ms")
+					.append(" in=").append(bytesIn).append(" out=").append(bytesOut);
+			if(cacheHit) {
+				sb.append(" cache");
+			}
+			if(cancelled) {
+				sb.append(" cancelled");
+			}
+			if(error != null) {
+				sb.append(" error=").append(error.getName());
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.ericelsken.android.web.policy;
+
+import android.os.SystemClock;
+
+/**
+ * The circuit breaker state of a single host, kept by a
+ * CircuitBreakerInterceptor. The outcomes of the most recent Requests are
+ * kept in a fixed-size ring. Once the ring holds enough outcomes and either
+ * the failure rate or the slow call rate reaches its threshold, the circuit
+ * opens and Requests fail fast. After the open duration, a limited number of
+ * trial Requests are let through (half-open); if they all succeed the circuit
+ * closes, and if any fails it opens again.
+ * 
+ * All methods of this class are thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class CircuitBreaker {
+	
+	/**
+	 * The state of a CircuitBreaker.
+	 */
+	public enum State {
+		/**
+		 * Requests are executed and their outcomes recorded.
+		 */
+		CLOSED,
+		/**
+		 * Requests fail fast without being executed.
+		 */
+		OPEN,
+		/**
+		 * A limited number of trial Requests are executed.
+		 */
+		HALF_OPEN
+	}
+	
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+	
+	private final CircuitBreakerInterceptor config;
+	private final byte[] outcomes;
+	private int next;
+	private int recorded;
+	private int failures;
+	private int slowCalls;
+	
+	private State state;
+	private long openedAt;
+	private int trialsStarted;
+	private int trialsSucceeded;
+	
+	CircuitBreaker(CircuitBreakerInterceptor config) {
+		this.config = config;
+		this.outcomes = new byte[config.getWindowSize()];
+		this.state = State.CLOSED;
+	}
+	
+	/**
+	 * Returns the current state of this circuit.
+	 * @return the current state.
+	 */
+	public synchronized State getState() {
+		if(state == State.OPEN && remainingOpen(SystemClock.elapsedRealtime()) == 0) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+	
+	/**
+	 * Attempts to acquire permission to execute a Request.
+	 * @return 0 if the Request may be executed, or the number of milliseconds
+	 * until the circuit lets a trial Request through.
+	 */
+	synchronized long tryAcquire() {
+		if(state == State.CLOSED) {
+			return 0;
+		}
+		long now = SystemClock.elapsedRealtime();
+		if(state == State.OPEN) {
+			long remaining = remainingOpen(now);
+			if(remaining > 0) {
+				return remaining;
+			}
+			state = State.HALF_OPEN;
+			trialsStarted = 0;
+			trialsSucceeded = 0;
+		}
+		if(trialsStarted < config.getHalfOpenTrials()) {
+			trialsStarted++;
+			return 0;
+		}
+		//All trials are in flight; wait for their outcomes.
+		return Math.max(1, config.getOpenDuration() / 10);
+	}
+	
+	/**
+	 * Records the outcome of a Request that was permitted by tryAcquire().
+	 * @param failed true if the Request failed.
+	 * @param millis the time taken by the Request.
+	 */
+	synchronized void record(boolean failed, long millis) {
+		boolean slow = millis >= config.getSlowCallDuration();
+		if(state == State.HALF_OPEN) {
+			if(failed || slow) {
+				open();
+			} else if(++trialsSucceeded >= config.getHalfOpenTrials()) {
+				close();
+			}
+			return;
+		}
+		if(state == State.OPEN) {
+			//A Request permitted before the circuit opened.
+			return;
+		}
+		byte outcome = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+		if(recorded == outcomes.length) {
+			byte old = outcomes[next];
+			if((old & FAILED) != 0) {
+				failures--;
+			}
+			if((old & SLOW) != 0) {
+				slowCalls--;
+			}
+		} else {
+			recorded++;
+		}
+		outcomes[next] = outcome;
+		next = (next + 1) % outcomes.length;
+		if(failed) {
+			failures++;
+		}
+		if(slow) {
+			slowCalls++;
+		}
+		if(recorded >= config.getMinimumCalls()
+				&& (failures >= config.getFailureRateThreshold() * recorded
+				|| slowCalls >= config.getSlowCallRateThreshold() * recorded)) {
+			open();
+		}
+	}
+	
+	/**
+	 * Releases a permit acquired for a trial Request whose outcome says
+	 * nothing about the host, i.e. one that was cancelled or rejected
+	 * locally.
+	 */
+	synchronized void release() {
+		if(state == State.HALF_OPEN && trialsStarted > 0) {
+			trialsStarted--;
+		}
+	}
+	
+	private long remainingOpen(long now) {
+		return Math.max(0, openedAt + config.getOpenDuration() - now);
+	}
+	
+	private void open() {
+		state = State.OPEN;
+		openedAt = SystemClock.elapsedRealtime();
+	}
+	
+	private void close() {
+		state = State.CLOSED;
+		next = 0;
+		recorded = 0;
+		failures = 0;
+		slowCalls = 0;
+	}
+}
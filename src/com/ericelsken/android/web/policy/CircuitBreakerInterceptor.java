@@ -0,0 +1,258 @@
+package com.ericelsken.android.web.policy;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.ericelsken.android.web.CircuitOpenException;
+import com.ericelsken.android.web.Interceptor;
+import com.ericelsken.android.web.Response;
+
+/**
+ * An Interceptor that keeps a CircuitBreaker per host. While the circuit of a
+ * host is open, Requests to it are not executed and instead immediately
+ * return a Response holding a CircuitOpenException, which RequestHandler
+ * delivers to RequestCallbacks.onRequestException(). This keeps a degraded
+ * backend from tying up threads with Requests that would time out, and gives
+ * it room to recover.
+ * 
+ * A Request counts as failed if it reached the Transport and failed without a
+ * status code with an IOException (i.e. a connection failure or timeout), or
+ * has a 5xx status code; other status codes are the backend working as
+ * intended. A Request counts as slow if it takes at least
+ * getSlowCallDuration() milliseconds. Cancelled Calls and Requests rejected
+ * locally by Interceptors registered after this one, such as a
+ * RateLimitException or RequestShedException, are not counted.
+ * 
+ * The thresholds must be set before the interceptor is registered with
+ * RequestManager.addInterceptor(). All other methods are thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class CircuitBreakerInterceptor implements Interceptor {
+	
+	private final ConcurrentMap<String, CircuitBreaker> mBreakers;
+	private int mWindowSize;
+	private int mMinimumCalls;
+	private float mFailureRateThreshold;
+	private float mSlowCallRateThreshold;
+	private long mSlowCallDuration;
+	private long mOpenDuration;
+	private int mHalfOpenTrials;
+	
+	/**
+	 * Create a new interceptor with the default thresholds: the circuit opens
+	 * once half of at least the last 10 of 20 Requests failed, or all of them
+	 * took 10 seconds or more, stays open for 30 seconds, and closes after 1
+	 * successful trial Request.
+	 */
+	public CircuitBreakerInterceptor() {
+		mBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+		mWindowSize = 20;
+		mMinimumCalls = 10;
+		mFailureRateThreshold = 0.5f;
+		mSlowCallRateThreshold = 1f;
+		mSlowCallDuration = 10 * 1000;
+		mOpenDuration = 30 * 1000;
+		mHalfOpenTrials = 1;
+	}
+	
+	@Override
+	public Response intercept(Chain chain) {
+		String host = chain.request().getUri().getHost();
+		if(host == null) {
+			return chain.proceed(chain.request());
+		}
+		CircuitBreaker breaker = breakerOf(host);
+		long wait = breaker.tryAcquire();
+		if(wait > 0) {
+			return new Response(-1, null, null, null, new CircuitOpenException(host, wait));
+		}
+		long start = System.nanoTime();
+		Response res = chain.proceed(chain.request());
+		long millis = (System.nanoTime() - start) / 1000000;
+		int status = res.getStatusCode();
+		if(chain.call().isCanceled() || res.isCancelled()
+				|| (status == -1 && !isTransportFailure(chain, res))) {
+			breaker.release();
+		} else {
+			breaker.record(status == -1 || status / 100 == 5, millis);
+		}
+		return res;
+	}
+	
+	private static boolean isTransportFailure(Chain chain, Response res) {
+		Class<? extends Exception> type = res.getExceptionType();
+		return chain.call().getNetworkNanos() != 0 && type != null
+				&& IOException.class.isAssignableFrom(type);
+	}
+	
+	/**
+	 * Returns the CircuitBreaker of the given host, creating it if needed.
+	 * @param host the host.
+	 * @return the CircuitBreaker of host.
+	 */
+	public CircuitBreaker breakerOf(String host) {
+		CircuitBreaker breaker = mBreakers.get(host);
+		if(breaker == null) {
+			breaker = new CircuitBreaker(this);
+			CircuitBreaker existing = mBreakers.putIfAbsent(host, breaker);
+			if(existing != null) {
+				breaker = existing;
+			}
+		}
+		return breaker;
+	}
+	
+	/**
+	 * Closes all circuits, forgetting all recorded outcomes.
+	 */
+	public void reset() {
+		mBreakers.clear();
+	}
+	
+	/**
+	 * Returns the number of most recent Requests whose outcomes are considered.
+	 * @return the size of the window.
+	 */
+	public int getWindowSize() {
+		return mWindowSize;
+	}
+	
+	/**
+	 * Sets the number of most recent Requests whose outcomes are considered.
+	 * @param windowSize the size of the window.
+	 */
+	public void setWindowSize(int windowSize) {
+		if(windowSize < 1) {
+			throw new IllegalArgumentException("windowSize must be positive.");
+		}
+		mWindowSize = windowSize;
+		mMinimumCalls = Math.min(mMinimumCalls, windowSize);
+	}
+	
+	/**
+	 * Returns the number of outcomes that must be recorded before the circuit
+	 * may open.
+	 * @return the minimum number of outcomes.
+	 */
+	public int getMinimumCalls() {
+		return mMinimumCalls;
+	}
+	
+	/**
+	 * Sets the number of outcomes that must be recorded before the circuit
+	 * may open.
+	 * @param minimumCalls the minimum number of outcomes, at most the window
+	 * size.
+	 */
+	public void setMinimumCalls(int minimumCalls) {
+		if(minimumCalls < 1 || minimumCalls > mWindowSize) {
+			throw new IllegalArgumentException("minimumCalls must be between 1 and the window size.");
+		}
+		mMinimumCalls = minimumCalls;
+	}
+	
+	/**
+	 * Returns the fraction of failed Requests in the window at which the
+	 * circuit opens.
+	 * @return the failure rate threshold.
+	 */
+	public float getFailureRateThreshold() {
+		return mFailureRateThreshold;
+	}
+	
+	/**
+	 * Sets the fraction of failed Requests in the window at which the circuit
+	 * opens.
+	 * @param threshold the failure rate, greater than 0 and at most 1.
+	 */
+	public void setFailureRateThreshold(float threshold) {
+		if(threshold <= 0 || threshold > 1) {
+			throw new IllegalArgumentException("threshold must be in (0, 1].");
+		}
+		mFailureRateThreshold = threshold;
+	}
+	
+	/**
+	 * Returns the fraction of slow Requests in the window at which the circuit
+	 * opens.
+	 * @return the slow call rate threshold.
+	 */
+	public float getSlowCallRateThreshold() {
+		return mSlowCallRateThreshold;
+	}
+	
+	/**
+	 * Sets the fraction of slow Requests in the window at which the circuit
+	 * opens.
+	 * @param threshold the slow call rate, greater than 0 and at most 1.
+	 */
+	public void setSlowCallRateThreshold(float threshold) {
+		if(threshold <= 0 || threshold > 1) {
+			throw new IllegalArgumentException("threshold must be in (0, 1].");
+		}
+		mSlowCallRateThreshold = threshold;
+	}
+	
+	/**
+	 * Returns the duration at or above which a Request counts as slow.
+	 * @return the duration in milliseconds.
+	 */
+	public long getSlowCallDuration() {
+		return mSlowCallDuration;
+	}
+	
+	/**
+	 * Sets the duration at or above which a Request counts as slow.
+	 * @param millis the duration in milliseconds.
+	 */
+	public void setSlowCallDuration(long millis) {
+		if(millis <= 0) {
+			throw new IllegalArgumentException("millis must be positive.");
+		}
+		mSlowCallDuration = millis;
+	}
+	
+	/**
+	 * Returns how long an open circuit fails fast before letting trial Requests
+	 * through.
+	 * @return the duration in milliseconds.
+	 */
+	public long getOpenDuration() {
+		return mOpenDuration;
+	}
+	
+	/**
+	 * Sets how long an open circuit fails fast before letting trial Requests
+	 * through.
+	 * @param millis the duration in milliseconds.
+	 */
+	public void setOpenDuration(long millis) {
+		if(millis <= 0) {
+			throw new IllegalArgumentException("millis must be positive.");
+		}
+		mOpenDuration = millis;
+	}
+	
+	/**
+	 * Returns the number of trial Requests let through a half-open circuit.
+	 * @return the number of trial Requests.
+	 */
+	public int getHalfOpenTrials() {
+		return mHalfOpenTrials;
+	}
+	
+	/**
+	 * Sets the number of trial Requests let through a half-open circuit, all
+	 * of which must succeed for the circuit to close.
+	 * @param trials the number of trial Requests.
+	 */
+	public void setHalfOpenTrials(int trials) {
+		if(trials < 1) {
+			throw new IllegalArgumentException("trials must be positive.");
+		}
+		mHalfOpenTrials = trials;
+	}
+}
@@ -0,0 +1,119 @@
+package com.ericelsken.android.web.policy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ericelsken.android.web.Interceptor;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.RequestShedException;
+import com.ericelsken.android.web.Response;
+
+/**
+ * An Interceptor that caps the number of Requests in flight to each host.
+ * Once a host has getMaxConcurrent() Requests in flight, further
+ * Request.PRIORITY_NORMAL Requests are shed; Request.PRIORITY_LOW Requests are
+ * shed earlier, once getLowPriorityLimit() are in flight. Request.PRIORITY_HIGH
+ * Requests are never shed. A shed Request is not executed and instead returns
+ * a Response holding a RequestShedException, which RequestHandler delivers to
+ * RequestCallbacks.onRequestException().
+ * 
+ * Register this interceptor before a CircuitBreakerInterceptor so that shed
+ * Requests do not count against the circuit.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class LoadSheddingInterceptor implements Interceptor {
+	
+	private final ConcurrentMap<String, AtomicInteger> mInFlight;
+	private final int mMaxConcurrent;
+	private final int mLowPriorityLimit;
+	
+	/**
+	 * Create a new interceptor that sheds normal priority Requests once
+	 * maxConcurrent are in flight to a host, and low priority Requests once
+	 * half as many are.
+	 * @param maxConcurrent the maximum number of normal priority Requests in
+	 * flight per host.
+	 */
+	public LoadSheddingInterceptor(int maxConcurrent) {
+		this(maxConcurrent, Math.max(1, maxConcurrent / 2));
+	}
+	
+	/**
+	 * Create a new interceptor with the given limits.
+	 * @param maxConcurrent the maximum number of normal priority Requests in
+	 * flight per host.
+	 * @param lowPriorityLimit the maximum number of low priority Requests in
+	 * flight per host, at most maxConcurrent.
+	 */
+	public LoadSheddingInterceptor(int maxConcurrent, int lowPriorityLimit) {
+		if(maxConcurrent < 1 || lowPriorityLimit < 1 || lowPriorityLimit > maxConcurrent) {
+			throw new IllegalArgumentException("Limits must satisfy 1 <= lowPriorityLimit <= maxConcurrent.");
+		}
+		mInFlight = new ConcurrentHashMap<String, AtomicInteger>();
+		mMaxConcurrent = maxConcurrent;
+		mLowPriorityLimit = lowPriorityLimit;
+	}
+
+	@Override
+	public Response intercept(Chain chain) {
+		Request req = chain.request();
+		String host = req.getUri().getHost();
+		if(host == null) {
+			return chain.proceed(req);
+		}
+		AtomicInteger inFlight = inFlightOf(host);
+		int count = inFlight.incrementAndGet();
+		try {
+			int priority = req.getPriority();
+			if((priority == Request.PRIORITY_LOW && count > mLowPriorityLimit)
+					|| (priority == Request.PRIORITY_NORMAL && count > mMaxConcurrent)) {
+				return new Response(-1, null, null, null, new RequestShedException(host, priority));
+			}
+			return chain.proceed(req);
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+	
+	private AtomicInteger inFlightOf(String host) {
+		AtomicInteger count = mInFlight.get(host);
+		if(count == null) {
+			count = new AtomicInteger();
+			AtomicInteger existing = mInFlight.putIfAbsent(host, count);
+			if(existing != null) {
+				count = existing;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of Requests currently in flight to host.
+	 * @param host the host.
+	 * @return the number of Requests in flight.
+	 */
+	public int getInFlight(String host) {
+		AtomicInteger count = mInFlight.get(host);
+		return count == null ? 0 : count.get();
+	}
+	
+	/**
+	 * Returns the maximum number of normal priority Requests in flight per
+	 * host.
+	 * @return the maximum number of Requests in flight.
+	 */
+	public int getMaxConcurrent() {
+		return mMaxConcurrent;
+	}
+	
+	/**
+	 * Returns the maximum number of low priority Requests in flight per host.
+	 * @return the maximum number of low priority Requests in flight.
+	 */
+	public int getLowPriorityLimit() {
+		return mLowPriorityLimit;
+	}
+}
@@ -0,0 +1,334 @@
+package com.ericelsken.android.web.policy;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Interceptor;
+import com.ericelsken.android.web.RateLimitException;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+
+/**
+ * An Interceptor that limits how fast Requests are made to a host, or to
+ * paths under a host, with token buckets. Each limit allows a number of
+ * permits per period, with bursts of up to a given number of permits. A
+ * Request is subject to the most specific limit whose host and path prefix
+ * match it; a limit without a host applies to each host separately.
+ * 
+ * A Request that would exceed its limit is not executed and instead returns a
+ * Response holding a RateLimitException, which RequestHandler delivers to
+ * RequestCallbacks.onRequestException(). Dispatchers that hold their own queue
+ * can call getDelay() to learn how long to hold a Request before executing it.
+ * 
+ * setMaxWait() makes such Requests wait for a permit instead, for up to the
+ * given number of milliseconds, by sleeping in the thread executing them. Only
+ * do this when the limited Requests run on a dedicated Executor: RequestHandler
+ * executes on AsyncTask's serial executor, where one throttled host would
+ * stall every other Request and AsyncTask of the application.
+ * 
+ * Limits adapt to the Responses of the server: a 429 or 503 Response with a
+ * Retry-After header pauses the limit for that long, and the
+ * RateLimit-Remaining and RateLimit-Reset headers (with or without an X-
+ * prefix) lower the available permits, pausing the limit until the reset once
+ * none remain. Only Requests subject to a limit adapt it.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class RateLimitInterceptor implements Interceptor {
+	
+	/**
+	 * The longest a queued Request sleeps before checking whether its Call was
+	 * cancelled.
+	 */
+	private static final long CANCEL_CHECK_MILLIS = 100;
+	
+	private volatile Limit[] mLimits;
+	private volatile long mMaxWait;
+	
+	/**
+	 * Create a new interceptor without any limits that rejects Requests over
+	 * their limit without waiting.
+	 */
+	public RateLimitInterceptor() {
+		mLimits = new Limit[0];
+		mMaxWait = 0;
+	}
+	
+	/**
+	 * Adds a limit allowing bursts of up to permits Requests.
+	 * @see #addLimit(String, String, int, long, int)
+	 */
+	public void addLimit(String host, String pathPrefix, int permits, long periodMillis) {
+		addLimit(host, pathPrefix, permits, periodMillis, permits);
+	}
+	
+	/**
+	 * Adds a limit on the Requests made to host under pathPrefix.
+	 * @param host the host to limit, or null to limit each host separately.
+	 * @param pathPrefix the path prefix to limit, or null to limit all paths.
+	 * @param permits the number of Requests allowed per period.
+	 * @param periodMillis the period in milliseconds.
+	 * @param burst the number of Requests that may be made at once after the
+	 * limit has been idle.
+	 * @throws IllegalArgumentException if permits, periodMillis, or burst is
+	 * not positive.
+	 */
+	public synchronized void addLimit(String host, String pathPrefix, int permits, long periodMillis, int burst) {
+		if(permits < 1 || periodMillis < 1 || burst < 1) {
+			throw new IllegalArgumentException("permits, periodMillis, and burst must be positive.");
+		}
+		Limit[] limits = new Limit[mLimits.length + 1];
+		System.arraycopy(mLimits, 0, limits, 0, mLimits.length);
+		limits[mLimits.length] = new Limit(host, pathPrefix == null ? "" : pathPrefix,
+				permits, TimeUnit.MILLISECONDS.toNanos(periodMillis), burst);
+		mLimits = limits;
+	}
+	
+	/**
+	 * Removes all limits.
+	 */
+	public synchronized void clearLimits() {
+		mLimits = new Limit[0];
+	}
+	
+	/**
+	 * Returns the longest a Request waits for a permit before being rejected.
+	 * @return the max wait in milliseconds.
+	 */
+	public long getMaxWait() {
+		return mMaxWait;
+	}
+	
+	/**
+	 * Sets the longest a Request waits for a permit before being rejected. The
+	 * wait blocks the executing thread, so a max wait other than 0 must only
+	 * be used with Requests executed on a dedicated Executor.
+	 * @param millis the max wait in milliseconds, or 0 to never wait.
+	 */
+	public void setMaxWait(long millis) {
+		if(millis < 0) {
+			throw new IllegalArgumentException("millis cannot be negative.");
+		}
+		mMaxWait = millis;
+	}
+	
+	/**
+	 * Returns how long req would currently wait for a permit, without taking
+	 * one.
+	 * @param req the Request.
+	 * @return the wait in milliseconds, which is 0 if a permit is available or
+	 * req is not subject to any limit.
+	 */
+	public long getDelay(Request req) {
+		TokenBucket bucket = bucketOf(req);
+		if(bucket == null) {
+			return 0;
+		}
+		synchronized(bucket) {
+			return TimeUnit.NANOSECONDS.toMillis(bucket.waitNanos(System.nanoTime()));
+		}
+	}
+
+	@Override
+	public Response intercept(Chain chain) {
+		Request req = chain.request();
+		TokenBucket bucket = bucketOf(req);
+		if(bucket == null) {
+			return chain.proceed(req);
+		}
+		long wait;
+		synchronized(bucket) {
+			long now = System.nanoTime();
+			wait = bucket.waitNanos(now);
+			if(wait > TimeUnit.MILLISECONDS.toNanos(mMaxWait)) {
+				return new Response(-1, null, null, null, new RateLimitException(
+						req.getUri().getHost(), TimeUnit.NANOSECONDS.toMillis(wait)));
+			}
+			bucket.take(now);
+		}
+		if(wait > 0 && !await(chain.call(), wait)) {
+			synchronized(bucket) {
+				bucket.giveBack();
+			}
+			return Response.cancelled();
+		}
+		Response res = chain.proceed(req);
+		adapt(bucket, res);
+		return res;
+	}
+	
+	/**
+	 * Sleeps for the given number of nanoseconds.
+	 * @return false if call was cancelled or the thread interrupted first.
+	 */
+	private boolean await(Call call, long nanos) {
+		long end = System.nanoTime() + nanos;
+		try {
+			for(long left = nanos; left > 0; left = end - System.nanoTime()) {
+				if(call.isCanceled()) {
+					return false;
+				}
+				Thread.sleep(Math.min(CANCEL_CHECK_MILLIS, TimeUnit.NANOSECONDS.toMillis(left) + 1));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return !call.isCanceled();
+	}
+	
+	/**
+	 * Applies the rate limit headers of res to bucket.
+	 */
+	private void adapt(TokenBucket bucket, Response res) {
+		long now = System.nanoTime();
+		int status = res.getStatusCode();
+		if(status == 429 || status == 503) {
+			long retryAfter = parseRetryAfter(res.getHeaderField("Retry-After"));
+			if(retryAfter > 0) {
+				synchronized(bucket) {
+					bucket.pauseUntil(now, now + TimeUnit.MILLISECONDS.toNanos(retryAfter));
+				}
+				return;
+			}
+		}
+		long remaining = parseLong(header(res, "RateLimit-Remaining"));
+		if(remaining < 0) {
+			return;
+		}
+		synchronized(bucket) {
+			if(remaining > 0) {
+				bucket.limit(now, remaining);
+				return;
+			}
+			long reset = parseLong(header(res, "RateLimit-Reset"));
+			if(reset > 0) {
+				//Large values are epoch seconds rather than seconds from now.
+				long seconds = reset > 1000000000L ? reset - System.currentTimeMillis() / 1000 : reset;
+				bucket.pauseUntil(now, now + TimeUnit.SECONDS.toNanos(Math.max(0, seconds)));
+			} else {
+				bucket.limit(now, 0);
+			}
+		}
+	}
+	
+	private static String header(Response res, String name) {
+		String value = res.getHeaderField(name);
+		return value != null ? value : res.getHeaderField("X-" + name);
+	}
+	
+	private static long parseLong(String value) {
+		if(value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Parses a Retry-After header, which holds either seconds or an HTTP-date.
+	 * @return the number of milliseconds to wait, or -1 if value is missing or
+	 * malformed.
+	 */
+	private static long parseRetryAfter(String value) {
+		long seconds = parseLong(value);
+		if(seconds >= 0 || value == null) {
+			return seconds * 1000;
+		}
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			Date date = format.parse(value.trim());
+			return Math.max(0, date.getTime() - System.currentTimeMillis());
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+	
+	private TokenBucket bucketOf(Request req) {
+		String host = req.getUri().getHost();
+		String path = req.getUri().getRawPath();
+		if(host == null) {
+			return null;
+		}
+		if(path == null) {
+			path = "";
+		}
+		Limit best = null;
+		int bestScore = -1;
+		for(Limit limit : mLimits) {
+			if((limit.host != null && !limit.host.equalsIgnoreCase(host))
+					|| !path.startsWith(limit.pathPrefix)) {
+				continue;
+			}
+			//A matching host outweighs any path prefix.
+			int score = (limit.host != null ? 1 << 16 : 0) + limit.pathPrefix.length();
+			if(score > bestScore) {
+				best = limit;
+				bestScore = score;
+			}
+		}
+		return best == null ? null : best.bucketOf(host.toLowerCase(Locale.US));
+	}
+	
+	/**
+	 * A configured limit and the buckets of the hosts it applies to.
+	 */
+	private static class Limit {
+		
+		private final String host;
+		private final String pathPrefix;
+		private final int permits;
+		private final long periodNanos;
+		private final int burst;
+		private final ConcurrentMap<String, TokenBucket> buckets;
+		
+		private Limit(String host, String pathPrefix, int permits, long periodNanos, int burst) {
+			this.host = host;
+			this.pathPrefix = pathPrefix;
+			this.permits = permits;
+			this.periodNanos = periodNanos;
+			this.burst = burst;
+			this.buckets = new ConcurrentHashMap<String, TokenBucket>();
+		}
+		
+		private TokenBucket bucketOf(String host) {
+			TokenBucket bucket = buckets.get(host);
+			if(bucket == null) {
+				bucket = new TokenBucket(permits, periodNanos, burst);
+				TokenBucket existing = buckets.putIfAbsent(host, bucket);
+				if(existing != null) {
+					bucket = existing;
+				}
+			}
+			return bucket;
+		}
+	}
+	
+	/**
+	 * Returns the hosts and path prefixes of the configured limits, for
+	 * debugging.
+	 */
+	@Override
+	public String toString() {
+		List<String> names = new ArrayList<String>();
+		for(Limit limit : mLimits) {
+			names.add((limit.host == null ? "*" : limit.host) + limit.pathPrefix
+					+ " " + limit.permits + "/" + TimeUnit.NANOSECONDS.toMillis(limit.periodNanos) + "ms");
+		}
+		return "RateLimitInterceptor" + names;
+	}
+}
@@ -0,0 +1,81 @@
+package com.ericelsken.android.web.policy;
+
+/**
+ * A token bucket holding up to a burst of permits that refill at a steady
+ * rate. Permits may be reserved ahead of time, driving the token count below
+ * zero, so that queued Requests are spaced out at the refill rate instead of
+ * all waking at once. The server may pause the bucket, or lower its tokens,
+ * through the rate limit headers of its Responses.
+ * 
+ * Callers must hold the lock of the bucket around calls to its methods.
+ * 
+ * @author Eric Elsken
+ *
+ */
+class TokenBucket {
+	
+	private final double capacity;
+	private final double perNano;
+	private double tokens;
+	private long last;
+	private long blockedUntil;
+	
+	TokenBucket(int permits, long periodNanos, int burst) {
+		this.capacity = burst;
+		this.perNano = (double) permits / periodNanos;
+		this.tokens = burst;
+		this.last = System.nanoTime();
+		this.blockedUntil = last;
+	}
+	
+	/**
+	 * Returns the number of nanoseconds from now until a permit is available.
+	 */
+	long waitNanos(long now) {
+		refill(now);
+		long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / perNano);
+		return Math.max(wait, blockedUntil - now);
+	}
+	
+	/**
+	 * Takes a permit, which may not be available until waitNanos().
+	 */
+	void take(long now) {
+		refill(now);
+		tokens -= 1;
+	}
+	
+	/**
+	 * Returns a permit taken by a Request that did not execute.
+	 */
+	void giveBack() {
+		tokens = Math.min(capacity, tokens + 1);
+	}
+	
+	/**
+	 * Hands out no permits until the given time.
+	 */
+	void pauseUntil(long now, long until) {
+		refill(now);
+		if(until - blockedUntil > 0) {
+			blockedUntil = until;
+		}
+		tokens = Math.min(tokens, 0);
+	}
+	
+	/**
+	 * Limits the available permits to the number the server says remain.
+	 */
+	void limit(long now, long remaining) {
+		refill(now);
+		tokens = Math.min(tokens, remaining);
+	}
+	
+	private void refill(long now) {
+		long from = blockedUntil - last > 0 ? blockedUntil : last;
+		if(now - from > 0) {
+			tokens = Math.min(capacity, tokens + (now - from) * perNano);
+		}
+		last = now;
+	}
+}
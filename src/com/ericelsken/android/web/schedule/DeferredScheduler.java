@@ -0,0 +1,415 @@
+package com.ericelsken.android.web.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Interceptor;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.RequestManager;
+import com.ericelsken.android.web.Response;
+import com.ericelsken.android.web.async.RequestFuture;
+
+/**
+ * Holds deferrable Requests, such as analytics and sync uploads, until the
+ * device meets a set of conditions, then executes all of them together in one
+ * burst so that the cellular radio is woken once for the whole batch rather
+ * than once per Request.
+ * 
+ * The conditions are any combination of REQUIRE_UNMETERED (connected to Wi-Fi
+ * or another unmetered network), REQUIRE_CHARGING (plugged in), and
+ * REQUIRE_IDLE (the screen is off). Regardless of the conditions, a network
+ * connection is always required, and once the oldest Request has waited
+ * getMaxDelay() milliseconds the batch is executed as soon as there is any
+ * connection. The max delay is measured in elapsed real time, including deep
+ * sleep, and its deadline is scheduled with a non-waking AlarmManager alarm,
+ * so an idle device runs the batch the next time it wakes up rather than
+ * being woken for it. Held Requests live in memory and are lost if the
+ * process dies.
+ * 
+ * Since the radio is already awake whenever the application makes other
+ * Requests, registering getPiggybackInterceptor() with RequestManager
+ * executes the held Requests right after any Request that reached the
+ * network, if the connection is unmetered or REQUIRE_UNMETERED is not set.
+ * 
+ * The state of the device is followed with broadcasts that are only
+ * registered while Requests are held. The application MUST hold the
+ * android.permission.ACCESS_NETWORK_STATE permission. enqueue() may be called
+ * from any thread; the other methods MUST be called on the main-UI thread.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class DeferredScheduler {
+	
+	/**
+	 * Requires an unmetered network, such as Wi-Fi.
+	 */
+	public static final int REQUIRE_UNMETERED = 1;
+	
+	/**
+	 * Requires the device to be plugged in.
+	 */
+	public static final int REQUIRE_CHARGING = 2;
+	
+	/**
+	 * Requires the device to be idle, i.e. its screen to be off.
+	 */
+	public static final int REQUIRE_IDLE = 4;
+	
+	/**
+	 * The default longest time a Request is held: 6 hours.
+	 */
+	public static final long DEFAULT_MAX_DELAY = 6 * 60 * 60 * 1000L;
+	
+	private static final String ACTION_DEADLINE = "com.ericelsken.android.web.schedule.DEADLINE.";
+	
+	private static final AtomicInteger sNextId = new AtomicInteger();
+	
+	private final Context mContext;
+	private final String mDeadlineAction;
+	private final Handler mHandler;
+	private final Receiver mReceiver;
+	private final List<Pending> mPending;
+	private volatile int mConstraints;
+	private volatile long mMaxDelay;
+	private Executor mExecutor;
+	private boolean mRegistered;
+	private PendingIntent mDeadline;
+	private volatile boolean mCharging;
+	private volatile boolean mScreenOn;
+	
+	private final Runnable mCheck = new Runnable() {
+		@Override
+		public void run() {
+			check();
+		}
+	};
+	
+	/**
+	 * Creates a new scheduler that requires an unmetered network and holds
+	 * Requests for at most DEFAULT_MAX_DELAY milliseconds.
+	 * @param context any Context; its application Context is used.
+	 */
+	public DeferredScheduler(Context context) {
+		mContext = context.getApplicationContext();
+		mHandler = new Handler(Looper.getMainLooper());
+		mReceiver = new Receiver();
+		//Unique to this instance, so that schedulers do not trigger each other.
+		mDeadlineAction = ACTION_DEADLINE + sNextId.incrementAndGet();
+		mPending = new ArrayList<Pending>();
+		mConstraints = REQUIRE_UNMETERED;
+		mMaxDelay = DEFAULT_MAX_DELAY;
+		mExecutor = null;
+		mRegistered = false;
+		mDeadline = null;
+		mCharging = false;
+		mScreenOn = true;
+	}
+	
+	/**
+	 * Holds req until the conditions of this scheduler are met or it has
+	 * waited getMaxDelay() milliseconds, then executes it with the rest of the
+	 * batch.
+	 * @param req the Request to defer.
+	 * @return a RequestFuture of the Response of req. Cancelling it drops req
+	 * from the batch.
+	 */
+	public RequestFuture<Response> enqueue(Request req) {
+		if(req == null) {
+			throw new NullPointerException("Request cannot be null.");
+		}
+		Call call = req.newCall();
+		Pending pending = new Pending(call, SystemClock.elapsedRealtime());
+		//The Call is only handed to the real Executor once its batch runs.
+		RequestFuture<Response> future = RequestFuture.execute(call, pending);
+		synchronized(mPending) {
+			mPending.add(pending);
+		}
+		mHandler.post(mCheck);
+		return future;
+	}
+	
+	/**
+	 * Executes every held Request now, regardless of the conditions.
+	 */
+	public void flush() {
+		List<Pending> batch;
+		synchronized(mPending) {
+			batch = new ArrayList<Pending>(mPending);
+			mPending.clear();
+		}
+		Executor executor = mExecutor != null ? mExecutor : RequestManager.getInstance().getExecutor();
+		for(Pending pending : batch) {
+			pending.release(executor);
+		}
+		mHandler.post(mCheck);
+	}
+	
+	/**
+	 * Returns the number of Requests held.
+	 * @return the number of Requests held.
+	 */
+	public int getPendingCount() {
+		synchronized(mPending) {
+			return mPending.size();
+		}
+	}
+	
+	/**
+	 * Returns an Interceptor that executes the held Requests right after any
+	 * other Request reached the network while it is allowed to, to be
+	 * registered with RequestManager.addInterceptor().
+	 * @return the Interceptor.
+	 */
+	public Interceptor getPiggybackInterceptor() {
+		return new Interceptor() {
+			@Override
+			public Response intercept(Chain chain) {
+				Response res = chain.proceed(chain.request());
+				if(res.getStatusCode() != -1 && getPendingCount() > 0
+						&& ((mConstraints & REQUIRE_UNMETERED) == 0 || isUnmetered())) {
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							flush();
+						}
+					});
+				}
+				return res;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the conditions a batch waits for.
+	 * @return a combination of REQUIRE_UNMETERED, REQUIRE_CHARGING, and
+	 * REQUIRE_IDLE, or 0 if a batch only waits for a connection.
+	 */
+	public int getConstraints() {
+		return mConstraints;
+	}
+	
+	/**
+	 * Sets the conditions a batch waits for.
+	 * @param constraints a combination of REQUIRE_UNMETERED, REQUIRE_CHARGING,
+	 * and REQUIRE_IDLE, or 0 to only wait for a connection.
+	 */
+	public void setConstraints(int constraints) {
+		if((constraints & ~(REQUIRE_UNMETERED | REQUIRE_CHARGING | REQUIRE_IDLE)) != 0) {
+			throw new IllegalArgumentException("Unknown constraints: " + constraints);
+		}
+		mConstraints = constraints;
+		mHandler.post(mCheck);
+	}
+	
+	/**
+	 * Returns the longest time a Request is held before its batch is executed
+	 * on any connection.
+	 * @return the max delay in milliseconds.
+	 */
+	public long getMaxDelay() {
+		return mMaxDelay;
+	}
+	
+	/**
+	 * Sets the longest time a Request is held before its batch is executed on
+	 * any connection.
+	 * @param maxDelay the max delay in milliseconds.
+	 */
+	public void setMaxDelay(long maxDelay) {
+		if(maxDelay < 0) {
+			throw new IllegalArgumentException("maxDelay cannot be negative.");
+		}
+		mMaxDelay = maxDelay;
+		mHandler.post(mCheck);
+	}
+	
+	/**
+	 * Sets the Executor on which batches are executed.
+	 * @param executor the Executor, or null to use RequestManager.getExecutor().
+	 */
+	public void setExecutor(Executor executor) {
+		mExecutor = executor;
+	}
+	
+	/**
+	 * Executes the batch if it is due, otherwise follows the state of the
+	 * device and schedules an alarm for the max delay of the oldest Request.
+	 * Runs on the main-UI thread.
+	 */
+	private void check() {
+		mHandler.removeCallbacks(mCheck);
+		long oldest = Long.MAX_VALUE;
+		synchronized(mPending) {
+			for(int i = mPending.size() - 1; i >= 0; i--) {
+				if(mPending.get(i).call.isCanceled()) {
+					mPending.remove(i);
+				} else {
+					oldest = Math.min(oldest, mPending.get(i).enqueuedAt);
+				}
+			}
+		}
+		if(oldest == Long.MAX_VALUE) {
+			unregister();
+			return;
+		}
+		register();
+		long waited = SystemClock.elapsedRealtime() - oldest;
+		NetworkInfo info = connectivity().getActiveNetworkInfo();
+		if(info != null && info.isConnected() && (waited >= mMaxDelay || conditionsMet())) {
+			flush();
+			return;
+		}
+		if(waited < mMaxDelay) {
+			setDeadline(oldest + mMaxDelay);
+		}
+		//Past the deadline, the connectivity broadcast triggers the next check.
+	}
+	
+	/**
+	 * Schedules a check at elapsedRealtime, replacing any earlier deadline.
+	 * The alarm does not wake the device, which checks once it wakes up.
+	 */
+	private void setDeadline(long elapsedRealtime) {
+		if(mDeadline == null) {
+			Intent intent = new Intent(mDeadlineAction).setPackage(mContext.getPackageName());
+			mDeadline = PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+		}
+		alarms().set(AlarmManager.ELAPSED_REALTIME, elapsedRealtime, mDeadline);
+	}
+	
+	private void cancelDeadline() {
+		if(mDeadline != null) {
+			alarms().cancel(mDeadline);
+		}
+	}
+	
+	private AlarmManager alarms() {
+		return (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+	}
+	
+	private boolean conditionsMet() {
+		int constraints = mConstraints;
+		if((constraints & REQUIRE_UNMETERED) != 0 && !isUnmetered()) {
+			return false;
+		}
+		if((constraints & REQUIRE_CHARGING) != 0 && !mCharging) {
+			return false;
+		}
+		if((constraints & REQUIRE_IDLE) != 0 && mScreenOn) {
+			return false;
+		}
+		return true;
+	}
+	
+	private boolean isUnmetered() {
+		ConnectivityManager cm = connectivity();
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			return !cm.isActiveNetworkMetered();
+		}
+		NetworkInfo info = cm.getActiveNetworkInfo();
+		if(info == null) {
+			return false;
+		}
+		int type = info.getType();
+		return type == ConnectivityManager.TYPE_WIFI || type == ConnectivityManager.TYPE_ETHERNET;
+	}
+	
+	private ConnectivityManager connectivity() {
+		return (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+	}
+	
+	@SuppressWarnings("deprecation")
+	private void register() {
+		if(mRegistered) {
+			return;
+		}
+		mRegistered = true;
+		IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+		filter.addAction(Intent.ACTION_POWER_CONNECTED);
+		filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+		filter.addAction(Intent.ACTION_SCREEN_ON);
+		filter.addAction(Intent.ACTION_SCREEN_OFF);
+		filter.addAction(mDeadlineAction);
+		mContext.registerReceiver(mReceiver, filter);
+		//The battery broadcast is sticky, so its last value is returned at once.
+		Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		mCharging = battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+		PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+		mScreenOn = pm == null || pm.isScreenOn();
+	}
+	
+	private void unregister() {
+		if(!mRegistered) {
+			return;
+		}
+		mRegistered = false;
+		mContext.unregisterReceiver(mReceiver);
+		cancelDeadline();
+	}
+	
+	/**
+	 * Follows the state of the device while Requests are held.
+	 */
+	private class Receiver extends BroadcastReceiver {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			String action = intent.getAction();
+			if(Intent.ACTION_POWER_CONNECTED.equals(action)) {
+				mCharging = true;
+			} else if(Intent.ACTION_POWER_DISCONNECTED.equals(action)) {
+				mCharging = false;
+			} else if(Intent.ACTION_SCREEN_ON.equals(action)) {
+				mScreenOn = true;
+			} else if(Intent.ACTION_SCREEN_OFF.equals(action)) {
+				mScreenOn = false;
+			}
+			check();
+		}
+	}
+	
+	/**
+	 * A held Call, which is also the Executor its RequestFuture was created
+	 * with, handing the Call to the real Executor once its batch runs.
+	 */
+	private static class Pending implements Executor {
+		private final Call call;
+		private final long enqueuedAt;
+		private Runnable task;
+		
+		private Pending(Call call, long enqueuedAt) {
+			this.call = call;
+			this.enqueuedAt = enqueuedAt;
+		}
+		
+		@Override
+		public synchronized void execute(Runnable command) {
+			task = command;
+		}
+		
+		private synchronized void release(Executor executor) {
+			if(task != null) {
+				executor.execute(task);
+				task = null;
+			}
+		}
+	}
+}
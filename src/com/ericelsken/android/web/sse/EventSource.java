@@ -0,0 +1,346 @@
+package com.ericelsken.android.web.sse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.ExceptionHandler;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.RequestManager;
+import com.ericelsken.android.web.Response;
+
+/**
+ * This class keeps a Request to a text/event-stream (Server-Sent Events)
+ * endpoint open and delivers the events it receives to an
+ * EventSourceCallbacks instance on the main-UI thread. Please see the
+ * EventSourceCallbacks documentation for a description of the life-cycle.
+ * 
+ * The Request is executed with Call.executeStreaming() on a thread owned by
+ * this EventSource, and the body is parsed incrementally with a buffer of
+ * Request.getBufferSize() bytes as it arrives. The Accept and Cache-Control
+ * headers required by the protocol are added to the Request.
+ * 
+ * When the connection drops or cannot be established because of a network
+ * error, this class reconnects after the reconnection time, which is
+ * DEFAULT_RETRY unless the server sends a different one, and sends the id of
+ * the last event received in the Last-Event-ID header so the server can
+ * resume the stream. To resume after the process restarts, persist
+ * getLastEventId() and give it to setLastEventId() before calling open().
+ * Responses with a non 2xx status code or a content type other than
+ * text/event-stream close the EventSource, as does a 204 No Content response.
+ * 
+ * The ExceptionHandler provided to this class is called with the same rules
+ * as in RequestHandler, using the return value of
+ * EventSourceCallbacks.onError().
+ * 
+ * All methods of this class MUST be called on the main-UI thread.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class EventSource {
+	
+	/**
+	 * The default reconnection time in milliseconds.
+	 */
+	public static final long DEFAULT_RETRY = 3000;
+	
+	private static final String CONTENT_TYPE = "text/event-stream";
+	
+	private final Context mContext;
+	private final int mId;
+	private final Request mReq;
+	private final Handler mHandler;
+	private EventSourceCallbacks mCallback;
+	private ExceptionHandler mExceptionHandler;
+	
+	private volatile boolean mClosed;
+	private volatile Call mCall;
+	private volatile String mLastEventId;
+	private volatile long mRetry;
+	private Thread mThread;
+	
+	/**
+	 * Create a new EventSource that streams events from the given Request in
+	 * the specified Context with the given id and EventSourceCallbacks. The
+	 * connection is not opened until open() is called.
+	 * @param context the Context being used to make the Request.
+	 * @param id the id of this EventSource, which is sent to all callbacks.
+	 * @param req the Request to the event stream.
+	 * @param callback the EventSourceCallbacks implementation to call.
+	 * @throws NullPointerException if any of context, req, or callback is
+	 * null.
+	 */
+	public EventSource(Context context, int id, Request req, EventSourceCallbacks callback) {
+		if(context == null) {
+			throw new NullPointerException("Context cannot be null.");
+		}
+		if(callback == null) {
+			throw new NullPointerException("EventSourceCallbacks cannot be null.");
+		}
+		if(req == null) {
+			throw new NullPointerException("Request cannot be null.");
+		}
+		mContext = context;
+		mId = id;
+		mReq = req.newBuilder(req.getUri())
+				.setHeader("Accept", CONTENT_TYPE)
+				.setHeader("Cache-Control", "no-cache")
+				.create();
+		mHandler = new Handler(Looper.getMainLooper());
+		mCallback = callback;
+		mExceptionHandler = RequestManager.getInstance().getExceptionHandler();
+		mClosed = false;
+		mCall = null;
+		mLastEventId = null;
+		mRetry = DEFAULT_RETRY;
+		mThread = null;
+	}
+	
+	/**
+	 * Opens the connection to the event stream if this EventSource has not
+	 * already been opened. An EventSource cannot be re-opened once closed.
+	 */
+	public void open() {
+		if(mThread != null || mClosed) {
+			return;
+		}
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stream();
+			}
+		}, "EventSource-" + mId);
+		mThread.start();
+	}
+	
+	/**
+	 * Closes the connection to the event stream, if open, and stops
+	 * reconnecting. No callbacks other than onClosed() are received after
+	 * this call.
+	 */
+	public void close() {
+		if(mClosed) {
+			return;
+		}
+		mClosed = true;
+		Call call = mCall;
+		if(call != null) {
+			call.cancel();
+		}
+		if(mThread != null) {
+			mThread.interrupt();
+		} else {
+			postClosed();
+		}
+	}
+	
+	/**
+	 * Returns whether or not close() has been called or the EventSource has
+	 * stopped on its own.
+	 * @return true if this EventSource is closed, false otherwise.
+	 */
+	public boolean isClosed() {
+		return mClosed;
+	}
+	
+	/**
+	 * Returns the id of the last event received, which is sent in the
+	 * Last-Event-ID header on reconnection. This may be called from any
+	 * thread.
+	 * @return the last event id, or null if none has been received.
+	 */
+	public String getLastEventId() {
+		return mLastEventId;
+	}
+	
+	/**
+	 * Sets the last event id to send when opening the connection, in order to
+	 * resume a stream from a previous process.
+	 * @param lastEventId the last event id, or null to not resume.
+	 */
+	public void setLastEventId(String lastEventId) {
+		mLastEventId = lastEventId;
+	}
+	
+	/**
+	 * Body of the thread owned by this EventSource. Connects, parses, and
+	 * reconnects until closed.
+	 */
+	private void stream() {
+		while(!mClosed) {
+			Request req = mReq;
+			String lastEventId = mLastEventId;
+			if(lastEventId != null) {
+				req = mReq.newBuilder(mReq.getUri()).setHeader("Last-Event-ID", lastEventId).create();
+			}
+			Call call = req.newCall();
+			mCall = call;
+			if(mClosed) {
+				break;
+			}
+			Response res = call.executeStreaming();
+			if(res.hasException()) {
+				//Only network failures, with no status code, are retried.
+				boolean reconnect = res.getStatusCode() == -1;
+				postError(res, reconnect);
+				if(!reconnect) {
+					break;
+				}
+			} else if(res.getBodyStream() == null || res.getStatusCode() == 204) {
+				//No Content tells the client to stop reconnecting.
+				res.close();
+				break;
+			} else if(!isEventStream(res)) {
+				res.close();
+				res.setException(new IOException("Unexpected content type: "
+						+ res.getHeaderField("Content-Type")));
+				postError(res, false);
+				break;
+			} else {
+				read(res);
+			}
+			sleep(mRetry);
+		}
+		mClosed = true;
+		mCall = null;
+		postClosed();
+	}
+	
+	/**
+	 * Parses the body of res, posting events, until it ends or fails.
+	 */
+	private void read(Response res) {
+		postOpen(res);
+		InputStream in = res.getBodyStream();
+		EventStreamParser parser = new EventStreamParser(in, mReq.getBufferSize(), mLastEventId);
+		try {
+			ServerSentEvent ev;
+			while((ev = parser.next()) != null) {
+				mLastEventId = parser.getLastEventId();
+				postEvent(ev);
+			}
+		} catch (IOException ex) {
+			if(!mClosed) {
+				res.setException(ex);
+				postError(res, true);
+			}
+		} finally {
+			mLastEventId = parser.getLastEventId();
+			if(parser.getRetry() >= 0) {
+				mRetry = parser.getRetry();
+			}
+			res.close();
+		}
+	}
+	
+	private static boolean isEventStream(Response res) {
+		String type = res.getHeaderField("Content-Type");
+		return type != null && type.regionMatches(true, 0, CONTENT_TYPE, 0, CONTENT_TYPE.length());
+	}
+	
+	private void sleep(long millis) {
+		if(mClosed) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			//close() was called.
+		}
+	}
+	
+	private void postOpen(final Response res) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(!mClosed) {
+					mCallback.onOpen(mId, res);
+				}
+			}
+		});
+	}
+	
+	private void postEvent(final ServerSentEvent ev) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(!mClosed) {
+					mCallback.onEvent(mId, ev);
+				}
+			}
+		});
+	}
+	
+	private void postError(final Response res, final boolean reconnecting) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(mClosed && reconnecting) {
+					return;
+				}
+				boolean handled = mCallback.onError(mId, res, reconnecting);
+				if(!handled && mExceptionHandler != null) {
+					mExceptionHandler.handleException(mContext, mId, res.getException());
+				}
+			}
+		});
+	}
+	
+	private void postClosed() {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mCallback.onClosed(mId);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the id of this EventSource.
+	 * @return the id of this EventSource.
+	 */
+	public int getId() {
+		return mId;
+	}
+	
+	/**
+	 * Returns the EventSourceCallbacks currently being used.
+	 * @return the EventSourceCallbacks currently being used.
+	 */
+	public EventSourceCallbacks getCallback() {
+		return mCallback;
+	}
+	
+	/**
+	 * Sets the EventSourceCallbacks that will receive future callbacks.
+	 * @param callback the new EventSourceCallbacks.
+	 * @throws NullPointerException if callback is null.
+	 */
+	public void setCallback(EventSourceCallbacks callback) {
+		if(callback == null) {
+			throw new NullPointerException("EventSourceCallbacks cannot be null.");
+		}
+		mCallback = callback;
+	}
+	
+	/**
+	 * Returns the ExceptionHandler currently being used.
+	 * @return the ExceptionHandler currently being used.
+	 */
+	public ExceptionHandler getExceptionHandler() {
+		return mExceptionHandler;
+	}
+	
+	/**
+	 * Sets the ExceptionHandler that will be called on future errors.
+	 * @param handler the new ExceptionHandler.
+	 */
+	public void setExceptionHandler(ExceptionHandler handler) {
+		mExceptionHandler = handler;
+	}
+}
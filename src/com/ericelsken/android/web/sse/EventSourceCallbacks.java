@@ -0,0 +1,59 @@
+package com.ericelsken.android.web.sse;
+
+import com.ericelsken.android.web.Response;
+
+/**
+ * Defines a callback contract used by EventSources to signal the caller as
+ * the connection to a text/event-stream opens, receives events, and fails.
+ * All callbacks are received on the main-UI thread and receive the id given
+ * to the EventSource.
+ * 
+ * The life-cycle of an EventSource is as follows:
+ * 1. onOpen() is called every time a connection is established, including
+ * 	after a reconnect.
+ * 2. onEvent() is called for each event received on the connection.
+ * 3. onError() is called when the connection fails or cannot be established.
+ * 	If the EventSource will reconnect, the reconnecting parameter is true
+ * 	and the cycle begins again at 1. Otherwise the EventSource is closed.
+ * 4. onClosed() is called once the EventSource stops for good, whether due to
+ * 	EventSource.close(), a non-reconnectable error, or the server responding
+ * 	204 No Content.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public interface EventSourceCallbacks {
+	
+	/**
+	 * Called when a connection to the event stream has been opened.
+	 * @param id the id given to the EventSource.
+	 * @param res the Response of the connection. Its body is being read by
+	 * the EventSource and MUST NOT be used.
+	 */
+	public void onOpen(int id, Response res);
+	
+	/**
+	 * Called for each event received.
+	 * @param id the id given to the EventSource.
+	 * @param event the event received.
+	 */
+	public void onEvent(int id, ServerSentEvent event);
+	
+	/**
+	 * Called when the connection fails or could not be established.
+	 * Response.hasException() is guaranteed to return true.
+	 * @param id the id given to the EventSource.
+	 * @param res the Response holding the Exception.
+	 * @param reconnecting true if the EventSource will reconnect, false if it
+	 * is closing.
+	 * @return true to indicate the Exception requires further processing by
+	 * the ExceptionHandler of the EventSource, false if not.
+	 */
+	public boolean onError(int id, Response res, boolean reconnecting);
+	
+	/**
+	 * Called once the EventSource has stopped and will not reconnect.
+	 * @param id the id given to the EventSource.
+	 */
+	public void onClosed(int id);
+}
@@ -0,0 +1,216 @@
+package com.ericelsken.android.web.sse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * An incremental parser of the text/event-stream format. Bytes are read from
+ * the stream into a fixed-size buffer and split into lines as they arrive, so
+ * an event is returned as soon as its terminating blank line is received no
+ * matter how the server chunks its writes.
+ * 
+ * Instances of this class are not thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+class EventStreamParser {
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private final InputStream in;
+	private final byte[] buffer;
+	private int pos;
+	private int limit;
+	
+	private byte[] line;
+	private int lineLength;
+	private boolean lastWasCR;
+	private boolean firstLine;
+	
+	private final StringBuilder data;
+	private String event;
+	private String idBuffer;
+	private String lastEventId;
+	private long retry;
+	
+	/**
+	 * Create a new parser reading from in.
+	 * @param in the stream to parse.
+	 * @param bufferSize the size of the buffer to read into.
+	 * @param lastEventId the last event id already known, or null.
+	 */
+	EventStreamParser(InputStream in, int bufferSize, String lastEventId) {
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+		this.pos = 0;
+		this.limit = 0;
+		this.line = new byte[128];
+		this.lineLength = 0;
+		this.lastWasCR = false;
+		this.firstLine = true;
+		this.data = new StringBuilder();
+		this.event = null;
+		this.idBuffer = lastEventId;
+		this.lastEventId = lastEventId;
+		this.retry = -1;
+	}
+	
+	/**
+	 * Returns the id of the last dispatched event, or the one given to the
+	 * constructor if none has been dispatched. An id received for an event
+	 * that has not been dispatched yet is not returned, so that a stream
+	 * broken in the middle of an event resumes from before it.
+	 */
+	String getLastEventId() {
+		return lastEventId;
+	}
+	
+	/**
+	 * Returns the reconnection time in milliseconds most recently sent by the
+	 * server, or -1 if it has not sent one.
+	 */
+	long getRetry() {
+		return retry;
+	}
+	
+	/**
+	 * Blocks until the next event is received and returns it.
+	 * @return the next event, or null if the end of the stream was reached.
+	 * Any partially received event is discarded at the end of the stream.
+	 * @throws IOException if reading from the stream fails.
+	 */
+	ServerSentEvent next() throws IOException {
+		while(readLine()) {
+			ServerSentEvent ev = processLine();
+			if(ev != null) {
+				return ev;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Reads the next line, without its terminator, into line.
+	 * @return false if the end of the stream was reached first.
+	 */
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		while(true) {
+			if(pos == limit) {
+				limit = in.read(buffer, 0, buffer.length);
+				pos = 0;
+				if(limit <= 0) {
+					limit = 0;
+					return false;
+				}
+			}
+			byte b = buffer[pos++];
+			if(lastWasCR) {
+				lastWasCR = false;
+				if(b == '\n') {
+					//Second half of a CRLF terminator.
+					continue;
+				}
+			}
+			if(b == '\r') {
+				lastWasCR = true;
+				return true;
+			}
+			if(b == '\n') {
+				return true;
+			}
+			if(lineLength == line.length) {
+				byte[] bigger = new byte[line.length * 2];
+				System.arraycopy(line, 0, bigger, 0, lineLength);
+				line = bigger;
+			}
+			line[lineLength++] = b;
+		}
+	}
+	
+	/**
+	 * Interprets the line just read.
+	 * @return the event dispatched by the line, or null if none was.
+	 */
+	private ServerSentEvent processLine() {
+		int start = 0;
+		if(firstLine) {
+			firstLine = false;
+			//Skip a UTF-8 byte order mark.
+			if(lineLength >= 3 && (line[0] & 0xff) == 0xef
+					&& (line[1] & 0xff) == 0xbb && (line[2] & 0xff) == 0xbf) {
+				start = 3;
+			}
+		}
+		if(lineLength - start == 0) {
+			return dispatch();
+		}
+		if(line[start] == ':') {
+			//Comment line.
+			return null;
+		}
+		int colon = -1;
+		for(int i = start; i < lineLength; i++) {
+			if(line[i] == ':') {
+				colon = i;
+				break;
+			}
+		}
+		String field;
+		String value;
+		if(colon == -1) {
+			field = new String(line, start, lineLength - start, UTF_8);
+			value = "";
+		} else {
+			field = new String(line, start, colon - start, UTF_8);
+			int valueStart = colon + 1;
+			if(valueStart < lineLength && line[valueStart] == ' ') {
+				valueStart++;
+			}
+			value = new String(line, valueStart, lineLength - valueStart, UTF_8);
+		}
+		if("data".equals(field)) {
+			data.append(value).append('\n');
+		} else if("event".equals(field)) {
+			event = value;
+		} else if("id".equals(field)) {
+			if(value.indexOf('\0') == -1) {
+				idBuffer = value;
+			}
+		} else if("retry".equals(field)) {
+			parseRetry(value);
+		}
+		return null;
+	}
+	
+	private void parseRetry(String value) {
+		if(value.length() == 0 || value.length() > 18) {
+			return;
+		}
+		for(int i = 0; i < value.length(); i++) {
+			if(value.charAt(i) < '0' || value.charAt(i) > '9') {
+				return;
+			}
+		}
+		retry = Long.parseLong(value);
+	}
+	
+	private ServerSentEvent dispatch() {
+		//The id only becomes the last event id once its event is dispatched.
+		lastEventId = idBuffer;
+		if(data.length() == 0) {
+			event = null;
+			return null;
+		}
+		//Remove the trailing line feed.
+		data.setLength(data.length() - 1);
+		ServerSentEvent ev = new ServerSentEvent(lastEventId,
+				event == null || event.length() == 0 ? ServerSentEvent.DEFAULT_EVENT : event,
+				data.toString());
+		data.setLength(0);
+		event = null;
+		return ev;
+	}
+}
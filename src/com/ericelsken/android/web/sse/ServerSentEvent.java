@@ -0,0 +1,64 @@
+package com.ericelsken.android.web.sse;
+
+/**
+ * A single event received from a text/event-stream by an EventSource.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class ServerSentEvent {
+	
+	/**
+	 * The event type of events that do not specify one.
+	 */
+	public static final String DEFAULT_EVENT = "message";
+	
+	private final String id;
+	private final String event;
+	private final String data;
+	
+	/**
+	 * Create a new event.
+	 * @param id the last event id at the time of the event, or null if none has
+	 * been received.
+	 * @param event the event type.
+	 * @param data the data of the event.
+	 */
+	public ServerSentEvent(String id, String event, String data) {
+		this.id = id;
+		this.event = event;
+		this.data = data;
+	}
+	
+	/**
+	 * Returns the last event id received at the time of this event. This is
+	 * the value sent in the Last-Event-ID header when reconnecting.
+	 * @return the last event id, or null if none has been received.
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * Returns the type of this event, which is DEFAULT_EVENT if the server did
+	 * not specify one.
+	 * @return the type of this event.
+	 */
+	public String getEvent() {
+		return event;
+	}
+	
+	/**
+	 * Returns the data of this event. Multiple data lines are joined with a
+	 * line feed.
+	 * @return the data of this event.
+	 */
+	public String getData() {
+		return data;
+	}
+	
+	@Override
+	public String toString() {
+		return event + " " + id + " " + data;
+	}
+}
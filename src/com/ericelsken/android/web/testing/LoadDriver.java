@@ -0,0 +1,286 @@
+package com.ericelsken.android.web.testing;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+import com.ericelsken.android.web.async.VirtualThreads;
+
+/**
+ * Executes many Requests concurrently through the library and reports
+ * throughput, latency percentiles, and heap churn in a LoadReport. Requests
+ * are executed with Request.newCall().execute() on a fixed number of worker
+ * threads, so the full execution path, including interceptors, metrics, and
+ * the Transport, is measured. Typically the Requests target a MockServer.
+ * Workers run on new platform threads unless an Executor is given with
+ * setExecutor(), such as VirtualThreads.newExecutor() to run thousands of
+ * concurrent workers on virtual threads.
+ * 
+ * Heap churn is measured with the per-thread allocation counters of HotSpot
+ * based JVMs, which are looked up reflectively; on other VMs, including
+ * Android, it is reported as -1.
+ * 
+ * main() runs a standard scenario against a MockServer and exits with status
+ * 1 if the given latency or allocation limits are exceeded, so a build can be
+ * gated on performance regressions.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class LoadDriver {
+	
+	/**
+	 * Creates the Request to execute for each index of a run.
+	 */
+	public interface RequestFactory {
+		/**
+		 * Returns the Request to execute.
+		 * @param index the index of the Request in the run, from 0.
+		 * @return the Request.
+		 */
+		Request create(int index);
+	}
+	
+	private final int mConcurrency;
+	private int mWarmup;
+	private Executor mExecutor;
+	
+	/**
+	 * Create a new driver that executes Requests on concurrency threads.
+	 * @param concurrency the number of Requests executing at once.
+	 */
+	public LoadDriver(int concurrency) {
+		if(concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be positive.");
+		}
+		mConcurrency = concurrency;
+		mWarmup = 0;
+		mExecutor = null;
+	}
+	
+	/**
+	 * Sets the Executor that runs the workers, which must be able to run all
+	 * of them at once.
+	 * @param executor the Executor, or null to start a platform thread per
+	 * worker.
+	 */
+	public void setExecutor(Executor executor) {
+		mExecutor = executor;
+	}
+	
+	/**
+	 * Sets the number of Requests executed before every run, which are not
+	 * included in its report, to warm up connections and the JIT.
+	 * @param warmup the number of warm-up Requests.
+	 */
+	public void setWarmup(int warmup) {
+		if(warmup < 0) {
+			throw new IllegalArgumentException("warmup cannot be negative.");
+		}
+		mWarmup = warmup;
+	}
+	
+	/**
+	 * Executes req count times.
+	 * @see #run(RequestFactory, int)
+	 */
+	public LoadReport run(final Request req, int count) throws InterruptedException {
+		return run(new RequestFactory() {
+			@Override
+			public Request create(int index) {
+				return req;
+			}
+		}, count);
+	}
+	
+	/**
+	 * Executes count Requests created by factory and reports on them.
+	 * @param factory creates the Requests.
+	 * @param count the number of Requests to execute.
+	 * @return the report of the run.
+	 * @throws InterruptedException if interrupted while waiting for the
+	 * workers.
+	 */
+	public LoadReport run(RequestFactory factory, int count) throws InterruptedException {
+		if(mWarmup > 0) {
+			new Run(factory, mWarmup).execute();
+		}
+		return new Run(factory, count).execute();
+	}
+	
+	/**
+	 * The state of a single run shared by its workers.
+	 */
+	private class Run {
+		
+		private final RequestFactory factory;
+		private final long[] latencies;
+		private final AtomicInteger next;
+		private final AtomicInteger failures;
+		private final AtomicLongArray statusClasses;
+		private final AtomicLong allocated;
+		
+		private Run(RequestFactory factory, int count) {
+			this.factory = factory;
+			this.latencies = new long[count];
+			this.next = new AtomicInteger();
+			this.failures = new AtomicInteger();
+			this.statusClasses = new AtomicLongArray(6);
+			this.allocated = new AtomicLong(AllocationCounter.isSupported() ? 0 : -1);
+		}
+		
+		private LoadReport execute() throws InterruptedException {
+			int threads = Math.min(mConcurrency, Math.max(1, latencies.length));
+			final CountDownLatch start = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(threads);
+			Runnable worker = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						work();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			for(int i = 0; i < threads; i++) {
+				if(mExecutor != null) {
+					mExecutor.execute(worker);
+				} else {
+					Thread t = new Thread(worker, "LoadDriver-" + i);
+					t.setDaemon(true);
+					t.start();
+				}
+			}
+			long begin = System.nanoTime();
+			start.countDown();
+			done.await();
+			long elapsed = System.nanoTime() - begin;
+			long[] classes = new long[6];
+			for(int i = 0; i < classes.length; i++) {
+				classes[i] = statusClasses.get(i);
+			}
+			return new LoadReport(mConcurrency, elapsed, latencies, classes, failures.get(), allocated.get());
+		}
+		
+		private void work() {
+			long before = AllocationCounter.current();
+			int i;
+			while((i = next.getAndIncrement()) < latencies.length) {
+				long t0 = System.nanoTime();
+				Response res = factory.create(i).newCall().execute();
+				latencies[i] = System.nanoTime() - t0;
+				if(!res.isSuccessful()) {
+					failures.incrementAndGet();
+				}
+				int status = res.getStatusCode();
+				statusClasses.incrementAndGet(status >= 100 && status < 600 ? status / 100 : 0);
+			}
+			if(before >= 0) {
+				allocated.addAndGet(AllocationCounter.current() - before);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the allocation counter of the current thread through
+	 * com.sun.management.ThreadMXBean, if the VM has one.
+	 */
+	private static class AllocationCounter {
+		
+		private static final Object sBean;
+		private static final Method sGetAllocatedBytes;
+		
+		static {
+			Object bean = null;
+			Method method = null;
+			try {
+				bean = Class.forName("java.lang.management.ManagementFactory")
+						.getMethod("getThreadMXBean").invoke(null);
+				method = Class.forName("com.sun.management.ThreadMXBean")
+						.getMethod("getThreadAllocatedBytes", long.class);
+				method.invoke(bean, Thread.currentThread().getId());
+			} catch (Exception e) {
+				bean = null;
+				method = null;
+			} catch (LinkageError e) {
+				bean = null;
+				method = null;
+			}
+			sBean = bean;
+			sGetAllocatedBytes = method;
+		}
+		
+		private static boolean isSupported() {
+			return sGetAllocatedBytes != null;
+		}
+		
+		/**
+		 * Returns the bytes allocated by the current thread, or -1.
+		 */
+		private static long current() {
+			if(sGetAllocatedBytes == null) {
+				return -1;
+			}
+			try {
+				return (Long) sGetAllocatedBytes.invoke(sBean, Thread.currentThread().getId());
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+	}
+	
+	/**
+	 * Runs a standard scenario against a MockServer and prints its LoadReport.
+	 * Arguments, all optional: count concurrency latencyMillis bodyBytes
+	 * maxP99Millis maxBytesPerRequest virtual. Workers run on virtual threads
+	 * if the last argument is "virtual". Exits with status 1 if any Request
+	 * failed or a limit was exceeded.
+	 */
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		long latency = args.length > 2 ? Long.parseLong(args[2]) : 5;
+		int bodyBytes = args.length > 3 ? Integer.parseInt(args[3]) : 4096;
+		double maxP99 = args.length > 4 ? Double.parseDouble(args[4]) : Double.MAX_VALUE;
+		long maxBytes = args.length > 5 ? Long.parseLong(args[5]) : Long.MAX_VALUE;
+		boolean virtual = args.length > 6 && args[6].equals("virtual");
+		
+		MockServer server = new MockServer();
+		server.setDefaultResponse(new MockResponse()
+				.setHeadersDelay(latency)
+				.addHeader("Content-Type", "application/json")
+				.setBody(new byte[bodyBytes]));
+		server.start();
+		boolean failed;
+		try {
+			Request req = new Request.Builder(server.uri("/load")).create();
+			LoadDriver driver = new LoadDriver(concurrency);
+			driver.setWarmup(Math.min(count, 500));
+			ExecutorService executor = virtual ? VirtualThreads.newExecutor() : null;
+			driver.setExecutor(executor);
+			LoadReport report = driver.run(req, count);
+			if(executor != null) {
+				executor.shutdown();
+			}
+			System.out.println(report);
+			failed = report.getFailures() > 0
+					|| report.getLatencyPercentile(99) > maxP99
+					|| report.getAllocatedBytesPerRequest() > maxBytes;
+		} finally {
+			server.close();
+		}
+		if(failed) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.ericelsken.android.web.testing;
+
+import java.util.Arrays;
+
+/**
+ * The results of a LoadDriver run: throughput, exact latency percentiles,
+ * outcomes by status class, and the bytes allocated by the threads executing
+ * Requests.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class LoadReport {
+	
+	private final int count;
+	private final int concurrency;
+	private final long elapsedNanos;
+	private final long[] sortedLatencies;
+	private final long[] statusClasses;
+	private final int failures;
+	private final long allocatedBytes;
+	
+	LoadReport(int concurrency, long elapsedNanos, long[] latencies, long[] statusClasses, int failures,
+			long allocatedBytes) {
+		this.count = latencies.length;
+		this.concurrency = concurrency;
+		this.elapsedNanos = elapsedNanos;
+		this.sortedLatencies = latencies;
+		Arrays.sort(sortedLatencies);
+		this.statusClasses = statusClasses;
+		this.failures = failures;
+		this.allocatedBytes = allocatedBytes;
+	}
+	
+	/**
+	 * Returns the number of Requests executed.
+	 * @return the number of Requests executed.
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the number of Requests that were kept in flight at once.
+	 * @return the concurrency of the run.
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+	
+	/**
+	 * Returns the number of Responses for which Response.isSuccessful()
+	 * returned false.
+	 * @return the number of failed Requests.
+	 */
+	public int getFailures() {
+		return failures;
+	}
+	
+	/**
+	 * Returns the number of Responses with a status code in the given class,
+	 * or without a status code for class 0.
+	 * @param statusClass the first digit of the status codes, from 0 to 5.
+	 * @return the number of Responses in statusClass.
+	 */
+	public long getStatusClassCount(int statusClass) {
+		return statusClasses[statusClass];
+	}
+	
+	/**
+	 * Returns the wall-clock time of the run.
+	 * @return the elapsed time in milliseconds.
+	 */
+	public double getElapsedMillis() {
+		return elapsedNanos / 1e6;
+	}
+	
+	/**
+	 * Returns the number of Requests completed per second.
+	 * @return the throughput.
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : count * 1e9 / elapsedNanos;
+	}
+	
+	/**
+	 * Returns the latency at percentile p.
+	 * @param p the percentile, between 0 and 100.
+	 * @return the latency in milliseconds.
+	 */
+	public double getLatencyPercentile(double p) {
+		if(count == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(count * p / 100.0);
+		return sortedLatencies[Math.min(count, Math.max(1, rank)) - 1] / 1e6;
+	}
+	
+	/**
+	 * Returns the bytes allocated on the threads executing Requests, which
+	 * includes building the Requests and reading the Responses.
+	 * @return the bytes allocated, or -1 if the VM cannot measure them.
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+	
+	/**
+	 * Returns the average bytes allocated per Request.
+	 * @return the bytes allocated per Request, or -1 if the VM cannot measure
+	 * them.
+	 */
+	public long getAllocatedBytesPerRequest() {
+		if(allocatedBytes < 0 || count == 0) {
+			return -1;
+		}
+		return allocatedBytes / count;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("requests=%d concurrency=%d failures=%d elapsed=%.1fms throughput=%.1f/s%n",
+				count, concurrency, failures, getElapsedMillis(), getThroughput()));
+		sb.append(String.format("latency p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+				getLatencyPercentile(50), getLatencyPercentile(95), getLatencyPercentile(99),
+				getLatencyPercentile(100)));
+		sb.append("status");
+		for(int i = 0; i < statusClasses.length; i++) {
+			if(statusClasses[i] > 0) {
+				sb.append(' ').append(i == 0 ? "none" : i + "xx").append('=').append(statusClasses[i]);
+			}
+		}
+		sb.append(String.format("%nallocated=%d bytes (%d per request)", allocatedBytes,
+				getAllocatedBytesPerRequest()));
+		return sb.toString();
+	}
+}
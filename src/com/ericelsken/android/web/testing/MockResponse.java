@@ -0,0 +1,266 @@
+package com.ericelsken.android.web.testing;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A scripted response served by a MockServer. Besides the status, headers,
+ * and body, a MockResponse describes how it is served: latency before the
+ * headers and before the body, bandwidth throttling, chunked transfer
+ * encoding, and what to do with the connection, which allows failures to be
+ * injected at every stage of an exchange.
+ * 
+ * The setters return this instance so they can be chained. A MockResponse
+ * must not be modified once given to a MockServer, which may serve it from
+ * several threads at once.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class MockResponse {
+	
+	/**
+	 * What a MockServer does with the connection while and after serving a
+	 * MockResponse.
+	 */
+	public enum SocketPolicy {
+		/**
+		 * Serve the response and keep the connection open for the next
+		 * request.
+		 */
+		KEEP_OPEN,
+		/**
+		 * Serve the response and close the connection.
+		 */
+		CLOSE,
+		/**
+		 * Close the connection without sending anything.
+		 */
+		DISCONNECT_AT_START,
+		/**
+		 * Send the headers and half of the body, then close the connection.
+		 */
+		DISCONNECT_DURING_BODY,
+		/**
+		 * Read the request and never respond, until the client gives up.
+		 */
+		NO_RESPONSE
+	}
+	
+	private int status;
+	private String message;
+	private final List<String[]> headers;
+	private byte[] body;
+	private long headersDelay;
+	private long bodyDelay;
+	private int throttleBytes;
+	private long throttlePeriod;
+	private int chunkSize;
+	private SocketPolicy socketPolicy;
+	
+	/**
+	 * Create a new 200 OK response with an empty body.
+	 */
+	public MockResponse() {
+		status = 200;
+		message = "OK";
+		headers = new ArrayList<String[]>();
+		body = new byte[0];
+		socketPolicy = SocketPolicy.KEEP_OPEN;
+	}
+	
+	/**
+	 * Sets the status code and status message.
+	 * @return this
+	 */
+	public MockResponse setStatus(int status, String message) {
+		if(message == null) {
+			throw new NullPointerException("message cannot be null.");
+		}
+		this.status = status;
+		this.message = message;
+		return this;
+	}
+	
+	/**
+	 * Adds a header field. Content-Length and Transfer-Encoding are added by
+	 * MockServer and must not be added here.
+	 * @return this
+	 */
+	public MockResponse addHeader(String name, String value) {
+		if(name == null || value == null) {
+			throw new NullPointerException("name and value cannot be null.");
+		}
+		headers.add(new String[] {name, value});
+		return this;
+	}
+	
+	/**
+	 * Sets the body, encoded as UTF-8.
+	 * @return this
+	 */
+	public MockResponse setBody(String body) {
+		try {
+			return setBody(body.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	/**
+	 * Sets the body.
+	 * @return this
+	 */
+	public MockResponse setBody(byte[] body) {
+		if(body == null) {
+			throw new NullPointerException("body cannot be null.");
+		}
+		this.body = body;
+		return this;
+	}
+	
+	/**
+	 * Sets the time waited after reading the request before sending the
+	 * status line and headers.
+	 * @param millis the delay in milliseconds.
+	 * @return this
+	 */
+	public MockResponse setHeadersDelay(long millis) {
+		headersDelay = millis;
+		return this;
+	}
+	
+	/**
+	 * Sets the time waited after sending the headers before sending the body.
+	 * @param millis the delay in milliseconds.
+	 * @return this
+	 */
+	public MockResponse setBodyDelay(long millis) {
+		bodyDelay = millis;
+		return this;
+	}
+	
+	/**
+	 * Throttles the body to bytes per period, simulating a slow network.
+	 * @param bytes the number of bytes sent at once, or 0 to not throttle.
+	 * @param periodMillis the time waited after each group of bytes.
+	 * @return this
+	 */
+	public MockResponse throttleBody(int bytes, long periodMillis) {
+		if(bytes < 0 || periodMillis < 0) {
+			throw new IllegalArgumentException("bytes and periodMillis cannot be negative.");
+		}
+		throttleBytes = bytes;
+		throttlePeriod = periodMillis;
+		return this;
+	}
+	
+	/**
+	 * Sends the body with chunked transfer encoding instead of a
+	 * Content-Length.
+	 * @param chunkSize the size of each chunk, or 0 to send a Content-Length.
+	 * @return this
+	 */
+	public MockResponse setChunked(int chunkSize) {
+		if(chunkSize < 0) {
+			throw new IllegalArgumentException("chunkSize cannot be negative.");
+		}
+		this.chunkSize = chunkSize;
+		return this;
+	}
+	
+	/**
+	 * Sets what is done with the connection while and after serving this
+	 * response.
+	 * @return this
+	 */
+	public MockResponse setSocketPolicy(SocketPolicy socketPolicy) {
+		if(socketPolicy == null) {
+			throw new NullPointerException("socketPolicy cannot be null.");
+		}
+		this.socketPolicy = socketPolicy;
+		return this;
+	}
+	
+	/**
+	 * Returns the status code to respond with.
+	 * @return the status code.
+	 */
+	public int getStatus() {
+		return status;
+	}
+	
+	/**
+	 * Returns the reason phrase to respond with.
+	 * @return the reason phrase.
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	List<String[]> getHeaders() {
+		return headers;
+	}
+	
+	/**
+	 * Returns the body to respond with.
+	 * @return the body, which is empty if none was set.
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+	
+	/**
+	 * Returns how long to wait before sending the headers.
+	 * @return the delay in milliseconds.
+	 */
+	public long getHeadersDelay() {
+		return headersDelay;
+	}
+	
+	/**
+	 * Returns how long to wait between the headers and the body.
+	 * @return the delay in milliseconds.
+	 */
+	public long getBodyDelay() {
+		return bodyDelay;
+	}
+	
+	/**
+	 * Returns the number of body bytes sent per throttle period.
+	 * @return the number of bytes, or 0 if the body is not throttled.
+	 */
+	public int getThrottleBytes() {
+		return throttleBytes;
+	}
+	
+	/**
+	 * Returns how long to wait after sending each getThrottleBytes() bytes.
+	 * @return the period in milliseconds.
+	 */
+	public long getThrottlePeriod() {
+		return throttlePeriod;
+	}
+	
+	/**
+	 * Returns the size of the chunks in which the body is sent.
+	 * @return the chunk size, or 0 to send the body with a Content-Length.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	/**
+	 * Returns how the connection is treated when serving this response.
+	 * @return the SocketPolicy.
+	 */
+	public SocketPolicy getSocketPolicy() {
+		return socketPolicy;
+	}
+	
+	@Override
+	public String toString() {
+		return status + " " + message + " (" + body.length + " bytes, " + socketPolicy + ")";
+	}
+}
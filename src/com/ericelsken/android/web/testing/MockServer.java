@@ -0,0 +1,466 @@
+package com.ericelsken.android.web.testing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scriptable HTTP/1.1 server on the loopback interface, for exercising
+ * Requests without a real backend. It runs on a plain JVM as well as on
+ * Android.
+ * 
+ * Each request is answered with the next MockResponse given to enqueue(), or
+ * with the default response once the queue is empty. MockResponses control
+ * latency, bandwidth, chunked bodies, and dropped connections. Faults can
+ * also be injected into a fraction of requests with setFaults(); the faults
+ * are picked by a seeded Random in the order requests arrive, so a run with
+ * the same seed and the same request order is repeatable.
+ * 
+ * Received requests are recorded and can be inspected with takeRequest().
+ * Up to 1000 requests are kept; later ones are counted but not
+ * recorded until some are taken, so long load tests do not grow without
+ * bound.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class MockServer implements Closeable {
+	
+	private static final int RECORD_LIMIT = 1000;
+	
+	private final BlockingQueue<MockResponse> mResponses;
+	private final BlockingQueue<RecordedRequest> mRequests;
+	private final AtomicInteger mRequestCount;
+	private final Set<Socket> mSockets;
+	private volatile MockResponse mDefaultResponse;
+	private MockResponse mFault;
+	private double mFaultRate;
+	private Random mRandom;
+	private ServerSocket mServerSocket;
+	private ExecutorService mExecutor;
+	private volatile boolean mClosed;
+	
+	/**
+	 * Create a new server that answers with 200 OK and an empty body by
+	 * default. Call start() to begin accepting connections.
+	 */
+	public MockServer() {
+		mResponses = new LinkedBlockingQueue<MockResponse>();
+		mRequests = new LinkedBlockingQueue<RecordedRequest>(RECORD_LIMIT);
+		mRequestCount = new AtomicInteger();
+		mSockets = Collections.synchronizedSet(new HashSet<Socket>());
+		mDefaultResponse = new MockResponse();
+		mFaultRate = 0;
+	}
+	
+	/**
+	 * Starts accepting connections on an ephemeral loopback port.
+	 * @throws IOException if the port cannot be bound.
+	 * @throws IllegalStateException if the server was already started.
+	 */
+	public synchronized void start() throws IOException {
+		if(mServerSocket != null) {
+			throw new IllegalStateException("MockServer was already started.");
+		}
+		mServerSocket = new ServerSocket();
+		mServerSocket.setReuseAddress(true);
+		mServerSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 1024);
+		mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "MockServer-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				acceptConnections();
+			}
+		});
+	}
+	
+	/**
+	 * Returns the port the server is listening on.
+	 * @return the port.
+	 * @throws IllegalStateException if the server was not started.
+	 */
+	public synchronized int getPort() {
+		if(mServerSocket == null) {
+			throw new IllegalStateException("MockServer was not started.");
+		}
+		return mServerSocket.getLocalPort();
+	}
+	
+	/**
+	 * Returns the URI of path on this server.
+	 * @param path the path, starting with a slash.
+	 * @return the URI of path.
+	 */
+	public URI uri(String path) {
+		return URI.create("http://127.0.0.1:" + getPort() + path);
+	}
+	
+	/**
+	 * Queues a response for the next request that is not otherwise answered.
+	 * @param res the response.
+	 */
+	public void enqueue(MockResponse res) {
+		if(res == null) {
+			throw new NullPointerException("MockResponse cannot be null.");
+		}
+		mResponses.add(res);
+	}
+	
+	/**
+	 * Sets the response served once the queue of enqueued responses is empty.
+	 * @param res the default response.
+	 */
+	public void setDefaultResponse(MockResponse res) {
+		if(res == null) {
+			throw new NullPointerException("MockResponse cannot be null.");
+		}
+		mDefaultResponse = res;
+	}
+	
+	/**
+	 * Answers a fraction of requests with fault instead of the scripted
+	 * response.
+	 * @param rate the fraction of requests to fault, from 0 to 1.
+	 * @param fault the response to serve, typically a 5xx status or a
+	 * disconnecting SocketPolicy.
+	 * @param seed the seed of the Random that picks the faulted requests.
+	 */
+	public synchronized void setFaults(double rate, MockResponse fault, long seed) {
+		if(rate < 0 || rate > 1) {
+			throw new IllegalArgumentException("rate must be between 0 and 1.");
+		}
+		if(rate > 0 && fault == null) {
+			throw new NullPointerException("MockResponse cannot be null.");
+		}
+		mFaultRate = rate;
+		mFault = fault;
+		mRandom = new Random(seed);
+	}
+	
+	/**
+	 * Waits for and removes the oldest recorded request.
+	 * @param timeoutMillis the longest to wait.
+	 * @return the request, or null if none arrived in time.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public RecordedRequest takeRequest(long timeoutMillis) throws InterruptedException {
+		return mRequests.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Returns the number of requests received so far, recorded or not.
+	 * @return the number of requests received.
+	 */
+	public int getRequestCount() {
+		return mRequestCount.get();
+	}
+	
+	/**
+	 * Stops accepting connections and closes all open connections.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(mClosed || mServerSocket == null) {
+			mClosed = true;
+			return;
+		}
+		mClosed = true;
+		mServerSocket.close();
+		synchronized(mSockets) {
+			for(Socket s : mSockets) {
+				closeQuietly(s);
+			}
+		}
+		mExecutor.shutdownNow();
+	}
+	
+	private void acceptConnections() {
+		while(!mClosed) {
+			final Socket socket;
+			try {
+				socket = mServerSocket.accept();
+			} catch (IOException e) {
+				//The server socket was closed.
+				return;
+			}
+			mSockets.add(socket);
+			try {
+				mExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							serveConnection(socket);
+						} catch (IOException ignored) {
+							//The client went away; nothing to report.
+						} finally {
+							mSockets.remove(socket);
+							closeQuietly(socket);
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				//The executor was shut down by close().
+				closeQuietly(socket);
+				return;
+			}
+		}
+	}
+	
+	private void serveConnection(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		InputStream in = new BufferedInputStream(socket.getInputStream());
+		OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+		while(!mClosed) {
+			RecordedRequest req = readRequest(in);
+			if(req == null) {
+				return;
+			}
+			mRequests.offer(req);
+			if(!serve(nextResponse(), req, in, out, socket)) {
+				return;
+			}
+		}
+	}
+	
+	private MockResponse nextResponse() {
+		synchronized(this) {
+			if(mFaultRate > 0 && mRandom.nextDouble() < mFaultRate) {
+				return mFault;
+			}
+		}
+		MockResponse res = mResponses.poll();
+		return res != null ? res : mDefaultResponse;
+	}
+	
+	/**
+	 * Reads a request, or returns null if the client closed the connection.
+	 */
+	private RecordedRequest readRequest(InputStream in) throws IOException {
+		String line = readLine(in);
+		if(line == null) {
+			return null;
+		}
+		String[] parts = line.split(" ");
+		if(parts.length < 2) {
+			throw new IOException("Malformed request line: " + line);
+		}
+		RecordedRequest req = new RecordedRequest(mRequestCount.getAndIncrement(), parts[0], parts[1]);
+		long length = 0;
+		boolean chunked = false;
+		while((line = readLine(in)) != null && line.length() > 0) {
+			int colon = line.indexOf(':');
+			if(colon <= 0) {
+				throw new IOException("Malformed header: " + line);
+			}
+			String name = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim();
+			req.addHeader(name, value);
+			if(name.equalsIgnoreCase("Content-Length")) {
+				length = parseLength(value, 10, "Content-Length");
+			} else if(name.equalsIgnoreCase("Transfer-Encoding")) {
+				chunked = value.equalsIgnoreCase("chunked");
+			}
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if(chunked) {
+			long size;
+			while((size = readChunkSize(in)) > 0) {
+				copy(in, body, size);
+				readLine(in);
+			}
+			//Skip trailers.
+			while((line = readLine(in)) != null && line.length() > 0) {
+				continue;
+			}
+		} else {
+			copy(in, body, length);
+		}
+		return req.withBody(body.toByteArray());
+	}
+	
+	/**
+	 * Serves res, returning whether the connection may be reused.
+	 */
+	private boolean serve(MockResponse res, RecordedRequest req, InputStream in, OutputStream out, Socket socket)
+			throws IOException {
+		switch(res.getSocketPolicy()) {
+		case DISCONNECT_AT_START:
+			return false;
+		case NO_RESPONSE:
+			//Wait for the client to give up.
+			while(in.read() != -1) {
+				continue;
+			}
+			return false;
+		default:
+			break;
+		}
+		sleep(res.getHeadersDelay());
+		byte[] body = res.getBody();
+		int status = res.getStatus();
+		boolean hasBody = !req.getMethod().equals("HEAD") && status / 100 != 1 && status != 204 && status != 304;
+		boolean chunked = hasBody && res.getChunkSize() > 0;
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(status).append(' ').append(res.getMessage()).append("\r\n");
+		List<String[]> headers = res.getHeaders();
+		for(String[] header : headers) {
+			head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+		}
+		if(chunked) {
+			head.append("Transfer-Encoding: chunked\r\n");
+		} else if(hasBody) {
+			head.append("Content-Length: ").append(body.length).append("\r\n");
+		}
+		if(res.getSocketPolicy() == MockResponse.SocketPolicy.CLOSE) {
+			head.append("Connection: close\r\n");
+		}
+		head.append("\r\n");
+		out.write(head.toString().getBytes("US-ASCII"));
+		out.flush();
+		if(!hasBody) {
+			return res.getSocketPolicy() == MockResponse.SocketPolicy.KEEP_OPEN;
+		}
+		sleep(res.getBodyDelay());
+		int end = body.length;
+		if(res.getSocketPolicy() == MockResponse.SocketPolicy.DISCONNECT_DURING_BODY) {
+			end = body.length / 2;
+		}
+		if(chunked) {
+			for(int off = 0; off < end; off += res.getChunkSize()) {
+				int len = Math.min(res.getChunkSize(), end - off);
+				out.write((Integer.toHexString(len) + "\r\n").getBytes("US-ASCII"));
+				writeThrottled(out, body, off, len, res);
+				out.write('\r');
+				out.write('\n');
+			}
+			if(end == body.length) {
+				out.write("0\r\n\r\n".getBytes("US-ASCII"));
+			}
+		} else {
+			writeThrottled(out, body, 0, end, res);
+		}
+		out.flush();
+		if(end != body.length) {
+			//Drop the connection without closing it cleanly.
+			socket.setSoLinger(true, 0);
+			return false;
+		}
+		return res.getSocketPolicy() == MockResponse.SocketPolicy.KEEP_OPEN;
+	}
+	
+	private void writeThrottled(OutputStream out, byte[] b, int off, int len, MockResponse res) throws IOException {
+		int step = res.getThrottleBytes() > 0 ? res.getThrottleBytes() : len;
+		for(int i = off; i < off + len; i += step) {
+			out.write(b, i, Math.min(step, off + len - i));
+			if(res.getThrottleBytes() > 0) {
+				out.flush();
+				sleep(res.getThrottlePeriod());
+			}
+		}
+	}
+	
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while((c = in.read()) != -1) {
+			if(c == '\n') {
+				int len = sb.length();
+				if(len > 0 && sb.charAt(len - 1) == '\r') {
+					sb.setLength(len - 1);
+				}
+				return sb.toString();
+			}
+			sb.append((char) c);
+		}
+		return sb.length() == 0 ? null : sb.toString();
+	}
+	
+	private static long readChunkSize(InputStream in) throws IOException {
+		String line = readLine(in);
+		if(line == null) {
+			throw new EOFException("Chunked request body ended early.");
+		}
+		return parseLength(line.split(";")[0].trim(), 16, "chunk size");
+	}
+	
+	/**
+	 * Parses a length sent by the client, throwing an IOException rather than
+	 * a RuntimeException if it is malformed so that only the connection fails.
+	 */
+	private static long parseLength(String value, int radix, String name) throws IOException {
+		long length;
+		try {
+			length = Long.parseLong(value, radix);
+		} catch (NumberFormatException ex) {
+			throw new IOException("Malformed " + name + ": " + value);
+		}
+		if(length < 0) {
+			throw new IOException("Malformed " + name + ": " + value);
+		}
+		return length;
+	}
+	
+	private static void copy(InputStream in, OutputStream out, long count) throws IOException {
+		byte[] buffer = new byte[8192];
+		while(count > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+			if(read == -1) {
+				throw new EOFException("Request body ended early.");
+			}
+			out.write(buffer, 0, read);
+			count -= read;
+		}
+	}
+	
+	private static void sleep(long millis) throws IOException {
+		if(millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SocketException("MockServer was closed.");
+		}
+	}
+	
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+			//Already closed.
+		}
+	}
+}
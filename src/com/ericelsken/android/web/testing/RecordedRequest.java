@@ -0,0 +1,123 @@
+package com.ericelsken.android.web.testing;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A request received by a MockServer.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class RecordedRequest {
+	
+	private final int sequenceNumber;
+	private final String method;
+	private final String path;
+	private final Map<String, List<String>> headers;
+	private final byte[] body;
+	
+	RecordedRequest(int sequenceNumber, String method, String path) {
+		this.sequenceNumber = sequenceNumber;
+		this.method = method;
+		this.path = path;
+		this.headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+		this.body = null;
+	}
+	
+	private RecordedRequest(RecordedRequest head, byte[] body) {
+		this.sequenceNumber = head.sequenceNumber;
+		this.method = head.method;
+		this.path = head.path;
+		this.headers = head.headers;
+		this.body = body;
+	}
+	
+	void addHeader(String name, String value) {
+		List<String> values = headers.get(name);
+		if(values == null) {
+			values = new ArrayList<String>(1);
+			headers.put(name, values);
+		}
+		values.add(value);
+	}
+	
+	RecordedRequest withBody(byte[] body) {
+		return new RecordedRequest(this, body);
+	}
+	
+	/**
+	 * Returns the index of this request among all requests received by the
+	 * MockServer, starting at 0.
+	 * @return the sequence number of this request.
+	 */
+	public int getSequenceNumber() {
+		return sequenceNumber;
+	}
+	
+	/**
+	 * Returns the method of the request line.
+	 * @return the method.
+	 */
+	public String getMethod() {
+		return method;
+	}
+	
+	/**
+	 * Returns the path and query of the request line.
+	 * @return the path and query.
+	 */
+	public String getPath() {
+		return path;
+	}
+	
+	/**
+	 * Returns the last value of the header field with the given name,
+	 * ignoring case.
+	 * @param name the field name.
+	 * @return the value, or null if there is no such field.
+	 */
+	public String getHeader(String name) {
+		List<String> values = headers.get(name);
+		return values == null ? null : values.get(values.size() - 1);
+	}
+	
+	/**
+	 * Returns all header fields of the request. The map ignores case when
+	 * looking up field names.
+	 * @return an immutable map of the header fields.
+	 */
+	public Map<String, List<String>> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+	
+	/**
+	 * Returns the body of the request, with any chunked transfer encoding
+	 * removed.
+	 * @return the body, which is empty if the request had none.
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+	
+	/**
+	 * Returns the body of the request decoded as UTF-8.
+	 * @return the body as a String.
+	 */
+	public String getBodyAsString() {
+		try {
+			return new String(body, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return method + " " + path;
+	}
+}
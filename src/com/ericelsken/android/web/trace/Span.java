@@ -0,0 +1,173 @@
+package com.ericelsken.android.web.trace;
+
+/**
+ * A completed span recorded by a Tracer: either the execution of a Request,
+ * broken down into phases, or the unmarshaling of its Response. Spans are
+ * immutable and belong to the trace whose context was sent to the server in
+ * the traceparent header, so they can be joined with the server's spans once
+ * exported.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public final class Span {
+	
+	/**
+	 * The span of a Request, from the time its Call was created until its
+	 * response was received.
+	 */
+	public static final int KIND_REQUEST = 0;
+	
+	/**
+	 * The span of unmarshaling a Response, a child of the span of its
+	 * Request.
+	 */
+	public static final int KIND_UNMARSHAL = 1;
+	
+	private final int kind;
+	private final String traceId;
+	private final String spanId;
+	private final String parentId;
+	private final String name;
+	private final long startMillis;
+	private final long durationNanos;
+	private final long queueNanos;
+	private final long waitNanos;
+	private final long transferNanos;
+	private final int status;
+	private final boolean error;
+	
+	/**
+	 * The Tracer that recorded this span, which also records its children.
+	 */
+	final Tracer tracer;
+	
+	Span(Tracer tracer, int kind, String traceId, String spanId, String parentId, String name, long startMillis,
+			long durationNanos, long queueNanos, long waitNanos, long transferNanos, int status, boolean error) {
+		this.tracer = tracer;
+		this.kind = kind;
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.parentId = parentId;
+		this.name = name;
+		this.startMillis = startMillis;
+		this.durationNanos = durationNanos;
+		this.queueNanos = queueNanos;
+		this.waitNanos = waitNanos;
+		this.transferNanos = transferNanos;
+		this.status = status;
+		this.error = error;
+	}
+	
+	/**
+	 * Returns the kind of this span.
+	 * @return KIND_REQUEST or KIND_UNMARSHAL.
+	 */
+	public int getKind() {
+		return kind;
+	}
+	
+	/**
+	 * Returns the id of the trace of this span, as 32 hexadecimal digits.
+	 * @return the trace id.
+	 */
+	public String getTraceId() {
+		return traceId;
+	}
+	
+	/**
+	 * Returns the id of this span, as 16 hexadecimal digits.
+	 * @return the span id.
+	 */
+	public String getSpanId() {
+		return spanId;
+	}
+	
+	/**
+	 * Returns the id of the parent of this span.
+	 * @return the parent span id, or null if this span is the root of its
+	 * trace.
+	 */
+	public String getParentId() {
+		return parentId;
+	}
+	
+	/**
+	 * Returns the name of this span: the method and path template of a
+	 * Request, or "unmarshal".
+	 * @return the name of this span.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns the wall clock time at which this span started.
+	 * @return the start time in milliseconds since the epoch.
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+	
+	/**
+	 * Returns the time from the Call being created until the response was
+	 * received, or the time taken to unmarshal the Response.
+	 * @return the duration in nanoseconds.
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+	
+	/**
+	 * Returns the time the Request waited between its Call being created and
+	 * starting to execute, i.e. queued behind other Requests.
+	 * @return the queueing time in nanoseconds, or 0 for an unmarshal span.
+	 */
+	public long getQueueNanos() {
+		return queueNanos;
+	}
+	
+	/**
+	 * Returns the time to first byte, from the Request reaching the Transport
+	 * until the response headers were received, as given by
+	 * Call.getWaitNanos(). This covers resolving, connecting, sending the
+	 * Request, and the server processing it.
+	 * @return the time to first byte in nanoseconds, or -1 if the Request did
+	 * not reach the network.
+	 */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+	
+	/**
+	 * Returns the time taken to receive the response body.
+	 * @return the transfer time in nanoseconds, or -1 if the body was not
+	 * received, or was streamed and still being read when the span ended.
+	 */
+	public long getTransferNanos() {
+		return transferNanos;
+	}
+	
+	/**
+	 * Returns the status code of the response.
+	 * @return the status code, or -1 if there is none.
+	 */
+	public int getStatus() {
+		return status;
+	}
+	
+	/**
+	 * Returns whether or not the Request or unmarshaling failed.
+	 * @return true if this span ended in an error.
+	 */
+	public boolean isError() {
+		return error;
+	}
+	
+	@Override
+	public String toString() {
+		return name + " trace=" + traceId + " span=" + spanId + " parent=" + parentId + " duration="
+				+ durationNanos / 1000 + "us queue=" + queueNanos / 1000 + "us wait=" + waitNanos / 1000
+				+ "us transfer=" + transferNanos / 1000 + "us status=" + status + (error ? " error" : "");
+	}
+}
@@ -0,0 +1,259 @@
+package com.ericelsken.android.web.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.ericelsken.android.web.Call;
+import com.ericelsken.android.web.Interceptor;
+import com.ericelsken.android.web.Request;
+import com.ericelsken.android.web.Response;
+import com.ericelsken.android.web.metrics.PathTemplate;
+
+/**
+ * An Interceptor that traces a sample of Requests. A sampled Request is sent
+ * with a W3C traceparent header so that the server's spans join its trace,
+ * and once it completes a Span breaking it down into queueing, time to first
+ * byte, and transfer is added to a bounded ring, from which drain() takes the
+ * completed spans for batch export. Loaders report the time spent
+ * unmarshaling a traced Response as a child span.
+ * 
+ * A Request that already carries a traceparent header continues that trace
+ * and follows its sampling decision. Any other Request is sampled with the
+ * probability given by getSampleRate(). A Request that is not sampled is
+ * passed on untouched after one random draw, so a Tracer can stay registered
+ * in production with a low rate.
+ * 
+ * Register the Tracer with RequestManager.addInterceptor() before other
+ * Interceptors so that its spans cover theirs. Once the ring is full, the
+ * oldest spans are dropped. All methods are thread-safe.
+ * 
+ * @author Eric Elsken
+ *
+ */
+public class Tracer implements Interceptor {
+	
+	/**
+	 * The name of the W3C trace context header.
+	 */
+	public static final String TRACEPARENT = "traceparent";
+	
+	/**
+	 * The default number of completed spans held.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+	
+	private static final ThreadLocal<Random> sRandom = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+	
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	private final Span[] mRing;
+	private final PathTemplate mTemplate;
+	private volatile float mSampleRate;
+	private int mHead;
+	private int mSize;
+	private long mDropped;
+	
+	/**
+	 * Creates a new Tracer holding up to DEFAULT_CAPACITY spans.
+	 * @param sampleRate the fraction of Requests to trace, from 0 to 1.
+	 */
+	public Tracer(float sampleRate) {
+		this(sampleRate, DEFAULT_CAPACITY, PathTemplate.DEFAULT);
+	}
+	
+	/**
+	 * Creates a new Tracer.
+	 * @param sampleRate the fraction of Requests to trace, from 0 to 1.
+	 * @param capacity the number of completed spans held until drained.
+	 * @param template the PathTemplate naming the span of each Request.
+	 */
+	public Tracer(float sampleRate, int capacity, PathTemplate template) {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive.");
+		}
+		if(template == null) {
+			throw new NullPointerException("PathTemplate cannot be null.");
+		}
+		setSampleRate(sampleRate);
+		mRing = new Span[capacity];
+		mTemplate = template;
+		mHead = 0;
+		mSize = 0;
+		mDropped = 0;
+	}
+	
+	@Override
+	public Response intercept(Chain chain) {
+		Request req = chain.request();
+		String parent = req.getHeaders().get(TRACEPARENT);
+		String traceId;
+		String parentId;
+		if(parent != null) {
+			//Continue the trace of the caller: 00-traceid-parentid-flags.
+			if(!isSampled(parent)) {
+				return chain.proceed(req);
+			}
+			traceId = parent.substring(3, 35);
+			parentId = parent.substring(36, 52);
+		} else {
+			float rate = mSampleRate;
+			if(rate <= 0 || sRandom.get().nextFloat() >= rate) {
+				return chain.proceed(req);
+			}
+			traceId = randomHex(2);
+			parentId = null;
+		}
+		return trace(chain, req, traceId, parentId);
+	}
+	
+	private Response trace(Chain chain, Request req, String traceId, String parentId) {
+		String spanId = randomHex(1);
+		long startMillis = System.currentTimeMillis();
+		Request traced = req.newBuilder(req.getUri())
+				.setHeader(TRACEPARENT, "00-" + traceId + "-" + spanId + "-01").create();
+		Response res = null;
+		try {
+			res = chain.proceed(traced);
+			return res;
+		} finally {
+			Call call = chain.call();
+			long queue = call.getQueueNanos();
+			Span span = new Span(this, Span.KIND_REQUEST, traceId, spanId, parentId,
+					req.getMethod() + " " + mTemplate.template(req.getUri()),
+					startMillis - queue / 1000000, System.nanoTime() - call.getCreatedNanos(), queue,
+					call.getWaitNanos(), call.getTransferNanos(),
+					res == null ? -1 : res.getStatusCode(), res == null || (res.hasException() && !res.isCancelled()));
+			add(span);
+			if(res != null) {
+				res.setTag(span);
+			}
+		}
+	}
+	
+	/**
+	 * Records the unmarshaling of res as a child of the span of its Request,
+	 * if it was traced. Called by the Loaders of this library after
+	 * unmarshaling, and by applications that unmarshal Responses themselves.
+	 * @param res the Response that was unmarshaled.
+	 * @param startNanos the System.nanoTime() at which unmarshaling started.
+	 * @param error whether or not unmarshaling failed.
+	 */
+	public static void recordUnmarshal(Response res, long startNanos, boolean error) {
+		Object tag = res.getTag();
+		if(!(tag instanceof Span)) {
+			return;
+		}
+		Span parent = (Span) tag;
+		long duration = System.nanoTime() - startNanos;
+		parent.tracer.add(new Span(parent.tracer, Span.KIND_UNMARSHAL, parent.getTraceId(), randomHex(1),
+				parent.getSpanId(), "unmarshal", System.currentTimeMillis() - duration / 1000000, duration, 0, -1, -1,
+				parent.getStatus(), error));
+	}
+	
+	/**
+	 * Returns whether or not res was traced, so that callers only time
+	 * unmarshaling when it will be recorded.
+	 * @param res the Response to check.
+	 * @return true if res carries the span of its Request.
+	 */
+	public static boolean isTraced(Response res) {
+		return res.getTag() instanceof Span;
+	}
+	
+	private synchronized void add(Span span) {
+		mRing[(mHead + mSize) % mRing.length] = span;
+		if(mSize < mRing.length) {
+			mSize++;
+		} else {
+			mHead = (mHead + 1) % mRing.length;
+			mDropped++;
+		}
+	}
+	
+	/**
+	 * Removes and returns the completed spans held, oldest first.
+	 * @return the completed spans.
+	 */
+	public synchronized List<Span> drain() {
+		List<Span> spans = new ArrayList<Span>(mSize);
+		for(int i = 0; i < mSize; i++) {
+			int index = (mHead + i) % mRing.length;
+			spans.add(mRing[index]);
+			mRing[index] = null;
+		}
+		mHead = 0;
+		mSize = 0;
+		return spans;
+	}
+	
+	/**
+	 * Returns the number of spans dropped because the ring was full.
+	 * @return the number of dropped spans.
+	 */
+	public synchronized long getDroppedCount() {
+		return mDropped;
+	}
+	
+	/**
+	 * Returns the fraction of Requests without a traceparent header that are
+	 * traced.
+	 * @return the sample rate, from 0 to 1.
+	 */
+	public float getSampleRate() {
+		return mSampleRate;
+	}
+	
+	/**
+	 * Sets the fraction of Requests without a traceparent header to trace.
+	 * @param sampleRate the sample rate, from 0 to 1.
+	 */
+	public void setSampleRate(float sampleRate) {
+		if(!(sampleRate >= 0 && sampleRate <= 1)) {
+			throw new IllegalArgumentException("sampleRate must be between 0 and 1.");
+		}
+		mSampleRate = sampleRate;
+	}
+	
+	/**
+	 * Returns whether a traceparent header is well formed and its sampled
+	 * flag, bit 0 of the two hexadecimal flag digits, is set.
+	 */
+	private static boolean isSampled(String traceparent) {
+		if(traceparent.length() < 55 || traceparent.charAt(2) != '-' || traceparent.charAt(35) != '-'
+				|| traceparent.charAt(52) != '-') {
+			return false;
+		}
+		int high = Character.digit(traceparent.charAt(53), 16);
+		int low = Character.digit(traceparent.charAt(54), 16);
+		if(high < 0 || low < 0) {
+			return false;
+		}
+		return (low & 1) != 0;
+	}
+	
+	/**
+	 * Returns a random, non-zero id of the given number of longs in
+	 * hexadecimal.
+	 */
+	private static String randomHex(int longs) {
+		Random random = sRandom.get();
+		char[] chars = new char[longs * 16];
+		long value;
+		for(int i = 0; i < longs; i++) {
+			do {
+				value = random.nextLong();
+			} while(value == 0);
+			for(int j = 15; j >= 0; j--) {
+				chars[i * 16 + j] = HEX_DIGITS[(int) (value & 0xf)];
+				value >>>= 4;
+			}
+		}
+		return new String(chars);
+	}
+}